@@ -1,19 +1,22 @@
 import edu.jhu.agiga.*;
-import edu.stanford.nlp.trees.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Created by sebastian on 29/09/14.
  * Adapted from Eva Mujdricza-Maydt (mujdricz@cl.uni-heidelberg.de).
  *
- * A class to read annotated Gigaword documents and extract emotion-triggering expressions from them.
+ * A class to read annotated Gigaword documents and extract emotion-triggering expressions from them. Each instance
+ * extracts from a single Gigaword file and writes the extractions to its own shards, so that several files can be
+ * processed in parallel. Within a file, documents are parsed by one thread, extracted from by a shared pool of workers,
+ * and written in their original order by another thread; bounded queues between the stages apply backpressure.
  */
-public class AgigaReader {
+public class AgigaReader implements Callable<AgigaReader> {
 
     /*
     The logger used for logging
@@ -36,6 +39,41 @@ public class AgigaReader {
      */
     private static boolean addNER = true;
 
+    /*
+    A boolean indicating if the collocations should be echoed to the console; slows down extraction considerably.
+     */
+    private static boolean verbose = false;
+
+    /*
+    The flush policy of the output files: flushed after 8M characters or 30 seconds. Checkpoints and the merge of a file
+    flush the output in any case.
+     */
+    private static OutputSink.FlushPolicy flushPolicy = new OutputSink.FlushPolicy(8 << 20, 0, 30000);
+
+    /*
+    The number of milliseconds after which the stats and the progress of a run are published.
+     */
+    private static long statsInterval = 60000;
+
+    /*
+    A boolean indicating if propositions that are already in the results should be dropped while the results are merged,
+    e.g. when the files of a new Gigaword drop are added to an existing output directory. The stored propositions are
+    kept in a filter next to the results, so that the results aren't read again.
+     */
+    private static boolean removeDuplicates = false;
+
+    /*
+    The false-positive rate of the filter of the stored propositions, i.e. the rate at which unique propositions are
+    dropped if duplicates aren't verified.
+     */
+    private static double duplicateFalsePositiveRate = 0.001;
+
+    /*
+    A boolean indicating if duplicates found by the filter should be verified against the fingerprints of all stored
+    propositions, which are then held in memory, so that no unique propositions are dropped.
+     */
+    private static boolean verifyDuplicates = false;
+
     /**
      * A regex for matching pronouns, this, and what in the output string.
      */
@@ -43,11 +81,175 @@ public class AgigaReader {
 
     private static List<String> prepositionsThat = Arrays.asList(new String[] {"that", "of", "to", "about", "on"});
 
+    /**
+     * Marks the end of a file in the queue between the parsing and the writing stage.
+     */
+    private static final Future<DocumentExtraction> endOfFile = new FutureTask<DocumentExtraction>(
+            new Callable<DocumentExtraction>() {
+                @Override
+                public DocumentExtraction call() {
+                    return null;
+                }
+            });
+
+    /**
+     * The number of documents after which the parsing stage logs its progress.
+     */
+    private static final int logInterval = 10000;
+
+    /**
+     * The number of written documents after which the writing stage records a checkpoint of the file.
+     */
+    private static final int checkpointInterval = 1000;
+
+    /**
+     * The path of the Gigaword file that is read.
+     */
+    private String filePath;
+
+    /**
+     * The path of the shard to which the results of the file are written.
+     */
+    private String resultShardPath;
+
+    /**
+     * The path of the shard to which the collocations of the file are written.
+     */
+    private String collShardPath;
+
+    /**
+     * The path of the checkpoint of the shards, which records how far the file has been processed.
+     */
+    private String progressPath;
+
+    /**
+     * The preferences of what should be read.
+     */
+    private AgigaPrefs readingPrefs;
+
+    /**
+     * The pool of workers extracting from documents; shared by all instances.
+     */
+    private ExecutorService extractionPool;
+
+    /**
+     * The maximum number of documents that are parsed but not yet written.
+     */
+    private int queueCapacity;
+
+    /**
+     * The emotion map created by the <code>EmotionPatternExtractor</code>; shared by all instances and only read.
+     */
+    private Map<String, Map<Pattern, Map<String, Boolean>>> emotionMap;
+
+    /**
+     * The matcher finding the matches of all patterns in a single pass over a sentence; shared by all instances.
+     */
+    private PatternMatcher patternMatcher;
+
+    /**
+     * The registry of the patterns of the emotion map; shared by all instances.
+     */
+    private PatternRegistry registry;
+
+    /**
+     * The number of times each pattern has found a successful match in the file, indexed by pattern id.
+     */
+    private AtomicLongArray matchCounts;
+
+    /**
+     * The reporter publishing the stats of the run; shared by all instances.
+     */
+    private StatsReporter reporter;
+
+    /**
+     * The number of successful matches in the file (experiencer & cause have been found).
+     */
+    private int matches = 0;
+
+    /**
+     * The number of sentences in the file.
+     */
+    private int sentenceCount = 0;
+
+    /**
+     * The number of sentences in the file without a trigger lemma.
+     */
+    private int rejectedCount = 0;
+
+    /**
+     * The number of documents whose matches have been written to the shards.
+     */
+    private int writtenDocuments = 0;
+
+    /**
+     * The id of the last document whose matches have been written to the shards.
+     */
+    private String lastDocId = null;
+
+    /**
+     * The number of documents in the file that have been parsed.
+     */
+    private int documentCount = 0;
+
+    /**
+     * The maximum number of documents waiting in the queue to be written.
+     */
+    private int maxQueueDepth = 0;
+
+    /**
+     * The sum of the queue depths each time a document was added; divided by the number of documents it is the
+     * average queue depth.
+     */
+    private long queueDepthSum = 0;
+
+    /**
+     * The time in nanoseconds the parsing stage was blocked because the queue was full.
+     */
+    private long parserBlockedNanos = 0;
+
+    /**
+     * The time in nanoseconds the writing stage waited for the extraction of the next document.
+     */
+    private long writerWaitNanos = 0;
+
+    /**
+     * Initializes an <code>AgigaReader</code> that extracts from a single Gigaword file.
+     * @param filePath the path of the Gigaword file
+     * @param shardDir the directory to which the shards should be written
+     * @param readingPrefs the preferences of what should be read
+     * @param extractionPool the pool of workers extracting from documents
+     * @param queueCapacity the maximum number of documents that are parsed but not yet written
+     * @param emotionMap the emotion map
+     * @param patternMatcher the pattern matcher of the emotion map
+     * @param registry the pattern registry of the emotion map
+     * @param reporter the reporter to which sentences and matches are added
+     */
+    public AgigaReader(String filePath, String shardDir, AgigaPrefs readingPrefs, ExecutorService extractionPool,
+                       int queueCapacity, Map<String, Map<Pattern, Map<String, Boolean>>> emotionMap,
+                       PatternMatcher patternMatcher, PatternRegistry registry,
+                       StatsReporter reporter) {
+        String fileName = new File(filePath).getName();
+        this.filePath = filePath;
+        this.resultShardPath = Utils.combine(shardDir, fileName + ".results.txt");
+        this.collShardPath = Utils.combine(shardDir, fileName + ".collocations.txt");
+        this.progressPath = Utils.combine(shardDir, fileName + ".checkpoint");
+        this.readingPrefs = readingPrefs;
+        this.extractionPool = extractionPool;
+        this.queueCapacity = queueCapacity;
+        this.emotionMap = emotionMap;
+        this.patternMatcher = patternMatcher;
+        this.registry = registry;
+        this.matchCounts = registry.createCounts();
+        this.reporter = reporter;
+    }
 
     /**
      * Main method iterating over the annotated Gigaword documents
      *
-     * @param args the directory of the Gigaword files, the pattern templates file, the output directory
+     * @param args the directory of the Gigaword files, the pattern templates file, the output directory, optionally
+     *             the number of extraction workers (default: number of processors) and the number of files that
+     *             should be parsed in parallel (default: 1)
      * @throws java.io.IOException
      */
     public static void main(String[] args) throws IOException {
@@ -59,9 +261,9 @@ public class AgigaReader {
         // nohup java -jar sentiment_java_1.6.jar /home/resources/corpora/monolingual/annotated/anno_eng_gigaword_5/data/xml/ pattern_templates_2.0.txt output/ &
 
         // validation of input parameters
-        if (args.length != 3) {
-            System.out.println("Too few or too many arguments. sentiment.jar takes exactly 3 arguments.\n" +
-                    "Usage: java -jar sentiment.jar gigawordDirPath patternTemplatesFilePath outDirPath");
+        if (args.length < 3 || args.length > 5) {
+            System.out.println("Too few or too many arguments. sentiment.jar takes 3 to 5 arguments.\n" +
+                    "Usage: java -jar sentiment.jar gigawordDirPath patternTemplatesFilePath outDirPath [threads] [files]");
             System.exit(1);
         }
 
@@ -80,8 +282,19 @@ public class AgigaReader {
             throw new IllegalArgumentException(String.format("%s is no directory or directory doesn't exist.", args[2]));
         }
 
-        String agigaPath = gigaDir.toString();
-        String outPath = outDir.toString();
+        int threads = args.length >= 4 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        if (threads < 1) {
+            throw new IllegalArgumentException(String.format("%s is not a valid number of threads.", args[3]));
+        }
+
+        int parallelFiles = args.length == 5 ? Integer.parseInt(args[4]) : 1;
+        if (parallelFiles < 1) {
+            throw new IllegalArgumentException(String.format("%s is not a valid number of files.", args[4]));
+        }
+
+        // paths are used as prefixes for file names, so they need to end with a separator
+        String agigaPath = gigaDir.getPath() + File.separator;
+        String outPath = outDir.getPath() + File.separator;
 
         // filters .gz files
         String[] fileNames = gigaDir.list(new FilenameFilter() {
@@ -103,9 +316,6 @@ public class AgigaReader {
         readingPrefs.setColCcprocDeps(true);
         readingPrefs.setNer(true); // adds NE annotation
         readingPrefs.setCoref(true); // adds coreference annotation
-
-        // Get the document reader - this "entails" all the documents within the gz-compressed file
-        StreamingDocumentReader agigaReader;
         log.info("Parsing XML");
 
         // store the emotion-triggering patterns in a map
@@ -113,278 +323,742 @@ public class AgigaReader {
         Map<String, Map<Pattern, Map<String, Boolean>>> emotionMap =
                 emotionExtractor.extractEmotions(templatesFile, outPath);
 
-        // map listing each pattern with the number of times it has found a successful match (experiencer + cause)
-        Map<Pattern, Map<String, String>> resultMap = Stats.createResultMap(emotionMap);
+        // matcher that finds the matches of all patterns in a single pass over a sentence
+        PatternMatcher patternMatcher = emotionExtractor.getPatternMatcher();
+
+        // registry of the patterns and the number of times each has found a successful match (experiencer + cause)
+        PatternRegistry registry = new PatternRegistry(emotionMap);
+        AtomicLongArray matchCounts = registry.createCounts();
 
         int matches = 0; // count number of successful matches (experiencer & cause have been found)
-        int count = 0; // count number of sentences spanning all documents
 
-        PrintWriter resultWriter = new PrintWriter(new BufferedWriter(new FileWriter(outPath + "results.txt")));
-        PrintWriter collWriter = new PrintWriter(new BufferedWriter(new FileWriter(outPath + "collocations.txt")));
+        // files are merged in a fixed order, so that a resumed run continues where the interrupted one stopped
+        Arrays.sort(fileNames);
+        String resultPath = outPath + "results.txt";
+        String collPath = outPath + "collocations.txt";
+        String manifestPath = outPath + Checkpoint.manifestName;
 
-        // write headline for result writer
-        resultWriter.printf("# ID\tEmotion\tPattern\tEmotion Holder\t(NP-Cause)\t(Subj S-Cause)\t(Pred S-Cause)\t(Dobj S-Cause)\t[Pobjs S-Cause]\t[BoW Cause]\n");
+        // skip the files that have been completed by an earlier run and remove partial output merged after them
+        List<Checkpoint> completed = Checkpoint.read(manifestPath);
+        Set<String> completedFiles = new HashSet<String>();
+        for (Checkpoint checkpoint : completed) {
+            completedFiles.add(checkpoint.getFileName());
+        }
 
+        boolean resume = !completed.isEmpty();
+        long storedPropositions = -1;
+        if (resume) {
+            Checkpoint last = completed.get(completed.size() - 1);
+            Checkpoint.truncate(resultPath, last.getResultLength());
+            Checkpoint.truncate(collPath, last.getCollLength());
+            last.restoreCounts(matchCounts);
+            matches = last.getMatches();
+            storedPropositions = last.getPropositionCount();
+            log.info(String.format("Resuming after %d completed files with %d matches", completed.size(), matches));
+        }
+
+        // a filter of the results of an earlier run is stale once they are written anew
+        PropositionFilter filter = null;
+        if (removeDuplicates) {
+            if (!resume) {
+                PropositionFilter.delete(resultPath);
+            }
+            filter = PropositionFilter.open(resultPath, duplicateFalsePositiveRate, verifyDuplicates,
+                    storedPropositions);
+        }
+
+        // the stats are published by a background thread, so that writing them doesn't hold up extraction
+        long totalBytes = 0;
         for (String fileName : fileNames) {
-            agigaReader = new StreamingDocumentReader(agigaPath + fileName, readingPrefs);
+            if (!completedFiles.contains(fileName)) {
+                totalBytes += new File(agigaPath + fileName).length();
+            }
+        }
+        long restoredSentences = 0;
+        for (Checkpoint checkpoint : completed) {
+            restoredSentences += checkpoint.getSentenceCount();
+        }
+        StatsReporter reporter = new StatsReporter(registry, outPath, statsInterval, totalBytes);
+        reporter.restore(matchCounts, restoredSentences, matches);
+        reporter.start();
+
+        // each file is written to its own shards, which are merged in the order of the files
+        File shardDir = new File(Utils.combine(outPath, "shards"));
+        if (!shardDir.isDirectory() && !shardDir.mkdirs()) {
+            throw new IOException(String.format("%s couldn't be created.", shardDir));
+        }
+
+        // files are parsed and written by the executor; documents are extracted from by the extraction pool
+        ExecutorService executor = Executors.newFixedThreadPool(parallelFiles);
+        ExecutorService extractionPool = Executors.newFixedThreadPool(threads);
+        int queueCapacity = 2 * threads;
+        List<String> pendingFiles = new ArrayList<String>();
+        List<Future<AgigaReader>> futures = new ArrayList<Future<AgigaReader>>();
+        for (String fileName : fileNames) {
+            if (!completedFiles.contains(fileName)) {
+                pendingFiles.add(fileName);
+                futures.add(executor.submit(new AgigaReader(agigaPath + fileName, shardDir.getPath(), readingPrefs,
+                        extractionPool, queueCapacity, emotionMap, patternMatcher, registry, reporter)));
+            }
+        }
+        executor.shutdown();
+        log.info(String.format("Processing %d files, %d at a time, with %d extraction threads", pendingFiles.size(),
+                parallelFiles, threads));
+
+        OutputSink resultWriter = new OutputSink(resultPath, resume, flushPolicy);
+        OutputSink collWriter = new OutputSink(collPath, resume, flushPolicy);
+
+        // writes how many sentences of each file were rejected by the trigger prefilter
+        PrintWriter prefilterWriter = new PrintWriter(new BufferedWriter(new FileWriter(outPath + "prefilter_stats.txt", resume)));
+
+        // writes the queue depths and waiting times of the stages of each file
+        PrintWriter pipelineWriter = new PrintWriter(new BufferedWriter(new FileWriter(outPath + "pipeline_stats.txt", resume)));
+
+        if (!resume) {
+            prefilterWriter.printf("File\t#sentences\t#rejected\t%%rejected\n");
+            pipelineWriter.printf("File\t#documents\tmax_queue_depth\tavg_queue_depth\tparser_blocked(s)\twriter_waited(s)\n");
+
+            // write headline for result writer
+            resultWriter.print("# ID\tEmotion\tPattern\tEmotion Holder\t(NP-Cause)\t(Subj S-Cause)\t(Pred S-Cause)\t(Dobj S-Cause)\t[Pobjs S-Cause]\t[BoW Cause]\n");
+        }
+
+        for (int i = 0; i < pendingFiles.size(); i++) {
+            String fileName = pendingFiles.get(i);
+            AgigaReader fileReader;
+            try {
+                fileReader = futures.get(i).get();
+            }
+            catch (InterruptedException ex) {
+                executor.shutdownNow();
+                extractionPool.shutdownNow();
+                throw new IOException(String.format("Interrupted while processing %s.", fileName), ex);
+            }
+            catch (ExecutionException ex) {
+                executor.shutdownNow();
+                extractionPool.shutdownNow();
+                throw new IOException(String.format("Error while processing %s.", fileName), ex.getCause());
+            }
+
+            // append the shards; matches in the collocations are numbered across all files and only the matches
+            // that aren't dropped as duplicates are counted
+            long duplicates = filter == null ? 0 : filter.getDuplicateCount();
+            matches = appendShards(fileReader.resultShardPath, fileReader.collShardPath, resultWriter, collWriter,
+                    matches, filter, matchCounts, reporter);
+            resultWriter.flush();
+            collWriter.flush();
+            reporter.addProcessedBytes(new File(fileReader.filePath).length());
+
+            // the filter is saved before the checkpoint, which records the number of its propositions; if the run is
+            // interrupted in between, the file is merged again and the filter is truncated to the last checkpoint
+            long propositionCount = -1;
+            if (filter != null) {
+                filter.save();
+                propositionCount = filter.getCount();
+                log.info(String.format("%s: %d propositions dropped as duplicates", fileName,
+                        filter.getDuplicateCount() - duplicates));
+            }
+
+            // the file is complete once it is in the manifest; only then are its shards no longer needed
+            completed.add(new Checkpoint(fileName, fileReader.lastDocId, fileReader.writtenDocuments,
+                    new File(resultPath).length(), new File(collPath).length(), matches, fileReader.sentenceCount,
+                    fileReader.rejectedCount, matchCounts, propositionCount));
+            Checkpoint.write(manifestPath, completed);
+            fileReader.deleteShards();
+
+            double rejectedPercent = fileReader.sentenceCount == 0 ? 0 :
+                    (double)fileReader.rejectedCount / fileReader.sentenceCount * 100;
+            log.info(String.format("%s: %d of %d sentences (%.2f%%) rejected by prefilter", fileName,
+                    fileReader.rejectedCount, fileReader.sentenceCount, rejectedPercent));
+            prefilterWriter.printf(Locale.US, "%s\t%d\t%d\t%.2f\n", fileName, fileReader.sentenceCount,
+                    fileReader.rejectedCount, rejectedPercent);
+            prefilterWriter.flush();
+
+            // a full queue means extraction and writing can't keep up with parsing and vice versa
+            double avgQueueDepth = fileReader.documentCount == 0 ? 0 :
+                    (double)fileReader.queueDepthSum / fileReader.documentCount;
+            log.info(String.format("%s: %d documents, queue depth max %d/%d avg %.2f, parser blocked %.2fs, writer waited %.2fs",
+                    fileName, fileReader.documentCount, fileReader.maxQueueDepth, queueCapacity, avgQueueDepth,
+                    fileReader.parserBlockedNanos / 1e9, fileReader.writerWaitNanos / 1e9));
+            pipelineWriter.printf(Locale.US, "%s\t%d\t%d\t%.2f\t%.2f\t%.2f\n", fileName, fileReader.documentCount,
+                    fileReader.maxQueueDepth, avgQueueDepth, fileReader.parserBlockedNanos / 1e9,
+                    fileReader.writerWaitNanos / 1e9);
+            pipelineWriter.flush();
+        }
+
+        extractionPool.shutdown();
+        if (filter != null) {
+            filter.close();
+        }
+        resultWriter.close();
+        collWriter.close();
+        prefilterWriter.close();
+        pipelineWriter.close();
+        reporter.close();
+
+        // shards of files completed before an interruption may be left over
+        Utils.cleanDirectory(shardDir.getPath(), "*");
+        shardDir.delete();
+    }
+
+    /**
+     * Extracts emotion holders and causes from all documents of the Gigaword file and writes them to the shards. This
+     * thread is the writing stage; it starts a thread for the parsing stage, which submits each document to the
+     * extraction pool and queues the pending extractions in document order. If the file has a checkpoint from an
+     * interrupted run, the shards are truncated to it and the documents before it are skipped.
+     * @return the <code>AgigaReader</code> itself, holding the match counts of the file
+     * @throws Exception if the file couldn't be parsed, a document couldn't be extracted from, or a shard couldn't be
+     * written
+     */
+    @Override
+    public AgigaReader call() throws Exception {
+
+        List<Checkpoint> progress = Checkpoint.read(progressPath);
+        boolean resume = !progress.isEmpty();
+        if (resume) {
+            Checkpoint checkpoint = progress.get(progress.size() - 1);
+            Checkpoint.truncate(resultShardPath, checkpoint.getResultLength());
+            Checkpoint.truncate(collShardPath, checkpoint.getCollLength());
+            checkpoint.restoreCounts(matchCounts);
+            matches = checkpoint.getMatches();
+            sentenceCount = checkpoint.getSentenceCount();
+            rejectedCount = checkpoint.getRejectedCount();
+            writtenDocuments = checkpoint.getDocumentCount();
+            lastDocId = checkpoint.getLastDocId();
+            reporter.restore(matchCounts, sentenceCount, matches);
+            log.info(String.format("%s: resuming after document %s (%d documents)", filePath, lastDocId,
+                    writtenDocuments));
+        }
+
+        final BlockingQueue<Future<DocumentExtraction>> queue =
+                new ArrayBlockingQueue<Future<DocumentExtraction>>(queueCapacity);
+        final int skipCount = writtenDocuments;
+        final String skipDocId = lastDocId;
+        Thread parser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                parse(queue, skipCount, skipDocId);
+            }
+        }, "parser-" + new File(filePath).getName());
+        parser.start();
+
+        OutputSink resultWriter = new OutputSink(resultShardPath, resume, flushPolicy);
+        OutputSink collWriter = new OutputSink(collShardPath, resume, flushPolicy);
+        try {
+            Future<DocumentExtraction> future = queue.take();
+            while (future != endOfFile) {
+                long waitStart = System.nanoTime();
+                DocumentExtraction extraction = future.get();
+                writerWaitNanos += System.nanoTime() - waitStart;
+
+                write(extraction, resultWriter, collWriter);
+                writtenDocuments++;
+                lastDocId = extraction.docId;
+                if (writtenDocuments % checkpointInterval == 0) {
+                    writeCheckpoint(resultWriter, collWriter);
+                }
+
+                future = queue.take();
+            }
+        }
+        finally {
+            // stops the parsing stage if writing failed
+            parser.interrupt();
+            resultWriter.close();
+            collWriter.close();
+        }
+
+        return this;
+    }
+
+    /**
+     * Flushes the shards and records a checkpoint of the file, which an interrupted run is resumed from.
+     * @param resultWriter the writer of the result shard
+     * @param collWriter the writer of the collocation shard
+     * @throws IOException if the shards or the checkpoint couldn't be written
+     */
+    private void writeCheckpoint(OutputSink resultWriter, OutputSink collWriter) throws IOException {
+        resultWriter.flush();
+        collWriter.flush();
+
+        Checkpoint checkpoint = new Checkpoint(new File(filePath).getName(), lastDocId, writtenDocuments,
+                new File(resultShardPath).length(), new File(collShardPath).length(), matches, sentenceCount,
+                rejectedCount, matchCounts, -1);
+        Checkpoint.write(progressPath, Collections.singletonList(checkpoint));
+    }
+
+    /**
+     * Deletes the shards and the checkpoint of the file once they have been merged.
+     */
+    private void deleteShards() {
+        new File(resultShardPath).delete();
+        new File(collShardPath).delete();
+        new File(progressPath).delete();
+    }
+
+    /**
+     * The parsing stage: reads the documents of the file, submits them to the extraction pool, and queues the pending
+     * extractions. Blocks if the queue is full. Errors are passed on to the writing stage through the queue.
+     * @param queue the queue between the parsing and the writing stage
+     * @param skipCount the number of documents that have already been written by an interrupted run
+     * @param skipDocId the id of the last document that has already been written; null if there is none
+     */
+    private void parse(BlockingQueue<Future<DocumentExtraction>> queue, int skipCount, String skipDocId) {
+        try {
+            // Get the document reader - this "entails" all the documents within the gz-compressed file
+            StreamingDocumentReader agigaReader = new StreamingDocumentReader(filePath, readingPrefs);
+
             // Iterate over the documents
+            int skipped = 0;
             for (AgigaDocument doc : agigaReader) {
-                List<AgigaSentence> sentences = doc.getSents();
-                List<AgigaCoref> corefs = doc.getCorefs();
+                if (skipped < skipCount) {
+                    skipped++;
+                    if (skipped == skipCount && !doc.getDocId().equals(skipDocId)) {
+                        throw new IOException(String.format("Document %d of %s is %s instead of %s.", skipCount,
+                                filePath, doc.getDocId(), skipDocId));
+                    }
+                    continue;
+                }
 
-                // maps sentence indexes to a list of mentions and their representatives
-                Map<Integer, List<Map.Entry<AgigaMention, AgigaMention>>> mentionMap = Utils.createMentionMap(corefs);
+                final AgigaDocument document = doc;
+                enqueue(queue, extractionPool.submit(new Callable<DocumentExtraction>() {
+                    @Override
+                    public DocumentExtraction call() {
+                        return extractFromDocument(document);
+                    }
+                }));
 
-                // Iterate over the sentences
-                for (AgigaSentence sent : sentences) {
+                if (documentCount % logInterval == 0) {
+                    log.info(String.format("%s: %d documents parsed, queue depth %d/%d", filePath, documentCount,
+                            queue.size(), queueCapacity));
+                }
+            }
 
-                    // write stats in intervals to file
-                    if (count++ % 5000000 == 0) {
+            queue.put(endOfFile);
+        }
+        catch (InterruptedException ex) {
+            // the writing stage has stopped
+        }
+        catch (final Throwable error) {
+            FutureTask<DocumentExtraction> failed = new FutureTask<DocumentExtraction>(new Callable<DocumentExtraction>() {
+                @Override
+                public DocumentExtraction call() throws IOException {
+                    throw new IOException(String.format("Error while parsing %s.", filePath), error);
+                }
+            });
+            failed.run();
+            try {
+                queue.put(failed);
+            }
+            catch (InterruptedException ex) {
+                // the writing stage has stopped
+            }
+        }
+    }
 
-                        // write the stats to a file
-                        Stats.writeStats(resultMap, outPath);
-                    }
+    /**
+     * Adds a pending extraction to the queue and keeps track of the queue depth and the time spent blocking.
+     * @param queue the queue between the parsing and the writing stage
+     * @param future the pending extraction
+     * @throws InterruptedException if the writing stage has stopped
+     */
+    private void enqueue(BlockingQueue<Future<DocumentExtraction>> queue, Future<DocumentExtraction> future)
+            throws InterruptedException {
 
-                    // only retrieve one emotion trigger per sentence; if pattern is found, continue
-                    boolean patternFound = false;
-                    List<AgigaToken> tokens = sent.getTokens();
+        int depth = queue.size();
+        documentCount++;
+        queueDepthSum += depth;
+        maxQueueDepth = Math.max(maxQueueDepth, depth);
 
-                    // create a lemma string with POS and indices
-                    String sentence = Utils.createStringFromTokens(tokens, true, true, true, false);
+        long putStart = System.nanoTime();
+        queue.put(future);
+        parserBlockedNanos += System.nanoTime() - putStart;
+    }
 
-                    // extract sentence root
-                    Tree root = sent.getStanfordContituencyTree();
+    /**
+     * The writing stage: writes the matches of a document to the shards and updates the counts of the file.
+     * @param extraction the extraction from a document
+     * @param resultWriter the writer of the result shard
+     * @param collWriter the writer of the collocation shard
+     * @throws IOException if the shards couldn't be written
+     */
+    private void write(DocumentExtraction extraction, OutputSink resultWriter, OutputSink collWriter)
+            throws IOException {
 
-                    for (String emotion : emotionMap.keySet()) {
+        sentenceCount += extraction.sentenceCount;
+        rejectedCount += extraction.rejectedCount;
+        reporter.addSentences(extraction.sentenceCount);
 
-                        // iterate over all the patterns
-                        for (Pattern pattern : emotionMap.get(emotion).keySet()) {
-                            if (patternFound) {
-                                break;
-                            }
+        for (int i = 0; i < extraction.patterns.size(); i++) {
+            Pattern pattern = extraction.patterns.get(i);
+            int id = registry.getId(pattern);
+            matchCounts.incrementAndGet(id);
+            reporter.addMatch(id);
+            matches++;
 
-                            Matcher m = pattern.matcher(sentence);
-                            if (m.find()) {
-                                root.indexLeaves(); // index the leaves to retrieve indices
-                                root.setSpans(); // set the spans to retrieve spans
+            String sentInfo = extraction.sentInfos.get(i);
 
-                                // words look like this: ["fear/VBD/15", ...]
-                                String[] patternWords = m.group(0).split(" ");
+            // write collocations; in the shard, the pattern info is numbered by the id of the pattern, which the merge
+            // replaces by the number of the match. Print them as in the shard only in verbose mode
+            String patternInfo = String.format("#%d %s", id, extraction.patternInfos.get(i));
+            collWriter.println(sentInfo);
+            collWriter.println(patternInfo);
+            if (verbose) {
+                System.out.println(sentInfo);
+                System.out.println(patternInfo);
+            }
 
-                                // get leftmost and rightmost indices of pattern; right-most in pattern can be 'that'
-                                // or preposition; will dominate object and allow retrieval via constituents
-                                int leftIdx = Integer.parseInt(patternWords[0].split("/")[2]);
-                                int rightIdx = Integer.parseInt(patternWords[patternWords.length - 1].split("/")[2]);
+            // write output to file
+            resultWriter.print(extraction.results.get(i));
+        }
+    }
 
-                                // rightIdx for dependencies if that is present
+    /**
+     * Extracts emotion holders and causes from the sentences of a document. Runs in the extraction pool, so it only
+     * reads shared state.
+     * @param doc the document
+     * @return the extraction, i.e. the matches of the document in order
+     */
+    private DocumentExtraction extractFromDocument(AgigaDocument doc) {
 
-                                int rightDepIdx = -2; // root has idx -1; no dep has idx -2
-                                if (prepositionsThat.contains(tokens.get(rightIdx).getWord())) {
-                                    rightDepIdx = rightIdx - 1;
-                                }
-                                else {
-                                    rightDepIdx = rightIdx;
-                                }
+        DocumentExtraction extraction = new DocumentExtraction();
+        extraction.docId = doc.getDocId();
+        List<AgigaSentence> sentences = doc.getSents();
+        List<AgigaCoref> corefs = doc.getCorefs();
 
-                                // Penn string shows phrase structure tree
-//                                String pennString = root.pennString();
-//                                System.out.println(pennString);
+        // named entity tags of the sentences; shared with the replacement of coreferents
+        NerView nerTags = new NerView(sentences);
 
-                                List<Tree> leaves = root.getLeaves();
+        // maps mentions to their representatives, whose strings are built once per document
+        CorefIndex corefIndex = new CorefIndex(corefs, sentences, nerTags, asLemma, addNER);
 
-                                // retrieve information from emotion map if order is reversed, if object is an NP
-                                Boolean orderIsReversed = emotionMap.get(emotion).get(pattern).get(
-                                        Enums.Features.orderIsReversed.toString());
-                                // cause of emotion is either an NP or S
-                                Boolean isNP = emotionMap.get(emotion).get(pattern).get(Enums.Features.isNP.toString());
+        // Iterate over the sentences
+        for (AgigaSentence sent : sentences) {
+            extraction.sentenceCount++;
+            List<AgigaToken> tokens = sent.getTokens();
 
-                                // get NE tags
-                                StringWriter stringWriter = new StringWriter();
-                                sent.writeNerTags(stringWriter);
-                                String[] NEtokens = stringWriter.toString().split(" ");
+            // skip sentences that contain none of the trigger lemmas before decoding trees, etc.
+            int trigger = patternMatcher.findTrigger(tokens);
+            if (trigger == -1) {
+                extraction.rejectedCount++;
+                continue;
+            }
 
-                                // get mention, coreferent pairs
-                                int sentIdx = sent.getSentIdx();
-                                List<Map.Entry<AgigaMention, AgigaMention>> mentionPairs = new ArrayList<Map.Entry<AgigaMention, AgigaMention>>();
-                                if (mentionMap.containsKey(sentIdx)) {
-                                    mentionPairs = mentionMap.get(sentIdx);
-                                }
+            // find the left-most match of every pattern at once, starting from the trigger
+            Map<Pattern, PatternMatcher.Match> patternMatches = patternMatcher.match(tokens, trigger);
+            if (patternMatches.isEmpty()) {
+                continue;
+            }
 
-                                String subject = null;
-                                String object = null;
-                                int subjectIdx = -2;
-                                int objectIdx = -2;
-
-                                // search first in collapsed dependencies
-                                // collapsed dependencies skips relative pronouns, "who", etc.
-                                // basic dependencies have better information about prepositional comps
-                                List<AgigaTypedDependency> basicDeps = sent.getBasicDeps();
-                                List<AgigaTypedDependency> colDeps = sent.getColDeps();
-                                for (AgigaTypedDependency dep : colDeps) {
-                                    String type = dep.getType();
-                                    if (subject == null && (dep.getGovIdx() == leftIdx || dep.getGovIdx() == rightDepIdx)
-                                            && (type.equals("nsubj") || type.equals("nsubjpass"))) {
-                                        subject = Utils.depToString(dep.getDepIdx(), colDeps, tokens, sentences,
-                                                mentionPairs, NEtokens, true, replaceCoref, asLemma, addNER);
-                                        subjectIdx = dep.getDepIdx();
-                                    }
-                                    else if (object == null && isNP && dep.getGovIdx() == rightIdx &&
-                                                (type.equals("dobj"))) {
-                                        object = Utils.depToString(dep.getDepIdx(), colDeps, tokens, sentences,
-                                                mentionPairs, NEtokens, true, replaceCoref, asLemma, addNER);
-                                        objectIdx = dep.getDepIdx();
-                                    }
-                                    // if dependent is a sentence part, it is either a ccomp, xcomp, or a dep in a VP
-                                    else if (object == null && !isNP &&
-                                            (dep.getGovIdx() == rightIdx || dep.getGovIdx() == rightDepIdx) &&
-                                            (type.equals("ccomp") || type.equals("xcomp"))) {
-                                        object = Utils.compToString(dep.getDepIdx(), colDeps, tokens, sentences,
-                                                mentionPairs, NEtokens, true, replaceCoref, asLemma, addNER);
-                                        objectIdx = dep.getDepIdx();
-                                    }
-                                }
+            // only retrieve one emotion trigger per sentence; if pattern is found, continue
+            boolean patternFound = false;
 
-                                // if subject hasn't been found, check for conjunction or disjunction
-                                if (subject == null) {
-                                    for (AgigaTypedDependency dep : colDeps) {
-                                        String type = dep.getType();
-                                        // verb can modify subject; note: in newer version is remade as part of vmod
-                                        if (type.equals("partmod") && dep.getDepIdx() == leftIdx) {
-                                            subject = Utils.depToString(dep.getGovIdx(), colDeps, tokens, sentences,
-                                                    mentionPairs, NEtokens, true, replaceCoref, asLemma, addNER);
-                                            subjectIdx = dep.getDepIdx();
-                                        }
+            // constituency tree; only decoded if it is needed for a match
+            SentenceTree tree = new SentenceTree(sent);
 
-                                        if ((type.equals("conj_and") || type.equals("conj_or") || type.equals("conj_but"))
-                                                && dep.getDepIdx() == leftIdx) {
-                                            for (AgigaTypedDependency dep2 : colDeps) {
-                                                if (dep2.getType().equals("nsubj") && dep.getGovIdx() == dep2.getGovIdx()) {
-                                                    subject = Utils.depToString(dep2.getDepIdx(), colDeps, tokens, sentences,
-                                                            mentionPairs, NEtokens, true, replaceCoref, asLemma, addNER);
-                                                    subjectIdx = dep.getDepIdx();
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
+            // index of the collapsed dependencies; built once the first pattern matches
+            DependencyIndex colDeps = null;
 
-                                // if object hasn't been found, object can be in a dep in a VP
-                                if (object == null && !isNP) {
-                                    for (AgigaTypedDependency dep : colDeps) {
-                                        if (dep.getType().equals("dep") &&
-                                                leaves.get(dep.getDepIdx()).ancestor(2, root).label().toString().equals("VP") &&
-                                                dep.getGovIdx() == rightIdx) {
-                                            object = Utils.compToString(dep.getDepIdx(), colDeps, tokens, sentences,
-                                                    mentionPairs, NEtokens, true, replaceCoref, asLemma, addNER);
-                                            objectIdx = dep.getDepIdx();
-                                        }
-                                    }
+            for (String emotion : emotionMap.keySet()) {
+
+                // iterate over all the patterns
+                for (Pattern pattern : emotionMap.get(emotion).keySet()) {
+                    if (patternFound) {
+                        break;
+                    }
+
+                    PatternMatcher.Match m = patternMatches.get(pattern);
+                    if (m != null) {
+                        // the tokens of the pattern, e.g. "fear" or "be happy that"
+                        List<AgigaToken> patternTokens = tokens.subList(m.getStart(), m.getEnd() + 1);
+
+                        // get leftmost and rightmost indices of pattern; right-most in pattern can be 'that'
+                        // or preposition; will dominate object and allow retrieval via constituents
+                        int leftIdx = patternTokens.get(0).getTokIdx();
+                        int rightIdx = patternTokens.get(patternTokens.size() - 1).getTokIdx();
+
+                        // rightIdx for dependencies if that is present
+
+                        int rightDepIdx = -2; // root has idx -1; no dep has idx -2
+                        if (prepositionsThat.contains(tokens.get(rightIdx).getWord())) {
+                            rightDepIdx = rightIdx - 1;
+                        }
+                        else {
+                            rightDepIdx = rightIdx;
+                        }
+
+                        // Penn string shows phrase structure tree
+//                                String pennString = root.pennString();
+//                                System.out.println(pennString);
+
+                        // retrieve information from emotion map if order is reversed, if object is an NP
+                        Boolean orderIsReversed = emotionMap.get(emotion).get(pattern).get(
+                                Enums.Features.orderIsReversed.toString());
+                        // cause of emotion is either an NP or S
+                        Boolean isNP = emotionMap.get(emotion).get(pattern).get(Enums.Features.isNP.toString());
+
+                        int sentIdx = sent.getSentIdx();
+
+                        String subject = null;
+                        String object = null;
+                        int subjectIdx = -2;
+                        int objectIdx = -2;
+
+                        // search first in collapsed dependencies
+                        // collapsed dependencies skips relative pronouns, "who", etc.
+                        // basic dependencies have better information about prepositional comps
+                        List<AgigaTypedDependency> basicDeps = sent.getBasicDeps();
+                        if (colDeps == null) {
+                            colDeps = new DependencyIndex(sent.getColDeps());
+                        }
+
+                        // only dependencies governed by the pattern are relevant; they are visited in list order
+                        for (int edge : colDeps.childEdges(leftIdx, rightDepIdx, rightIdx)) {
+                            int govIdx = colDeps.getGov(edge);
+                            DependencyIndex.Relation relation = colDeps.getRelation(edge);
+                            if (subject == null && (govIdx == leftIdx || govIdx == rightDepIdx)
+                                    && (relation == DependencyIndex.Relation.nsubj ||
+                                        relation == DependencyIndex.Relation.nsubjpass)) {
+                                subject = Utils.depToString(colDeps.getDep(edge), colDeps, tokens, corefIndex,
+                                        nerTags, sentIdx, true, replaceCoref, asLemma, addNER);
+                                subjectIdx = colDeps.getDep(edge);
+                            }
+                            else if (object == null && isNP && govIdx == rightIdx &&
+                                        relation == DependencyIndex.Relation.dobj) {
+                                object = Utils.depToString(colDeps.getDep(edge), colDeps, tokens, corefIndex,
+                                        nerTags, sentIdx, true, replaceCoref, asLemma, addNER);
+                                objectIdx = colDeps.getDep(edge);
+                            }
+                            // if dependent is a sentence part, it is either a ccomp, xcomp, or a dep in a VP
+                            else if (object == null && !isNP &&
+                                    (govIdx == rightIdx || govIdx == rightDepIdx) &&
+                                    (relation == DependencyIndex.Relation.ccomp ||
+                                        relation == DependencyIndex.Relation.xcomp)) {
+                                object = Utils.compToString(colDeps.getDep(edge), colDeps, tokens, corefIndex,
+                                        nerTags, sentIdx, true, replaceCoref, asLemma, addNER);
+                                objectIdx = colDeps.getDep(edge);
+                            }
+                        }
+
+                        // if subject hasn't been found, check for conjunction or disjunction
+                        if (subject == null) {
+                            for (int i = 0; i < colDeps.headCount(leftIdx); i++) {
+                                int edge = colDeps.headEdge(leftIdx, i);
+                                DependencyIndex.Relation relation = colDeps.getRelation(edge);
+                                // verb can modify subject; note: in newer version is remade as part of vmod
+                                if (relation == DependencyIndex.Relation.partmod) {
+                                    subject = Utils.depToString(colDeps.getGov(edge), colDeps, tokens, corefIndex,
+                                            nerTags, sentIdx, true, replaceCoref, asLemma, addNER);
+                                    subjectIdx = colDeps.getDep(edge);
                                 }
 
-                                if (object == null) {
-                                    for (AgigaTypedDependency dep : basicDeps) {
-                                        String type = dep.getType();
-                                        // "take pleasure in going home"; has problems with copula constructions, e.g. "take pleasure in being the brute on the floor"
-                                        if (object == null && !isNP && leftIdx != rightIdx && type.equals("pcomp")) {
-                                            object = Utils.compToString(dep.getDepIdx(), colDeps, tokens, sentences,
-                                                    mentionPairs, NEtokens, true, replaceCoref, asLemma, addNER);
-                                            objectIdx = dep.getDepIdx();
-                                        }
-                                        // for prepositional objects, e.g. "proud of", "count on"
-                                        else if (object == null && isNP && leftIdx != rightIdx && type.equals("pobj") &&
-                                                dep.getGovIdx() == rightIdx) {
-                                            object = Utils.depToString(dep.getDepIdx(), colDeps, tokens, sentences,
-                                                    mentionPairs, NEtokens, true, replaceCoref, asLemma, addNER);
-                                            objectIdx = dep.getDepIdx();
+                                if (relation == DependencyIndex.Relation.conj_and ||
+                                        relation == DependencyIndex.Relation.conj_or ||
+                                        relation == DependencyIndex.Relation.conj_but) {
+                                    int govIdx = colDeps.getGov(edge);
+                                    for (int edge2 = colDeps.childrenStart(govIdx); edge2 < colDeps.childrenEnd(govIdx); edge2++) {
+                                        if (colDeps.getRelation(edge2) == DependencyIndex.Relation.nsubj) {
+                                            subject = Utils.depToString(colDeps.getDep(edge2), colDeps, tokens, corefIndex,
+                                                    nerTags, sentIdx, true, replaceCoref, asLemma, addNER);
+                                            subjectIdx = colDeps.getDep(edge);
                                         }
                                     }
                                 }
+                            }
+                        }
 
-                                // skip if either subject or object weren't found
-                                if (subject == null || object == null) {
-                                    continue;
+                        // if object hasn't been found, object can be in a dep in a VP
+                        if (object == null && !isNP) {
+                            for (int edge = colDeps.childrenStart(rightIdx); edge < colDeps.childrenEnd(rightIdx); edge++) {
+                                if (colDeps.getRelation(edge) == DependencyIndex.Relation.dep &&
+                                        "VP".equals(tree.getAncestorLabel(colDeps.getDep(edge), 2))) {
+                                    object = Utils.compToString(colDeps.getDep(edge), colDeps, tokens, corefIndex,
+                                            nerTags, sentIdx, true, replaceCoref, asLemma, addNER);
+                                    objectIdx = colDeps.getDep(edge);
                                 }
+                            }
+                        }
 
-                                // reverse emotion holder and cause if order is reversed
-                                String holder, cause;
-                                Integer causeIdx;
-                                if (orderIsReversed) {
-                                    holder = object;
-                                    cause = subject;
-                                    causeIdx = subjectIdx;
+                        if (object == null) {
+                            for (AgigaTypedDependency dep : basicDeps) {
+                                String type = dep.getType();
+                                // "take pleasure in going home"; has problems with copula constructions, e.g. "take pleasure in being the brute on the floor"
+                                if (object == null && !isNP && leftIdx != rightIdx && type.equals("pcomp")) {
+                                    object = Utils.compToString(dep.getDepIdx(), colDeps, tokens, corefIndex,
+                                            nerTags, sentIdx, true, replaceCoref, asLemma, addNER);
+                                    objectIdx = dep.getDepIdx();
                                 }
-                                else {
-                                    holder = subject;
-                                    cause = object;
-                                    causeIdx = objectIdx;
+                                // for prepositional objects, e.g. "proud of", "count on"
+                                else if (object == null && isNP && leftIdx != rightIdx && type.equals("pobj") &&
+                                        dep.getGovIdx() == rightIdx) {
+                                    object = Utils.depToString(dep.getDepIdx(), colDeps, tokens, corefIndex,
+                                            nerTags, sentIdx, true, replaceCoref, asLemma, addNER);
+                                    objectIdx = dep.getDepIdx();
                                 }
+                            }
+                        }
 
-                                if (cause.matches(pronounRegex)) {
-                                    // exclude matches that still contain pronouns, this, or what
-                                    continue;
-                                }
+                        // skip if either subject or object weren't found
+                        if (subject == null || object == null) {
+                            continue;
+                        }
 
-                                StringBuilder causeBOWBuilder = new StringBuilder();
-                                causeBOWBuilder.append("[");
-                                causeBOWBuilder.append(Extensions.join(Utils.getBagOfWords(root, leaves.get(causeIdx), isNP ? "NP" : "S", tokens).split(" "), ", "));
-                                causeBOWBuilder.append("]");
-                                String causeBOW = causeBOWBuilder.toString();
-
-                                // format cause
-                                // NP-cause \ŧ Subject S-cause \t Predicate \t Object \t Pobjs
-                                // NP-cause is empty if cause is S; Subject, Predicate, Object, Pobjs
-                                // are empty if cause is NP
-                                StringBuilder causeBuilder = new StringBuilder();
-                                if (isNP) {
-                                    causeBuilder.append(cause);
-                                    causeBuilder.append("\t\t\t\t");
-                                }
-                                else {
-                                    causeBuilder.append("\t");
-                                    causeBuilder.append(cause);
-                                }
+                        // reverse emotion holder and cause if order is reversed
+                        String holder, cause;
+                        Integer causeIdx;
+                        if (orderIsReversed) {
+                            holder = object;
+                            cause = subject;
+                            causeIdx = subjectIdx;
+                        }
+                        else {
+                            holder = subject;
+                            cause = object;
+                            causeIdx = objectIdx;
+                        }
 
-                                String causeFormat = causeBuilder.toString();
+                        if (cause.matches(pronounRegex)) {
+                            // exclude matches that still contain pronouns, this, or what
+                            continue;
+                        }
 
-                                // clean up pattern, remove part-of-speech and index
-                                String[] cleanPatternTokens = m.group(0).split(" ");
-                                StringBuilder cleanPatternBuilder = new StringBuilder();
-                                for (String element : cleanPatternTokens) {
-                                    cleanPatternBuilder.append(element.split("/")[0]);
-                                    cleanPatternBuilder.append(" ");
-                                }
+                        StringBuilder causeBOWBuilder = new StringBuilder();
+                        causeBOWBuilder.append("[");
+                        causeBOWBuilder.append(Extensions.join(Utils.getBagOfWords(tree, causeIdx, isNP ? "NP" : "S", tokens).split(" "), ", "));
+                        causeBOWBuilder.append("]");
+                        String causeBOW = causeBOWBuilder.toString();
 
-                                String cleanPattern = cleanPatternBuilder.toString().trim();
-                                patternFound = true;
-                                resultMap.get(pattern).put(Enums.Stats.matches.toString(),
-                                        String.valueOf(Integer.parseInt(resultMap.get(pattern).get(Enums.Stats.matches.toString())) + 1));
-                                matches++;
-
-                                // write clean sentence to collocations file
-                                String cleanSent = Utils.createStringFromTokens(tokens, false, false, false, false);
-                                String sentInfo = String.format("%s/%d\t%s", doc.getDocId(), sentIdx, cleanSent);
-                                String patternInfo = String.format("#%d Emotion: '%s', pattern: '%s', emotion holder: '%s', cause: '%s', cause BoW: %s",
-                                        matches, emotion, cleanPattern, holder, cause, causeBOW);
-
-                                // write and print collocations
-                                collWriter.println(sentInfo);
-                                collWriter.println(patternInfo);
-                                collWriter.flush();
-                                System.out.println(sentInfo);
-                                System.out.println(patternInfo);
-
-                                // write output to file
-                                resultWriter.printf("%s/%d\t%s\t%s\t%s\t%s\t%s\n", doc.getDocId(), sentIdx, emotion,
-                                        cleanPattern, holder, causeFormat, causeBOW);
-                                resultWriter.flush();
-                            }
+                        // format cause
+                        // NP-cause \ŧ Subject S-cause \t Predicate \t Object \t Pobjs
+                        // NP-cause is empty if cause is S; Subject, Predicate, Object, Pobjs
+                        // are empty if cause is NP
+                        StringBuilder causeBuilder = new StringBuilder();
+                        if (isNP) {
+                            causeBuilder.append(cause);
+                            causeBuilder.append("\t\t\t\t");
                         }
+                        else {
+                            causeBuilder.append("\t");
+                            causeBuilder.append(cause);
+                        }
+
+                        String causeFormat = causeBuilder.toString();
+
+                        // clean up pattern, i.e. only keep the lemmas
+                        StringBuilder cleanPatternBuilder = new StringBuilder();
+                        for (AgigaToken patternToken : patternTokens) {
+                            cleanPatternBuilder.append(patternToken.getLemma());
+                            cleanPatternBuilder.append(" ");
+                        }
+
+                        String cleanPattern = cleanPatternBuilder.toString().trim();
+                        patternFound = true;
+
+                        // clean sentence for the collocations file; the match is numbered by the writing stage
+                        String cleanSent = Utils.createStringFromTokens(tokens, false, false, false, false);
+                        extraction.patterns.add(pattern);
+                        extraction.sentInfos.add(String.format("%s/%d\t%s", doc.getDocId(), sentIdx, cleanSent));
+                        extraction.patternInfos.add(String.format("Emotion: '%s', pattern: '%s', emotion holder: '%s', cause: '%s', cause BoW: %s",
+                                emotion, cleanPattern, holder, cause, causeBOW));
+                        extraction.results.add(String.format("%s/%d\t%s\t%s\t%s\t%s\t%s\n", doc.getDocId(), sentIdx,
+                                emotion, cleanPattern, holder, causeFormat, causeBOW));
                     }
                 }
             }
         }
 
-        resultWriter.close();
-        collWriter.close();
+        return extraction;
+    }
+
+    /**
+     * Appends the shards of a file to the results and the collocations. Each match is a line of the result shard and
+     * two lines of the collocation shard: the sentence and the pattern info, which is numbered by the id of the
+     * pattern, e.g. "#12 Emotion: 'joy', pattern: ...", and is renumbered by the matches written so far. If the
+     * proposition of a match is dropped as a duplicate by the filter, its collocation is dropped along with it and the
+     * match isn't counted.
+     * @param resultShardPath the path of the result shard
+     * @param collShardPath the path of the collocation shard
+     * @param resultWriter the writer the result shard should be appended to
+     * @param collWriter the writer the collocation shard should be appended to
+     * @param matches the number of matches written so far
+     * @param filter the filter of the stored propositions by which duplicates are dropped; null if matches shouldn't
+     *               be filtered
+     * @param matchCounts the number of matches of each pattern written so far; the matches of the shards are added
+     * @param reporter the reporter of the stats, which has counted the matches of the shards already; dropped matches
+     *                 are removed from it
+     * @return the number of matches written so far
+     * @throws IOException if the shards couldn't be read or appended, or don't belong together
+     */
+    private static int appendShards(String resultShardPath, String collShardPath, OutputSink resultWriter,
+                                    OutputSink collWriter, int matches, PropositionFilter filter,
+                                    AtomicLongArray matchCounts, StatsReporter reporter) throws IOException {
+
+        BufferedReader resultReader = new BufferedReader(new FileReader(resultShardPath));
+        BufferedReader collReader = new BufferedReader(new FileReader(collShardPath));
+        try {
+            String result = resultReader.readLine();
+            while (result != null) {
+                String sentInfo = collReader.readLine();
+                String patternInfo = collReader.readLine();
+                if (patternInfo == null || !patternInfo.startsWith("#")) {
+                    throw new IOException(String.format("%s doesn't match %s.", collShardPath, resultShardPath));
+                }
+
+                int separator = patternInfo.indexOf(' ');
+                int id = Integer.parseInt(patternInfo.substring(1, separator));
+                if (filter == null || filter.add(result)) {
+                    resultWriter.println(result);
+                    collWriter.println(sentInfo);
+                    collWriter.println(String.format("#%d%s", ++matches, patternInfo.substring(separator)));
+                    matchCounts.incrementAndGet(id);
+                }
+                else {
+                    reporter.removeMatch(id);
+                }
+
+                result = resultReader.readLine();
+            }
+
+            if (collReader.readLine() != null) {
+                throw new IOException(String.format("%s doesn't match %s.", collShardPath, resultShardPath));
+            }
+        }
+        finally {
+            resultReader.close();
+            collReader.close();
+        }
+
+        return matches;
+    }
+
+    /**
+     * The matches of a single document in order, along with its sentence counts.
+     */
+    private static class DocumentExtraction {
+
+        private String docId;
+
+        private int sentenceCount = 0;
+
+        private int rejectedCount = 0;
+
+        /**
+         * The pattern of each match.
+         */
+        private List<Pattern> patterns = new ArrayList<Pattern>();
+
+        /**
+         * The id and the clean sentence of each match.
+         */
+        private List<String> sentInfos = new ArrayList<String>();
+
+        /**
+         * The pattern info of each match without its number.
+         */
+        private List<String> patternInfos = new ArrayList<String>();
+
+        /**
+         * The line of each match in the results file.
+         */
+        private List<String> results = new ArrayList<String>();
     }
 }
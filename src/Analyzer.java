@@ -6,47 +6,22 @@ import java.util.*;
  *
  * Created by sebastian on 20/05/15.
  */
-public class Analyzer {
+public class Analyzer implements ExtractionConsumer {
 
     /**
-     * Key: Emotion. Value: Frequency.
+     * The counts of the emotions, unigrams, and bigrams of the extractions.
      */
-    private Map<String, Double> emotionFreqs = new HashMap<String, Double>();
+    private NgramCounter counter;
 
     /**
-     * Key: np_cause, s_cause_subj_pred, s_cause_pred_dobj, emotion_holder. Value: Map with key: Unigram in ngram type; value: frequency of appearance.
+     * Set of stop words in English.
      */
-    private Map<Enums.NgramSource, Map<String, Double>> ngramTypeUnigramFreqs = new HashMap<Enums.NgramSource, Map<String, Double>>();
+    private Set<String> stopWords = new HashSet<String>();
 
     /**
-     * Key: np_cause, s_cause_subj_pred, s_cause_pred_dobj, emotion_holder. Value: Map with key: emotion tab unigram in ngram type; value: frequency of appearing together.
+     * The number of extractions that a thread counts at a time when frequencies are counted in parallel.
      */
-    private Map<Enums.NgramSource, Map<String, Double>> emotionNgramTypeUnigramFreqs = new HashMap<Enums.NgramSource, Map<String, Double>>();
-
-    /**
-     * Key: np_cause, s_cause_subj_pred, s_cause_pred_dobj, emotion_holder. Value: Map with key: bigram in ngram type; value: frequency of appearance.
-     */
-    private Map<Enums.NgramSource, Map<String, Double>> ngramTypeBigramFreqs = new HashMap<Enums.NgramSource, Map<String, Double>>();
-
-    /**
-     * Key: np_cause, s_cause_subj_pred, s_cause_pred_dobj, emotion_holder. Value: Map with key: emotion tab bigram in ngram type; value: frequency of appearing together.
-     */
-    private Map<Enums.NgramSource, Map<String, Double>> emotionNgramTypeBigramFreqs = new HashMap<Enums.NgramSource, Map<String, Double>>();
-
-    /**
-     *  Key: ngramType. Value: number of unigrams (tokens) that appeared in cause.
-     */
-    private Map<String, Double> causeUnigramCount = new HashMap<String, Double>();
-
-    /**
-     * Number of emotions that appeared in total.
-     */
-    private double emotionCount = 0;
-
-    /**
-     * List of stop words in English.
-     */
-    private List<String> stopWords = new ArrayList<String>();
+    private static int chunkSize = 10000;
 
     /**
      * Initializes an <code>Analyzer</code>.
@@ -67,116 +42,118 @@ public class Analyzer {
             line = reader.readLine();
         }
 
-        // initialize maps
-        for (Enums.NgramSource ngramSource : Enums.NgramSource.values()) {
-            this.ngramTypeUnigramFreqs.put(ngramSource, new HashMap<String, Double>());
-            this.ngramTypeBigramFreqs.put(ngramSource, new HashMap<String, Double>());
-            this.emotionNgramTypeUnigramFreqs.put(ngramSource, new HashMap<String, Double>());
-            this.emotionNgramTypeBigramFreqs.put(ngramSource, new HashMap<String, Double>());
-        }
+        this.counter = new NgramCounter(stopWords);
     }
 
     /**
-     * Counts independent as well as co-occurrence frequencies of emotions, unigrams, and bigrams in cause given a list
-     * of <code>Extraction</code> and stores them in fields.
-     * @param extractions the list of <code>Extraction</code>
+     * Counts independent as well as co-occurrence frequencies of emotions, unigrams, and bigrams in cause given
+     * extractions and stores them in fields.
+     * @param extractions the extractions, e.g. as streamed by <code>ResultsReader.streamResults</code>
      */
-    public void countFrequencies(List<Extraction> extractions) {
+    public void countFrequencies(Iterable<Extraction> extractions) {
 
         // iterate over the extractions
         for (Extraction extraction : extractions) {
+            accept(extraction);
+        }
 
-            // increment emotion count since one extraction contains one emotion
-            this.emotionCount++;
-            String emotion = extraction.getEmotion();
-
-            // add emotion frequency
-            Extensions.updateMap(this.emotionFreqs, emotion);
-
-            // get NP and S cause elements
-            String[] extractionNPCauseSplit = extraction.getNPCause().split(" ");
-            String[] extractionSCauseSplit = String.format("%s %s %s", extraction.getSubjSCause(),
-                    extraction.getPredSCause(), extraction.getDobjSCause()).split(" ");
-            String[] extractionEmotionHolder = extraction.getEmotionHolder().split(" ");
-            String[][] causes = { extractionNPCauseSplit, extractionSCauseSplit, extractionEmotionHolder};
-
-            // iterate over NP cause, S cause, and emotion holder
-            Enums.NgramSource[] ngramSources = new Enums.NgramSource[] {Enums.NgramSource.np_cause, Enums.NgramSource.s_cause,
-                    Enums.NgramSource.emotion_holder};
-            for (int j = 0; j < ngramSources.length; j++) {
-                Enums.NgramSource ngramSource = ngramSources[j];
-
-                for (int i = 1; i < causes[j].length + 1; i++) {
-
-                    String unigram = ngramToLowerCase(causes[j][i - 1]);
-                    if (unigram.equals("") || stopWords.contains(unigram)) {
-                        continue;
-                    }
-
-                    Extensions.updateMap(this.causeUnigramCount, ngramSource.toString());
-
-                    String emotionUnigram = emotion + "\t" + unigram;
-
-                    // add unigram and emotion - unigram frequencies
-                    Extensions.updateMap(ngramTypeUnigramFreqs.get(ngramSource), unigram);
-                    Extensions.updateMap(emotionNgramTypeUnigramFreqs.get(ngramSource), emotionUnigram);
-
-                    if (i < causes[j].length) {
+        printFrequencies();
+    }
 
-                        String bigram = unigram + " " + ngramToLowerCase(causes[j][i]);
-                        if (causes[j][i].equals("") || stopWords.contains(causes[j][i])) {
-                            continue;
-                        }
+    /**
+     * Counts the frequencies like <code>countFrequencies</code>, but in parallel. The counts are the same as if the
+     * extractions were counted one after another.
+     * @param extractions the extractions, e.g. as streamed by <code>ResultsReader.streamResults</code>
+     * @param threads the number of threads
+     * @throws IOException if the extractions couldn't be counted
+     */
+    public void countFrequencies(Iterable<Extraction> extractions, int threads) throws IOException {
+        counter.merge(NgramCounter.count(extractions, stopWords, threads, chunkSize));
+        printFrequencies();
+    }
 
-                        String emotionBigram = emotion + "\t" + bigram;
+    /**
+     * Benchmarks counting the frequencies of an extraction file with 1 to the given number of threads, doubling the
+     * number of threads each time, and checks that the scores are the same as those of a single thread.
+     * @param args the extraction file, the stop words file, and the maximum number of threads
+     * @throws IOException if a file couldn't be read
+     */
+    public static void main(String[] args) throws IOException {
 
-                        // add bigram and emotion - bigram frequencies
-                        Extensions.updateMap(ngramTypeBigramFreqs.get(ngramSource), bigram);
-                        Extensions.updateMap(emotionNgramTypeBigramFreqs.get(ngramSource), emotionBigram);
-                    }
-                }
+        if (args.length == 0) {
+            args = new String[] { "/home/sebastian/git/sentiment_analysis/out/results.bin",
+                    "/home/sebastian/git/sentiment_analysis/out/stop_words.txt" };
+        }
+        int maxThreads = args.length >= 3 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        // the extractions are read beforehand, so that only counting is measured
+        List<Extraction> extractions = new ArrayList<Extraction>();
+        ResultsReader.ExtractionIterator iterator = ResultsReader.streamResults(args[0], false);
+        try {
+            for (Extraction extraction : iterator) {
+                extractions.add(extraction);
             }
+        }
+        finally {
+            iterator.close();
+        }
 
-            // S cause subj + pred
-            String[] subjSCause = extraction.getSubjSCause().split(" ");
-
-            // convert ngram to lower case; replace NE tags
-            String predSCause = ngramToLowerCase(extraction.getPredSCause());
-            for (String token : subjSCause) {
-
-                // don't consider empty tokens or stop words
-                if (token.equals("") || stopWords.contains(token)) {
-                    continue;
-                }
-
-                Enums.NgramSource ngramSource = Enums.NgramSource.s_cause_subj_pred;
-                String bigram = ngramToLowerCase(token) + " " + predSCause;
-                String emotionBigram = emotion + "\t" + bigram;
-                Extensions.updateMap(ngramTypeBigramFreqs.get(ngramSource), bigram);
-                Extensions.updateMap(emotionNgramTypeBigramFreqs.get(ngramSource), emotionBigram);
-                Extensions.updateMap(this.causeUnigramCount, ngramSource.toString());
+        // the first sequential run warms up the JIT and decodes the fields of the extractions, which are decoded lazily
+        Analyzer sequential = null;
+        long start = 0;
+        for (int run = 0; run < 2; run++) {
+            sequential = new Analyzer(args[1]);
+            start = System.nanoTime();
+            for (Extraction extraction : extractions) {
+                sequential.accept(extraction);
             }
+        }
+        double sequentialTime = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Extractions: %d\nThreads\tTime (s)\tSpeedup\tIdentical\nsequential\t%.3f\t1.00\t-\n",
+                extractions.size(), sequentialTime);
 
-            // S cause pred + dobj
-            String[] dobjSCause = extraction.getDobjSCause().split(" ");
-
-            for (int i = dobjSCause.length - 1; i > 0; i--) {
-                String token = dobjSCause[i];
-                if (token.equals("") || stopWords.contains(token) || token.contains(":")) {
-                    continue;
-                }
-                else {
-                    Enums.NgramSource ngramSource = Enums.NgramSource.s_cause_pred_dobj;
-                    String bigram = predSCause + " " + ngramToLowerCase(token);
-                    String emotionBigram = emotion + "\t" + bigram;
-                    Extensions.updateMap(ngramTypeBigramFreqs.get(ngramSource), bigram);
-                    Extensions.updateMap(emotionNgramTypeBigramFreqs.get(Enums.NgramSource.s_cause_pred_dobj), emotionBigram);
-                    Extensions.updateMap(this.causeUnigramCount, ngramSource.toString());
-                    break;
+        List<Integer> threadCounts = new ArrayList<Integer>();
+        for (int threads = 1; threads < maxThreads; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(maxThreads);
+
+        for (int threads : threadCounts) {
+            Analyzer analyzer = new Analyzer(args[1]);
+            start = System.nanoTime();
+            analyzer.counter.merge(NgramCounter.count(extractions, analyzer.stopWords, threads, chunkSize));
+            double time = (System.nanoTime() - start) / 1e9;
+
+            // the scores are compared in the order of the maps, which the score files are written in
+            boolean isIdentical = true;
+            for (Enums.NgramSource ngramSource : Enums.NgramSource.values()) {
+                for (Enums.Ngram ngramEnum : Enums.Ngram.values()) {
+                    isIdentical &= new ArrayList<Map.Entry<String, Double>>(analyzer.calculatePMI(ngramSource, ngramEnum).entrySet())
+                            .equals(new ArrayList<Map.Entry<String, Double>>(sequential.calculatePMI(ngramSource, ngramEnum).entrySet()));
+                    isIdentical &= new ArrayList<Map.Entry<String, Double>>(analyzer.calculateChiSquare(ngramSource, ngramEnum).entrySet())
+                            .equals(new ArrayList<Map.Entry<String, Double>>(sequential.calculateChiSquare(ngramSource, ngramEnum).entrySet()));
                 }
             }
+
+            System.out.printf("%d\t%.3f\t%.2f\t%s\n", threads, time, sequentialTime / time, isIdentical);
         }
+    }
+
+    /**
+     * Counts the frequencies of emotions, unigrams, and bigrams in cause of a single extraction, e.g. as a consumer of
+     * a scan that is shared with other consumers.
+     * @param extraction the extraction
+     */
+    @Override
+    public void accept(Extraction extraction) {
+        counter.add(extraction);
+    }
 
+    /**
+     * Prints the frequencies once all extractions have been counted.
+     */
+    @Override
+    public void finish() {
         printFrequencies();
     }
 
@@ -185,20 +162,21 @@ public class Analyzer {
      */
     private void printFrequencies() {
         System.out.println("Ngram type\t# unigrams");
-        printTotal(ngramTypeUnigramFreqs);
+        printTotal(Enums.Ngram.unigram);
         System.out.println("\nNgram type\t# bigrams");
-        printTotal(ngramTypeBigramFreqs);
+        printTotal(Enums.Ngram.bigram);
     }
 
     /**
-     * Prints out the total frequency of an ngram type given an ngram type map.
-     * @param ngramTypeMap map with key: ngram type; value: map with key: ngram, value: frequency
+     * Prints out the total frequency of each ngram type.
+     * @param ngramEnum unigram or bigram
      */
-    private void printTotal(Map<Enums.NgramSource, Map<String, Double>> ngramTypeMap) {
-        for (Enums.NgramSource ngramSource : ngramTypeMap.keySet()) {
+    private void printTotal(Enums.Ngram ngramEnum) {
+        for (Enums.NgramSource ngramSource : Enums.NgramSource.values()) {
+            ContingencyTable table = counter.getContingencyTable(ngramSource, ngramEnum);
             double total = 0;
-            for (Map.Entry<String, Double> entry : ngramTypeMap.get(ngramSource).entrySet()) {
-                total += entry.getValue();
+            for (int ngram = 0; ngram < table.size(); ngram++) {
+                total += table.getNgramFreq(ngram);
             }
 
             System.out.printf("%s\t%f\n", ngramSource.toString(), total);
@@ -206,20 +184,14 @@ public class Analyzer {
     }
 
     /**
-     * Convert ngram to lower if it isn't a named entity. Shorten named entity tags.
-     * @param ngram the ngram to be converted to lower
-     * @return the ngram to lower
+     * Returns the contingency table of the emotions and the ngrams of an ngram source. Once all extractions have been
+     * counted, the tables don't change anymore and can be shared by threads.
+     * @param ngramSource the ngram source
+     * @param ngramEnum unigram or bigram
+     * @return the contingency table
      */
-    private String ngramToLowerCase(String ngram) {
-        if (ngram.contains("/")) {
-            return ngram.replace("/PERSON", "/PERS").replace("/ORGANIZATION", "/ORG").replace("/LOCATION", "/LOC");
-        }
-        else if (ngram.equals("NUMBER")) {
-            return "NUM";
-        }
-        else {
-            return ngram.toLowerCase();
-        }
+    public ContingencyTable getContingencyTable(Enums.NgramSource ngramSource, Enums.Ngram ngramEnum) {
+        return counter.getContingencyTable(ngramSource, ngramEnum);
     }
 
     /**
@@ -231,47 +203,12 @@ public class Analyzer {
      */
     public Map<String, Double> calculatePMI(Enums.NgramSource ngramSource, Enums.Ngram ngramEnum) {
 
-        // get the appropriate parameters
-        Map<String, Double> ngramFreqs = ngramEnum.equals(Enums.Ngram.unigram) ? this.ngramTypeUnigramFreqs.get(ngramSource) : this.ngramTypeBigramFreqs.get(ngramSource);
-        Map<String, Double> emotionNgramFreqs = ngramEnum.equals(Enums.Ngram.unigram) ? this.emotionNgramTypeUnigramFreqs.get(ngramSource) : this.emotionNgramTypeBigramFreqs.get(ngramSource);
-        double ngramCount = 0;
-        ngramCount = this.causeUnigramCount.get(ngramSource.toString());
-        // initializes the final ngram - PMI map
+        // only the emotions that an ngram appeared with have a score
+        ContingencyTable table = counter.getContingencyTable(ngramSource, ngramEnum);
         Map<String, Double> PMIMap = new HashMap<String, Double>();
-
-        // iterate over all emotions and all tokens (i.e. unigrams or bigrams)
-        for (String emotion : this.emotionFreqs.keySet()) {
-            for (String ngram : ngramFreqs.keySet()) {
-
-                String emotionNgram = emotion + "\t" + ngram;
-                if (!emotionNgramFreqs.containsKey(emotionNgram)) {
-                    continue;
-                }
-
-                // get frequencies
-                double emotionFreq = this.emotionFreqs.get(emotion);
-                double ngramFreq = ngramFreqs.get(ngram);
-                double emotionNgramFreq = emotionNgramFreqs.get(emotionNgram);
-
-                // continue if ngram never appeared; shouldn't happen but just to be safe
-                if (ngramFreq == 0) {
-                    continue;
-                }
-
-                // calculate probabilities
-                double pEmotion = (emotionFreq / this.emotionCount); // P(x)
-                double pNgram = ngramFreq / ngramCount; // P(y)
-                double pJoint = emotionNgramFreq / this.emotionCount; // P(x,y)
-
-                // calculate discounted probabilities (multiplied with freq / (freq + 1))
-                double pEmotionNgramDiscount = (emotionFreq * ngramFreq) / (Math.pow(this.emotionCount, 2) * (ngramFreq / (ngramFreq + 1)));
-                double pJointDiscount = (emotionNgramFreq / this.emotionCount) * (emotionNgramFreq / (emotionNgramFreq + 1));
-
-                double pmi = Math.log(pJoint / (pEmotion * pNgram));
-                double pmiDiscount = Math.log(pJointDiscount / pEmotionNgramDiscount);
-                // double pmiNormalized = pmiDiscount / (- Math.log(pJointDiscount));
-
-                PMIMap.put(emotionNgram, pmiDiscount);
+        for (int ngram = 0; ngram < table.size(); ngram++) {
+            for (int cell = table.getCellStart(ngram); cell < table.getCellEnd(ngram); cell++) {
+                PMIMap.put(table.getEmotion(cell) + "\t" + table.getNgram(ngram), table.getDiscountedPMI(ngram, cell));
             }
         }
 
@@ -286,50 +223,11 @@ public class Analyzer {
      */
     public Map<String, Double> calculateChiSquare(Enums.NgramSource ngramSource, Enums.Ngram ngramEnum) {
 
-        // get the appropriate parameters
-        Map<String, Double> ngramFreqs = ngramEnum.equals(Enums.Ngram.unigram) ? this.ngramTypeUnigramFreqs.get(ngramSource) : this.ngramTypeBigramFreqs.get(ngramSource);
-        Map<String, Double> emotionNgramFreqs = ngramEnum.equals(Enums.Ngram.unigram) ? this.emotionNgramTypeUnigramFreqs.get(ngramSource) : this.emotionNgramTypeBigramFreqs.get(ngramSource);
-        double ngramCount = 0;
-        ngramCount = this.causeUnigramCount.get(ngramSource.toString());
-
-        // initialize final chi-square map
+        ContingencyTable table = counter.getContingencyTable(ngramSource, ngramEnum);
         Map<String, Double> chiSquareMap = new HashMap<String, Double>();
-
-        // iterate over all emotions and ngrams
-        for (String emotion : this.emotionFreqs.keySet()) {
-            for (String ngram : ngramFreqs.keySet()) {
-
-                String emotionNgram = emotion + "\t" + ngram;
-                if (!emotionNgramFreqs.containsKey(emotionNgram)) {
-                    continue;
-                }
-
-                double emotionFreq = this.emotionFreqs.get(emotion);
-                double ngramFreq = ngramFreqs.get(ngram);
-                double emotionNgramFreq = emotionNgramFreqs.get(emotionNgram);
-
-                // continue if token never appeared; shouldn't happen but just to be safe
-                if (ngramFreq == 0) {
-                    continue;
-                }
-
-                // joint probability of x and y P(x, y)
-                double pJoint = emotionNgramFreq / this.emotionCount;
-
-                double pNgram = ngramFreq / ngramCount; // P(x)
-
-                // fraction of documents, i.e extractions which contain token
-                double Fw = ngramFreq / this.emotionCount; // F(w)
-
-                // fraction of documents which contain emotion
-                double P_i = emotionFreq / this.emotionCount;
-
-                // conditional prob of class i for extractions which contain w: p(w, i) / p(w)
-                double p_iw = pJoint / pNgram;
-
-                double chiSquare = (this.emotionCount * Math.pow(Fw, 2) * Math.pow((p_iw - P_i), 2)) / (Fw * (1 - Fw) * P_i * (1 - P_i));
-
-                chiSquareMap.put(emotionNgram, chiSquare);
+        for (int ngram = 0; ngram < table.size(); ngram++) {
+            for (int cell = table.getCellStart(ngram); cell < table.getCellEnd(ngram); cell++) {
+                chiSquareMap.put(table.getEmotion(cell) + "\t" + table.getNgram(ngram), table.getChiSquare(ngram, cell));
             }
         }
 
@@ -347,31 +245,30 @@ public class Analyzer {
      */
     public Map<String, Map<String, Double>> calculcateEmotionOverlap(Enums.NgramSource ngramSource, Enums.Ngram ngramEnum, Map<String, Double> metricMap) {
 
-        // get the appropriate parameters
-        Map<String, Double> ngramFreqs = ngramEnum.equals(Enums.Ngram.unigram) ? this.ngramTypeUnigramFreqs.get(ngramSource) : this.ngramTypeBigramFreqs.get(ngramSource);
-
         // create the overlap map
         Map<String, Map<String, Double>> overlapMap = new HashMap<String, Map<String, Double>>();
 
-        // iterate through all ngrams and all emotions
-        for (String ngram : ngramFreqs.keySet()) {
-
-            for (String emotion : this.emotionFreqs.keySet()) {
+        // iterate through the emotions that each ngram appeared with; the others have no score
+        ContingencyTable table = counter.getContingencyTable(ngramSource, ngramEnum);
+        for (int ngram = 0; ngram < table.size(); ngram++) {
+            for (int cell = table.getCellStart(ngram); cell < table.getCellEnd(ngram); cell++) {
 
-                String emotionNgram = emotion + "\t" + ngram;
+                String emotion = table.getEmotion(cell);
+                String emotionNgram = emotion + "\t" + table.getNgram(ngram);
 
                 // skip emotion if metric map doesn't contain a score for that emotion or score is smaller than 0
-                if (!metricMap.containsKey(emotionNgram) || metricMap.get(emotionNgram) < 0) {
+                Double score = metricMap.get(emotionNgram);
+                if (score == null || score < 0) {
                     continue;
                 }
-                else if (!overlapMap.containsKey(ngram)) {
+                else if (!overlapMap.containsKey(table.getNgram(ngram))) {
 
                     // otherwise create a new map if ngram doesn't exist yet
-                    overlapMap.put(ngram, new HashMap<String, Double>());
+                    overlapMap.put(table.getNgram(ngram), new HashMap<String, Double>());
                 }
 
                 // add ngram along with score for that emotion
-                overlapMap.get(ngram).put(emotion, metricMap.get(emotionNgram));
+                overlapMap.get(table.getNgram(ngram)).put(emotion, score);
             }
         }
 
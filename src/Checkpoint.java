@@ -0,0 +1,254 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A checkpoint of an extraction run, which allows an interrupted run to be resumed. A checkpoint records how far a
+ * Gigaword file has been processed and the length of the output at that point; output beyond that length is partial
+ * and is truncated on resume. The manifest in the output directory lists the files whose extractions have been merged
+ * into the output files; the progress of a file that is still being processed is recorded next to its shards.
+ */
+public class Checkpoint {
+
+    /**
+     * The name of the manifest listing the completed files.
+     */
+    public static final String manifestName = "checkpoint.txt";
+
+    /**
+     * The Gigaword file.
+     */
+    private String fileName;
+
+    /**
+     * The id of the last document whose matches have been written; empty if no document has been written.
+     */
+    private String lastDocId;
+
+    /**
+     * The number of documents of the file whose matches have been written.
+     */
+    private int documentCount;
+
+    /**
+     * The length of the results file in bytes.
+     */
+    private long resultLength;
+
+    /**
+     * The length of the collocations file in bytes.
+     */
+    private long collLength;
+
+    /**
+     * The number of matches in the results file.
+     */
+    private int matches;
+
+    /**
+     * The number of sentences of the file that have been processed.
+     */
+    private int sentenceCount;
+
+    /**
+     * The number of sentences of the file rejected by the prefilter.
+     */
+    private int rejectedCount;
+
+    /**
+     * The number of matches of each pattern, indexed by id.
+     */
+    private long[] counts;
+
+    /**
+     * The number of propositions in the filter of the results; -1 if the results aren't filtered.
+     */
+    private long propositionCount;
+
+    /**
+     * Creates a checkpoint.
+     * @param fileName the Gigaword file
+     * @param lastDocId the id of the last document whose matches have been written
+     * @param documentCount the number of documents whose matches have been written
+     * @param resultLength the length of the results file in bytes
+     * @param collLength the length of the collocations file in bytes
+     * @param matches the number of matches in the results file
+     * @param sentenceCount the number of sentences that have been processed
+     * @param rejectedCount the number of sentences rejected by the prefilter
+     * @param counts the number of matches of each pattern
+     * @param propositionCount the number of propositions in the filter of the results; -1 if they aren't filtered
+     */
+    public Checkpoint(String fileName, String lastDocId, int documentCount, long resultLength, long collLength,
+                      int matches, int sentenceCount, int rejectedCount, AtomicLongArray counts,
+                      long propositionCount) {
+        this.fileName = fileName;
+        this.lastDocId = lastDocId == null ? "" : lastDocId;
+        this.documentCount = documentCount;
+        this.resultLength = resultLength;
+        this.collLength = collLength;
+        this.matches = matches;
+        this.sentenceCount = sentenceCount;
+        this.rejectedCount = rejectedCount;
+        this.counts = PatternRegistry.snapshot(counts);
+        this.propositionCount = propositionCount;
+    }
+
+    private Checkpoint() {
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getLastDocId() {
+        return lastDocId;
+    }
+
+    public int getDocumentCount() {
+        return documentCount;
+    }
+
+    public long getResultLength() {
+        return resultLength;
+    }
+
+    public long getCollLength() {
+        return collLength;
+    }
+
+    public int getMatches() {
+        return matches;
+    }
+
+    public int getSentenceCount() {
+        return sentenceCount;
+    }
+
+    public int getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public long getPropositionCount() {
+        return propositionCount;
+    }
+
+    /**
+     * Restores the number of matches of each pattern.
+     * @param counts the match counts; have to belong to the same pattern registry as the checkpoint
+     * @throws IOException if the checkpoint has a different number of patterns, i.e. belongs to other templates
+     */
+    public void restoreCounts(AtomicLongArray counts) throws IOException {
+        if (this.counts.length != counts.length()) {
+            throw new IOException(String.format("Checkpoint of %s has %d patterns instead of %d.", fileName,
+                    this.counts.length, counts.length()));
+        }
+
+        for (int i = 0; i < this.counts.length; i++) {
+            counts.set(i, this.counts[i]);
+        }
+    }
+
+    /**
+     * Reads the checkpoints of a file.
+     * @param path the path of the manifest or progress file
+     * @return the checkpoints in the order they were written; empty if the file doesn't exist
+     * @throws IOException if the file couldn't be read
+     */
+    public static List<Checkpoint> read(String path) throws IOException {
+        List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+        if (!new File(path).exists()) {
+            return checkpoints;
+        }
+
+        BufferedReader reader = new BufferedReader(new FileReader(path));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 10) {
+                reader.close();
+                throw new IOException(String.format("%s contains an invalid checkpoint: %s", path, line));
+            }
+
+            Checkpoint checkpoint = new Checkpoint();
+            checkpoint.fileName = fields[0];
+            checkpoint.lastDocId = fields[1];
+            checkpoint.documentCount = Integer.parseInt(fields[2]);
+            checkpoint.resultLength = Long.parseLong(fields[3]);
+            checkpoint.collLength = Long.parseLong(fields[4]);
+            checkpoint.matches = Integer.parseInt(fields[5]);
+            checkpoint.sentenceCount = Integer.parseInt(fields[6]);
+            checkpoint.rejectedCount = Integer.parseInt(fields[7]);
+            String[] counts = fields[8].isEmpty() ? new String[0] : fields[8].split(",");
+            checkpoint.counts = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                checkpoint.counts[i] = Long.parseLong(counts[i]);
+            }
+            checkpoint.propositionCount = Long.parseLong(fields[9]);
+
+            checkpoints.add(checkpoint);
+        }
+
+        reader.close();
+        return checkpoints;
+    }
+
+    /**
+     * Writes checkpoints to a file. The checkpoints are written to a temporary file first, which then replaces the
+     * file, so that a crash never leaves a partial checkpoint behind. Only the last checkpoint is resumed from, so the
+     * pattern counts of the others are omitted.
+     * @param path the path of the manifest or progress file
+     * @param checkpoints the checkpoints
+     * @throws IOException if the file couldn't be written
+     */
+    public static void write(String path, List<Checkpoint> checkpoints) throws IOException {
+        File file = new File(path);
+        File tempFile = new File(path + ".tmp");
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(tempFile)));
+        for (int i = 0; i < checkpoints.size(); i++) {
+            Checkpoint checkpoint = checkpoints.get(i);
+            StringBuilder sb = new StringBuilder();
+            long[] counts = i == checkpoints.size() - 1 ? checkpoint.counts : new long[0];
+            for (long count : counts) {
+                if (sb.length() > 0) {
+                    sb.append(",");
+                }
+                sb.append(count);
+            }
+
+            writer.printf("%s\t%s\t%d\t%d\t%d\t%d\t%d\t%d\t%s\t%d\n", checkpoint.fileName, checkpoint.lastDocId,
+                    checkpoint.documentCount, checkpoint.resultLength, checkpoint.collLength, checkpoint.matches,
+                    checkpoint.sentenceCount, checkpoint.rejectedCount, sb.toString(), checkpoint.propositionCount);
+        }
+
+        writer.close();
+        if (writer.checkError()) {
+            throw new IOException(String.format("%s couldn't be written.", tempFile));
+        }
+
+        Utils.replaceFile(tempFile, file);
+    }
+
+    /**
+     * Truncates a file to the length it had at a checkpoint, i.e. removes output that was written afterwards.
+     * @param path the path of the file
+     * @param length the length in bytes
+     * @throws IOException if the file is shorter than the length or couldn't be truncated
+     */
+    public static void truncate(String path, long length) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            if (file.length() < length) {
+                throw new IOException(String.format("%s is shorter than its checkpoint of %d bytes.", path, length));
+            }
+            file.setLength(length);
+        }
+        finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+import java.util.List;
+
+/**
+ * A sparse contingency table of the emotions and the ngrams of an ngram source, which stores for each ngram that has
+ * been observed only the emotions it appeared with and the counts of these cells, along with the marginal frequencies.
+ * Association scores are computed per non-zero cell, so that scoring takes time proportional to the number of observed
+ * pairs of emotions and ngrams rather than to the number of emotions times the vocabulary. A table is immutable and can
+ * be shared by threads.
+ */
+public class ContingencyTable {
+
+    private final List<String> emotions;
+
+    /**
+     * The number of extractions of each emotion, indexed by emotion id.
+     */
+    private final int[] emotionFreqs;
+
+    /**
+     * The number of extractions.
+     */
+    private final double extractionCount;
+
+    /**
+     * The number of ngrams of the ngram source that have been counted.
+     */
+    private final double tokenCount;
+
+    private final String[] ngrams;
+
+    private final int[] ngramFreqs;
+
+    /**
+     * The first cell of each ngram; the cells of ngram i end at cellStarts[i + 1].
+     */
+    private final int[] cellStarts;
+
+    /**
+     * The emotion id of each cell.
+     */
+    private final int[] cellEmotions;
+
+    /**
+     * The number of times the ngram of each cell appeared together with its emotion.
+     */
+    private final int[] cellFreqs;
+
+    /**
+     * Creates a contingency table.
+     * @param emotions the emotions in the order of their ids
+     * @param emotionFreqs the number of extractions of each emotion
+     * @param extractionCount the number of extractions
+     * @param tokenCount the number of ngrams of the ngram source
+     * @param ngrams the ngrams that have been observed
+     * @param ngramFreqs the frequency of each ngram
+     * @param cellStarts the first cell of each ngram and the number of cells
+     * @param cellEmotions the emotion id of each cell
+     * @param cellFreqs the frequency of each cell
+     */
+    public ContingencyTable(List<String> emotions, int[] emotionFreqs, int extractionCount, long tokenCount,
+                            String[] ngrams, int[] ngramFreqs, int[] cellStarts, int[] cellEmotions, int[] cellFreqs) {
+        this.emotions = emotions;
+        this.emotionFreqs = emotionFreqs;
+        this.extractionCount = extractionCount;
+        this.tokenCount = tokenCount;
+        this.ngrams = ngrams;
+        this.ngramFreqs = ngramFreqs;
+        this.cellStarts = cellStarts;
+        this.cellEmotions = cellEmotions;
+        this.cellFreqs = cellFreqs;
+    }
+
+    /**
+     * Returns the number of ngrams that have been observed.
+     * @return the number of ngrams
+     */
+    public int size() {
+        return ngrams.length;
+    }
+
+    /**
+     * Returns the number of non-zero cells.
+     * @return the number of cells
+     */
+    public int getCellCount() {
+        return cellFreqs.length;
+    }
+
+    public String getNgram(int ngram) {
+        return ngrams[ngram];
+    }
+
+    public int getNgramFreq(int ngram) {
+        return ngramFreqs[ngram];
+    }
+
+    public int getCellStart(int ngram) {
+        return cellStarts[ngram];
+    }
+
+    public int getCellEnd(int ngram) {
+        return cellStarts[ngram + 1];
+    }
+
+    public String getEmotion(int cell) {
+        return emotions.get(cellEmotions[cell]);
+    }
+
+    public int getCellFreq(int cell) {
+        return cellFreqs[cell];
+    }
+
+    /**
+     * Calculates the point-wise mutual information of a cell.
+     * @param ngram the ngram of the cell
+     * @param cell the cell
+     * @return the PMI score
+     */
+    public double getPMI(int ngram, int cell) {
+        double emotionFreq = emotionFreqs[cellEmotions[cell]];
+        double ngramFreq = ngramFreqs[ngram];
+        double emotionNgramFreq = cellFreqs[cell];
+
+        // calculate probabilities
+        double pEmotion = (emotionFreq / extractionCount); // P(x)
+        double pNgram = ngramFreq / tokenCount; // P(y)
+        double pJoint = emotionNgramFreq / extractionCount; // P(x,y)
+
+        return Math.log(pJoint / (pEmotion * pNgram));
+    }
+
+    /**
+     * Calculates the discounted point-wise mutual information of a cell. Discount filters out expressions that occur
+     * very rarely.
+     * @param ngram the ngram of the cell
+     * @param cell the cell
+     * @return the discounted PMI score
+     */
+    public double getDiscountedPMI(int ngram, int cell) {
+        double emotionFreq = emotionFreqs[cellEmotions[cell]];
+        double ngramFreq = ngramFreqs[ngram];
+        double emotionNgramFreq = cellFreqs[cell];
+
+        // calculate discounted probabilities (multiplied with freq / (freq + 1))
+        double pEmotionNgramDiscount = (emotionFreq * ngramFreq) / (Math.pow(extractionCount, 2) * (ngramFreq / (ngramFreq + 1)));
+        double pJointDiscount = (emotionNgramFreq / extractionCount) * (emotionNgramFreq / (emotionNgramFreq + 1));
+
+        return Math.log(pJointDiscount / pEmotionNgramDiscount);
+    }
+
+    /**
+     * Calculates the chi-square score of a cell.
+     * @param ngram the ngram of the cell
+     * @param cell the cell
+     * @return the chi-square score
+     */
+    public double getChiSquare(int ngram, int cell) {
+        double emotionFreq = emotionFreqs[cellEmotions[cell]];
+        double ngramFreq = ngramFreqs[ngram];
+        double emotionNgramFreq = cellFreqs[cell];
+
+        // joint probability of x and y P(x, y)
+        double pJoint = emotionNgramFreq / extractionCount;
+
+        double pNgram = ngramFreq / tokenCount; // P(x)
+
+        // fraction of documents, i.e extractions which contain token
+        double Fw = ngramFreq / extractionCount; // F(w)
+
+        // fraction of documents which contain emotion
+        double P_i = emotionFreq / extractionCount;
+
+        // conditional prob of class i for extractions which contain w: p(w, i) / p(w)
+        double p_iw = pJoint / pNgram;
+
+        return (extractionCount * Math.pow(Fw, 2) * Math.pow((p_iw - P_i), 2)) / (Fw * (1 - Fw) * P_i * (1 - P_i));
+    }
+}
@@ -0,0 +1,126 @@
+import edu.jhu.agiga.AgigaCoref;
+import edu.jhu.agiga.AgigaMention;
+import edu.jhu.agiga.AgigaSentence;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of the coreferences of a document that maps a mention, i.e. its sentence and start token, to its most
+ * representative mention. The string of a representative mention is built when it is first needed and kept afterwards,
+ * so that pronouns referring to the same entity throughout a document are only resolved once. An instance belongs to a
+ * single document and is not thread-safe.
+ */
+public class CorefIndex {
+
+    private final List<AgigaSentence> sentences;
+
+    /**
+     * The named entity tags of the document.
+     */
+    private final NerView nerTags;
+
+    /**
+     * If representative mentions should be in lemma form.
+     */
+    private final boolean asLemma;
+
+    /**
+     * If named entity tags should be added to representative mentions.
+     */
+    private final boolean addNER;
+
+    /**
+     * Key: sentence and start token index of a mention. Value: its representative mention.
+     */
+    private final Map<Long, AgigaMention> representatives = new HashMap<Long, AgigaMention>();
+
+    /**
+     * Key: sentence and head token index of a representative mention. Value: its string.
+     */
+    private final Map<Long, String> representativeStrings = new HashMap<Long, String>();
+
+    /**
+     * Key: sentence index. Value: the index of its collapsed dependencies.
+     */
+    private final Map<Integer, DependencyIndex> dependencyIndexes = new HashMap<Integer, DependencyIndex>();
+
+    /**
+     * Creates an index of the coreferences of a document.
+     * @param corefs the coreferences of the document
+     * @param sentences the sentences of the document
+     * @param nerTags the named entity tags of the document
+     * @param asLemma if representative mentions should be in lemma form
+     * @param addNER if named entity tags should be added to representative mentions
+     */
+    public CorefIndex(List<AgigaCoref> corefs, List<AgigaSentence> sentences, NerView nerTags, boolean asLemma,
+                      boolean addNER) {
+        this.sentences = sentences;
+        this.nerTags = nerTags;
+        this.asLemma = asLemma;
+        this.addNER = addNER;
+
+        for (AgigaCoref coref : corefs) {
+            List<AgigaMention> mentions = coref.getMentions();
+            AgigaMention rep = null;
+
+            for (AgigaMention mention : mentions) {
+                if (mention.isRepresentative()) {
+                    rep = mention;
+                    break;
+                }
+            }
+
+            if (rep == null) {
+                continue;
+            }
+
+            // if mentions start at the same token, the first one is used
+            for (AgigaMention mention : mentions) {
+                Long key = key(mention.getSentenceIdx(), mention.getStartTokenIdx());
+                if (!representatives.containsKey(key)) {
+                    representatives.put(key, rep);
+                }
+            }
+        }
+    }
+
+    private static Long key(int sentIdx, int tokIdx) {
+        return ((long)sentIdx << 32) | (tokIdx & 0xffffffffL);
+    }
+
+    /**
+     * Returns the most representative mention of a mention as a string, built from its head and modifiers, and its
+     * prepositional objects.
+     * @param sentIdx the index of the sentence of the mention
+     * @param tokIdx the index of the start token of the mention
+     * @return the string of the representative mention; null if the token doesn't start a mention
+     */
+    public String getRepresentative(int sentIdx, int tokIdx) {
+        AgigaMention rep = representatives.get(key(sentIdx, tokIdx));
+        if (rep == null) {
+            return null;
+        }
+
+        // the string depends only on the representative, so all of its mentions share it
+        int repSentIdx = rep.getSentenceIdx();
+        Long repKey = key(repSentIdx, rep.getHeadTokenIdx());
+        String representative = representativeStrings.get(repKey);
+        if (representative != null) {
+            return representative;
+        }
+
+        DependencyIndex colDeps = dependencyIndexes.get(repSentIdx);
+        if (colDeps == null) {
+            colDeps = new DependencyIndex(sentences.get(repSentIdx).getColDeps());
+            dependencyIndexes.put(repSentIdx, colDeps);
+        }
+
+        // coreferents in the representative mention aren't replaced
+        representative = Utils.depToString(rep.getHeadTokenIdx(), colDeps, sentences.get(repSentIdx).getTokens(),
+                this, nerTags, repSentIdx, true, false, asLemma, addNER);
+        representativeStrings.put(repKey, representative);
+        return representative;
+    }
+}
@@ -0,0 +1,411 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * Removes duplicate lines from files that can be larger than memory, e.g. results or collocations. Two lines are
+ * duplicates if their keys, e.g. the fields that are compared by <code>Extraction.equals</code>, are equal. A first pass
+ * partitions the 64-bit fingerprints of the keys into buckets on disk, so that all duplicates of a line end up in the
+ * same bucket. The buckets are then deduplicated in parallel with a hash set of fingerprints, so that only one bucket
+ * per thread is held in memory, and a last pass writes the first, or optionally the last, occurrence of each key in the
+ * original order. Keys
+ * with the same fingerprint are treated as duplicates; with 64 bits, that is unlikely even for billions of lines.
+ */
+public class Deduplicator {
+
+    private static Logger log = Logger.getLogger(Deduplicator.class.getName());
+
+    /**
+     * The function that returns the key of a line by which duplicates are identified.
+     */
+    public interface KeyFunction {
+
+        /**
+         * Returns the key of a line.
+         * @param line the line
+         * @return the key; null if the line should be dropped
+         */
+        String getKey(String line);
+    }
+
+    /**
+     * The maximum number of records of a bucket, so that its hash set can be allocated.
+     */
+    private static final int maxBucketSize = 1 << 28;
+
+    private final KeyFunction keyFunction;
+
+    /**
+     * The number of buckets; the more buckets, the less memory is needed to deduplicate one.
+     */
+    private final int bucketCount;
+
+    /**
+     * The number of buckets that are deduplicated at the same time.
+     */
+    private final int threads;
+
+    /**
+     * If the last occurrence of each key is kept instead of the first.
+     */
+    private final boolean keepLast;
+
+    /**
+     * Creates a deduplicator that keeps the first occurrence of each key.
+     * @param keyFunction the function that returns the key of a line
+     * @param bucketCount the number of buckets; at most 32767
+     * @param threads the number of buckets that are deduplicated at the same time
+     */
+    public Deduplicator(KeyFunction keyFunction, int bucketCount, int threads) {
+        this(keyFunction, bucketCount, threads, false);
+    }
+
+    /**
+     * Creates a deduplicator.
+     * @param keyFunction the function that returns the key of a line
+     * @param bucketCount the number of buckets; at most 32767
+     * @param threads the number of buckets that are deduplicated at the same time
+     * @param keepLast true if the last occurrence of each key should be kept, false for the first
+     */
+    public Deduplicator(KeyFunction keyFunction, int bucketCount, int threads, boolean keepLast) {
+        if (bucketCount < 1 || bucketCount > Short.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("%d is not a valid number of buckets.", bucketCount));
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException(String.format("%d is not a valid number of threads.", threads));
+        }
+
+        this.keyFunction = keyFunction;
+        this.bucketCount = bucketCount;
+        this.threads = threads;
+        this.keepLast = keepLast;
+    }
+
+    /**
+     * Writes the first or the last occurrence of each key of a file to a new file. Comments, i.e. lines starting with #, empty
+     * lines, and lines without a key are dropped. The buckets are stored in a directory next to the new file, which is
+     * deleted afterwards.
+     * @param oldFilePath the path to the file with duplicates
+     * @param newFilePath the path to the new file
+     * @return the number of lines that have been written
+     * @throws IOException if a file couldn't be read or written
+     */
+    public long deduplicate(String oldFilePath, String newFilePath) throws IOException {
+        File bucketDir = new File(newFilePath + ".buckets");
+        if (!bucketDir.isDirectory() && !bucketDir.mkdirs()) {
+            throw new IOException(String.format("%s couldn't be created.", bucketDir));
+        }
+
+        try {
+            long[] recordCounts = partition(oldFilePath, bucketDir);
+            deduplicateBuckets(bucketDir, recordCounts);
+            long lineCount = 0;
+            for (long recordCount : recordCounts) {
+                lineCount += recordCount;
+            }
+
+            long writtenCount = merge(oldFilePath, newFilePath, bucketDir);
+            log.info(String.format("%d of %d lines of %s are unique.", writtenCount, lineCount, oldFilePath));
+            return writtenCount;
+        }
+        finally {
+            File[] files = bucketDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            bucketDir.delete();
+        }
+    }
+
+    /**
+     * Writes the fingerprint of each line to its bucket and the bucket of each line to the sequence file, which records
+     * the original order.
+     * @param filePath the path to the file with duplicates
+     * @param bucketDir the directory of the buckets
+     * @return the number of records of each bucket
+     * @throws IOException if a file couldn't be read or written
+     */
+    private long[] partition(String filePath, File bucketDir) throws IOException {
+        long[] recordCounts = new long[bucketCount];
+        DataOutputStream[] buckets = new DataOutputStream[bucketCount];
+        DataOutputStream sequence = null;
+        BufferedReader reader = new BufferedReader(new FileReader(filePath));
+        try {
+            sequence = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getSequenceFile(bucketDir))));
+            for (int i = 0; i < bucketCount; i++) {
+                buckets[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+                        getBucketFile(bucketDir, i))));
+            }
+
+            String line = reader.readLine();
+            while (line != null) {
+                String key = isComment(line) ? null : keyFunction.getKey(line);
+                if (key == null) {
+                    sequence.writeShort(-1);
+                }
+                else {
+                    long fingerprint = fingerprint(key);
+                    // the high bits select the bucket and the low bits the slot of the hash set
+                    int bucket = (int)((fingerprint >>> 32) % bucketCount);
+                    sequence.writeShort(bucket);
+                    buckets[bucket].writeLong(fingerprint);
+                    recordCounts[bucket]++;
+                }
+
+                line = reader.readLine();
+            }
+        }
+        finally {
+            reader.close();
+            if (sequence != null) {
+                sequence.close();
+            }
+            for (DataOutputStream bucket : buckets) {
+                if (bucket != null) {
+                    bucket.close();
+                }
+            }
+        }
+
+        return recordCounts;
+    }
+
+    /**
+     * Deduplicates the buckets in parallel.
+     * @param bucketDir the directory of the buckets
+     * @param recordCounts the number of records of each bucket
+     * @throws IOException if a bucket couldn't be deduplicated
+     */
+    private void deduplicateBuckets(final File bucketDir, long[] recordCounts) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < bucketCount; i++) {
+                final int bucket = i;
+                final long recordCount = recordCounts[i];
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        deduplicateBucket(bucketDir, bucket, recordCount, keepLast);
+                        return null;
+                    }
+                }));
+            }
+
+            for (int i = 0; i < bucketCount; i++) {
+                try {
+                    futures.get(i).get();
+                }
+                catch (InterruptedException ex) {
+                    throw new IOException(String.format("Interrupted while deduplicating bucket %d.", i), ex);
+                }
+                catch (ExecutionException ex) {
+                    throw new IOException(String.format("Error while deduplicating bucket %d.", i), ex.getCause());
+                }
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Replaces the fingerprints of a bucket with flags that indicate if the record is kept, i.e. if its fingerprint
+     * occurs for the first or the last time. The records of a bucket are in the original order, so the first record of
+     * a fingerprint is its first occurrence. To keep the last occurrence, the bucket is read twice: first to find the
+     * last record of each fingerprint, then to write the flags.
+     * @param bucketDir the directory of the buckets
+     * @param bucket the bucket
+     * @param recordCount the number of records of the bucket
+     * @param keepLast true if the last occurrence of each fingerprint should be kept, false for the first
+     * @throws IOException if the bucket couldn't be read or written
+     */
+    private static void deduplicateBucket(File bucketDir, int bucket, long recordCount, boolean keepLast)
+            throws IOException {
+        if (recordCount > maxBucketSize) {
+            throw new IOException(String.format("Bucket %d has %d records; use more buckets.", bucket, recordCount));
+        }
+
+        // an open-addressing hash set with a load factor of at most 0.5; 0 marks an empty slot
+        int tableSize = Integer.highestOneBit(Math.max(1, (int)recordCount)) << 2;
+        long[] table = new long[tableSize];
+        boolean hasZero = false;
+        File bucketFile = getBucketFile(bucketDir, bucket);
+
+        // the index of the last record of the fingerprint in each slot and of the fingerprint 0
+        int[] lastRecords = null;
+        int lastZeroRecord = -1;
+        if (keepLast) {
+            lastRecords = new int[tableSize];
+            DataInputStream records = new DataInputStream(new BufferedInputStream(new FileInputStream(bucketFile)));
+            try {
+                for (int i = 0; i < recordCount; i++) {
+                    long fingerprint = records.readLong();
+                    if (fingerprint == 0) {
+                        lastZeroRecord = i;
+                    }
+                    else {
+                        int slot = findSlot(table, fingerprint);
+                        table[slot] = fingerprint;
+                        lastRecords[slot] = i;
+                    }
+                }
+            }
+            finally {
+                records.close();
+            }
+        }
+
+        DataInputStream records = new DataInputStream(new BufferedInputStream(new FileInputStream(bucketFile)));
+        OutputStream flags = null;
+        try {
+            flags = new BufferedOutputStream(new FileOutputStream(getFlagFile(bucketDir, bucket)));
+            for (int i = 0; i < recordCount; i++) {
+                long fingerprint = records.readLong();
+                boolean isKept;
+                if (keepLast) {
+                    isKept = fingerprint == 0 ? i == lastZeroRecord : lastRecords[findSlot(table, fingerprint)] == i;
+                }
+                else if (fingerprint == 0) {
+                    isKept = !hasZero;
+                    hasZero = true;
+                }
+                else {
+                    int slot = findSlot(table, fingerprint);
+                    isKept = table[slot] == 0;
+                    table[slot] = fingerprint;
+                }
+
+                flags.write(isKept ? 1 : 0);
+            }
+        }
+        finally {
+            records.close();
+            if (flags != null) {
+                flags.close();
+            }
+        }
+
+        // the fingerprints are no longer needed
+        bucketFile.delete();
+    }
+
+    /**
+     * Finds the slot of a fingerprint in an open-addressing hash set, i.e. the slot that holds it or the first empty
+     * slot.
+     * @param table the table of the hash set
+     * @param fingerprint the fingerprint; not 0
+     * @return the slot
+     */
+    private static int findSlot(long[] table, long fingerprint) {
+        int slot = (int)fingerprint & (table.length - 1);
+        while (table[slot] != 0 && table[slot] != fingerprint) {
+            slot = (slot + 1) & (table.length - 1);
+        }
+
+        return slot;
+    }
+
+    /**
+     * Writes the lines whose flags are set in the original order.
+     * @param oldFilePath the path to the file with duplicates
+     * @param newFilePath the path to the new file
+     * @param bucketDir the directory of the buckets
+     * @return the number of lines that have been written
+     * @throws IOException if a file couldn't be read or written
+     */
+    private long merge(String oldFilePath, String newFilePath, File bucketDir) throws IOException {
+        InputStream[] flags = new InputStream[bucketCount];
+        DataInputStream sequence = null;
+        PrintWriter writer = null;
+        BufferedReader reader = new BufferedReader(new FileReader(oldFilePath));
+        long writtenCount = 0;
+        try {
+            sequence = new DataInputStream(new BufferedInputStream(new FileInputStream(getSequenceFile(bucketDir))));
+            for (int i = 0; i < bucketCount; i++) {
+                flags[i] = new BufferedInputStream(new FileInputStream(getFlagFile(bucketDir, i)));
+            }
+            writer = new PrintWriter(new BufferedWriter(new FileWriter(newFilePath)));
+
+            String line = reader.readLine();
+            while (line != null) {
+                int bucket = sequence.readShort();
+                if (bucket >= 0 && flags[bucket].read() == 1) {
+                    writer.println(line);
+                    writtenCount++;
+                }
+
+                line = reader.readLine();
+            }
+        }
+        finally {
+            reader.close();
+            if (sequence != null) {
+                sequence.close();
+            }
+            for (InputStream flag : flags) {
+                if (flag != null) {
+                    flag.close();
+                }
+            }
+            if (writer != null) {
+                writer.close();
+            }
+        }
+
+        if (writer.checkError()) {
+            throw new IOException(String.format("%s couldn't be written.", newFilePath));
+        }
+
+        return writtenCount;
+    }
+
+    /**
+     * Checks if a line is a comment, e.g. a header, or empty.
+     * @param line the line
+     * @return true if the line is a comment or empty
+     */
+    private static boolean isComment(String line) {
+        return line.isEmpty() || line.startsWith("#");
+    }
+
+    /**
+     * Returns the fingerprint of a key, i.e. its 64-bit FNV-1a hash, whose bits are mixed by the finalizer of
+     * MurmurHash3, so that the high and the low bits can be used independently.
+     * @param key the key
+     * @return the fingerprint
+     */
+    public static long fingerprint(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            hash ^= c & 0xff;
+            hash *= 0x100000001b3L;
+            hash ^= c >>> 8;
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static File getSequenceFile(File bucketDir) {
+        return new File(bucketDir, "sequence.bin");
+    }
+
+    private static File getBucketFile(File bucketDir, int bucket) {
+        return new File(bucketDir, String.format("bucket_%d.bin", bucket));
+    }
+
+    private static File getFlagFile(File bucketDir, int bucket) {
+        return new File(bucketDir, String.format("bucket_%d.flags", bucket));
+    }
+}
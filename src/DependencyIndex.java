@@ -0,0 +1,254 @@
+import edu.jhu.agiga.AgigaTypedDependency;
+
+import java.util.*;
+
+/**
+ * A compact index of the dependencies of a sentence. The edges are stored in int arrays grouped by governor, so that
+ * the children of a token are found without scanning all dependencies, and their relation types are interned to small
+ * integer codes, so that they are compared without string comparisons. Edges with the same governor or dependent keep
+ * the order they have in the dependency list.
+ */
+public class DependencyIndex {
+
+    /**
+     * The relation types that are queried; all prepositional relations, e.g. "prep_of", are mapped to prep and all
+     * other types to other.
+     */
+    public enum Relation {
+        nsubj, nsubjpass, dobj, ccomp, xcomp, partmod, conj_and, conj_or, conj_but, dep, nn, amod, num, pcomp, pobj,
+        prep, other
+    }
+
+    /**
+     * The relations indexed by their codes.
+     */
+    private static final Relation[] relations = Relation.values();
+
+    /**
+     * Key: relation type. Value: its relation.
+     */
+    private static final Map<String, Relation> relationMap = new HashMap<String, Relation>();
+
+    static {
+        // prep and other aren't relation types themselves; e.g. a bare "prep" is other, as it has no "prep_" prefix
+        for (Relation relation : relations) {
+            if (relation != Relation.prep && relation != Relation.other) {
+                relationMap.put(relation.toString(), relation);
+            }
+        }
+    }
+
+    /**
+     * The prefix of prepositional relation types.
+     */
+    private static final String prepPrefix = "prep_";
+
+    // the edges, sorted by governor
+
+    private final int[] govs;
+
+    private final int[] deps;
+
+    private final int[] relationCodes;
+
+    private final String[] types;
+
+    /**
+     * The position of each edge in the dependency list.
+     */
+    private final int[] order;
+
+    /**
+     * The children of governor i are the edges from childOffsets[i + 1] to childOffsets[i + 2]; the root is -1.
+     */
+    private final int[] childOffsets;
+
+    /**
+     * The edges sorted by dependent.
+     */
+    private final int[] headEdges;
+
+    /**
+     * The heads of dependent i are the edges headEdges[headOffsets[i + 1]] to headEdges[headOffsets[i + 2] - 1].
+     */
+    private final int[] headOffsets;
+
+    /**
+     * Creates an index of the dependencies of a sentence.
+     * @param dependencies the dependencies, e.g. the collapsed dependencies of a sentence
+     */
+    public DependencyIndex(List<AgigaTypedDependency> dependencies) {
+        int size = dependencies.size();
+        int maxIdx = -1;
+        for (AgigaTypedDependency dep : dependencies) {
+            maxIdx = Math.max(maxIdx, Math.max(dep.getGovIdx(), dep.getDepIdx()));
+        }
+
+        // counting sort of the edges by governor and by dependent; slot 0 is the root
+        childOffsets = new int[maxIdx + 3];
+        headOffsets = new int[maxIdx + 3];
+        for (AgigaTypedDependency dep : dependencies) {
+            childOffsets[dep.getGovIdx() + 2]++;
+            headOffsets[dep.getDepIdx() + 2]++;
+        }
+        for (int i = 1; i < childOffsets.length; i++) {
+            childOffsets[i] += childOffsets[i - 1];
+            headOffsets[i] += headOffsets[i - 1];
+        }
+
+        govs = new int[size];
+        deps = new int[size];
+        relationCodes = new int[size];
+        types = new String[size];
+        order = new int[size];
+        int[] next = Arrays.copyOf(childOffsets, childOffsets.length);
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            AgigaTypedDependency dep = dependencies.get(i);
+            int edge = next[dep.getGovIdx() + 1]++;
+            govs[edge] = dep.getGovIdx();
+            deps[edge] = dep.getDepIdx();
+            types[edge] = dep.getType();
+            relationCodes[edge] = intern(dep.getType()).ordinal();
+            order[edge] = i;
+            positions[i] = edge;
+        }
+
+        headEdges = new int[size];
+        next = Arrays.copyOf(headOffsets, headOffsets.length);
+        for (int i = 0; i < size; i++) {
+            headEdges[next[dependencies.get(i).getDepIdx() + 1]++] = positions[i];
+        }
+    }
+
+    /**
+     * Returns the relation of a relation type.
+     * @param type the relation type, e.g. "nsubj" or "prep_of"
+     * @return the relation
+     */
+    private static Relation intern(String type) {
+        Relation relation = relationMap.get(type);
+        if (relation != null) {
+            return relation;
+        }
+
+        return type.startsWith(prepPrefix) ? Relation.prep : Relation.other;
+    }
+
+    /**
+     * Returns the first edge whose governor is the specified token.
+     * @param gov the index of the governor; -1 for the root
+     * @return the first child edge
+     */
+    public int childrenStart(int gov) {
+        return gov < -1 || gov + 2 >= childOffsets.length ? 0 : childOffsets[gov + 1];
+    }
+
+    /**
+     * Returns the edge after the last edge whose governor is the specified token.
+     * @param gov the index of the governor; -1 for the root
+     * @return the end of the child edges
+     */
+    public int childrenEnd(int gov) {
+        return gov < -1 || gov + 2 >= childOffsets.length ? 0 : childOffsets[gov + 2];
+    }
+
+    /**
+     * Returns the edges whose governor is one of the specified tokens in the order of the dependency list.
+     * @param govs the indexes of the governors; duplicates and indexes without children are ignored
+     * @return the edges
+     */
+    public int[] childEdges(int... govs) {
+        int count = 0;
+        for (int i = 0; i < govs.length; i++) {
+            if (!isDuplicate(govs, i)) {
+                count += childrenEnd(govs[i]) - childrenStart(govs[i]);
+            }
+        }
+
+        int[] edges = new int[count];
+        int j = 0;
+        for (int i = 0; i < govs.length; i++) {
+            if (!isDuplicate(govs, i)) {
+                for (int edge = childrenStart(govs[i]); edge < childrenEnd(govs[i]); edge++) {
+                    // insertion sort by position in the dependency list; there are only a few children
+                    int k = j++;
+                    while (k > 0 && order[edges[k - 1]] > order[edge]) {
+                        edges[k] = edges[k - 1];
+                        k--;
+                    }
+                    edges[k] = edge;
+                }
+            }
+        }
+
+        return edges;
+    }
+
+    private static boolean isDuplicate(int[] values, int i) {
+        for (int k = 0; k < i; k++) {
+            if (values[k] == values[i]) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the number of edges whose dependent is the specified token.
+     * @param dep the index of the dependent
+     * @return the number of head edges
+     */
+    public int headCount(int dep) {
+        return dep < -1 || dep + 2 >= headOffsets.length ? 0 : headOffsets[dep + 2] - headOffsets[dep + 1];
+    }
+
+    /**
+     * Returns an edge whose dependent is the specified token.
+     * @param dep the index of the dependent
+     * @param i the number of the edge, from 0 to headCount(dep) - 1
+     * @return the head edge
+     */
+    public int headEdge(int dep, int i) {
+        return headEdges[headOffsets[dep + 1] + i];
+    }
+
+    /**
+     * Returns the number of edges.
+     * @return the number of edges
+     */
+    public int size() {
+        return govs.length;
+    }
+
+    public int getGov(int edge) {
+        return govs[edge];
+    }
+
+    public int getDep(int edge) {
+        return deps[edge];
+    }
+
+    public Relation getRelation(int edge) {
+        return relations[relationCodes[edge]];
+    }
+
+    /**
+     * Returns the relation type of an edge as it is in the dependency list, e.g. "prep_of".
+     * @param edge the edge
+     * @return the relation type
+     */
+    public String getType(int edge) {
+        return types[edge];
+    }
+
+    /**
+     * Returns the preposition of a prepositional edge, e.g. "of" for "prep_of".
+     * @param edge the edge
+     * @return the preposition
+     */
+    public String getPreposition(int edge) {
+        return types[edge].substring(prepPrefix.length());
+    }
+}
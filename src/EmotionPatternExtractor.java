@@ -2,6 +2,7 @@ import edu.stanford.nlp.util.ArrayMap;
 
 import java.io.*;
 import java.util.*;
+import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 /**
@@ -11,6 +12,8 @@ import java.util.regex.Pattern;
  */
 public class EmotionPatternExtractor {
 
+    private static Logger log = Logger.getLogger(EmotionPatternExtractor.class.getName());
+
     /**
      * Key: pattern. Value: Map with key: isNP or orderIsReversed; value: true or false.
      */
@@ -24,6 +27,16 @@ public class EmotionPatternExtractor {
     Map<Pattern, Map<String, Boolean>> anticipationPatterns = new ArrayMap<Pattern, Map<String, Boolean>>();
     Map<String, Map<Pattern, Map<String, Boolean>>> emotionMap = new ArrayMap<String, Map<Pattern, Map<String, Boolean>>>();
 
+    /**
+     * Matcher that checks all patterns of the emotion map in a single pass over a sentence.
+     */
+    PatternMatcher patternMatcher = new PatternMatcher();
+
+    /**
+     * The blacklist of lemmas of erroneous patterns, which is read along with the pattern templates.
+     */
+    PatternBlacklist blacklist = new PatternBlacklist(Collections.<String>emptySet());
+
     /**
      * Initializes an instance of the <code>EmotionPatternExtractor</code> class. Adds the individual emotion maps
      * which will store regex patterns pertaining to Plutchik's eight basic emotions to the general emotion map.
@@ -41,7 +54,8 @@ public class EmotionPatternExtractor {
 
     /**
      * Takes a file containing emotion trigger expressions as input and returns an emotion map
-     * storing these expressions as patterns in lists pertaining to the respective emotion.
+     * storing these expressions as patterns in lists pertaining to the respective emotion. Expressions that contain a
+     * lemma of the pattern blacklist next to the file are skipped, so that they are never compiled or matched.
      *
      * @param emotionTriggersFile file path string of file containing emotion trigger expressions
      * @param outPath output path of the files
@@ -51,6 +65,9 @@ public class EmotionPatternExtractor {
     public Map<String, Map<Pattern, Map<String, Boolean>>> extractEmotions(File emotionTriggersFile, String outPath)
             throws IOException {
 
+        blacklist = PatternBlacklist.readForTemplates(emotionTriggersFile);
+        int excludedCount = 0;
+
         InputStream inputStream = new FileInputStream(emotionTriggersFile);
         BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
 
@@ -68,32 +85,59 @@ public class EmotionPatternExtractor {
             String emotionWord = lineList[0];
 
             String[] patternWords = lineList[1].split(" ");
+
+            // skip patterns that have been identified as erroneous; their passive forms contain the same lemma
+            List<String> patternLemmas = new ArrayList<String>();
+            for (String word : patternWords) {
+                if (!word.startsWith("(?!") && !word.equals("RB")) {
+                    patternLemmas.add(splitWord(word)[0]);
+                }
+            }
+            if (blacklist.excludesAny(patternLemmas)) {
+                excludedCount++;
+                line = reader.readLine();
+                continue;
+            }
+
             StringBuilder patternBuilder = new StringBuilder();
 
+            // the same pattern as a sequence of elements for the pattern matcher
+            List<PatternMatcher.Element> elements = new ArrayList<PatternMatcher.Element>();
+
             // pattern remembers the head, i.e. the verb or adjective so it can be later retrieved more easily
             for (String word : patternWords) {
                 // make 'that' optional
                 if (word.startsWith("that")) {
                     patternBuilder.append(String.format("( %s/[0-9]+)?", word));
+                    String[] wordSplit = splitWord(word);
+                    elements.add(PatternMatcher.optionalLiteral(wordSplit[0], wordSplit[1]));
                     continue;
                 }
                 // adds words without modifying that should be skipped in certain context, e.g. 'to' in 'be happy to'
                 else if (word.startsWith("(?!")) {
                     patternBuilder.append(word);
+                    elements.add(PatternMatcher.notFollowedBy(word.substring(3, word.length() - 1)));
                     continue;
                 }
                 // account for adverbs modifying adjectives; adjectives shouldn't be negated
                 else if (word.equals("RB")) {
                     patternBuilder.append("(?! not)(?! never)( [a-z]+/RB/[0-9]+)?");
+                    elements.add(PatternMatcher.notFollowedBy(" not", " never"));
+                    elements.add(PatternMatcher.optionalAdverb());
                     continue;
                 }
                 /* Stanford verb tags: VBD = past tense; VBG = present participle/gerund; VBN = past participle;
                  VBP = present tense, no 3rd person singular; VBZ = present tense, 3rd person singular
                  All tags (except past participle) are possible. */
                 else if (word.endsWith("Verb")) {
+                    elements.add(PatternMatcher.literal(splitWord(word)[0], PatternMatcher.verbTags));
                     word = word.replace("Verb", "VB[DGPZ]");
                     word = "(?! not)(?! never)" + word; // exclude negations for verbs
                 }
+                else {
+                    String[] wordSplit = splitWord(word);
+                    elements.add(PatternMatcher.literal(wordSplit[0], wordSplit[1]));
+                }
                 patternBuilder.append(" ");
                 patternBuilder.append(word);
                 patternBuilder.append("/[0-9]+");
@@ -118,13 +162,14 @@ public class EmotionPatternExtractor {
             emotion holder := subject; cause := object is reversed */
             booleanMap.put(Enums.Features.orderIsReversed.toString(), passiveExists);
             emotionMap.get(emotionWord).put(emotionPattern, booleanMap);
+            patternMatcher.addPattern(emotionPattern, elements);
 
             // creates passive pattern if a passive form exists
             if (passiveExists) {
                 // create pattern with 'that' and 'by'
                 String passiveLemmaForm = patternWords[0].replace("Verb", "VBN");
-                createPassive("that", passiveLemmaForm, emotionWord, writer, emotionMap);
-                createPassive("by", passiveLemmaForm, emotionWord, writer, emotionMap);
+                createPassive("that", passiveLemmaForm, emotionWord, writer, emotionMap, patternMatcher);
+                createPassive("by", passiveLemmaForm, emotionWord, writer, emotionMap, patternMatcher);
             }
             // read next line
             line = reader.readLine();
@@ -132,6 +177,11 @@ public class EmotionPatternExtractor {
         }
         writer.close();
 
+        if (excludedCount > 0) {
+            log.info(String.format("Skipped %d pattern templates with a lemma of the blacklist of %d lemmas",
+                    excludedCount, blacklist.size()));
+        }
+
         return emotionMap;
     }
 
@@ -143,9 +193,11 @@ public class EmotionPatternExtractor {
      * @param emotionWord: the emotion word
      * @param writer the writer that is used
      * @param emotionMap the emotion map
+     * @param patternMatcher the pattern matcher to which the passive pattern should be added
      */
     private static void createPassive(String prep, String passiveLemmaForm, String emotionWord, PrintWriter writer,
-                                      Map<String, Map<Pattern, Map<String, Boolean>>> emotionMap) {
+                                      Map<String, Map<Pattern, Map<String, Boolean>>> emotionMap,
+                                      PatternMatcher patternMatcher) {
         String pattern = String.format("(?<= )be/VB[PDGZ]/([0-9]+)(?! not)(?! never)( [a-z]+/RB/[0-9]+)? %s/[0-9]+ %s/IN/[0-9]+",
                 passiveLemmaForm, prep);
         Pattern emotionPattern = Pattern.compile(pattern);
@@ -156,5 +208,36 @@ public class EmotionPatternExtractor {
 
         emotionMap.get(emotionWord).put(emotionPattern, booleanMap);
         writer.printf("%s\t%s\t%s\n", emotionWord, pattern, prep.equals("by") ? "NP" : "S");
+
+        // be (RB) VBN prep; the negation look-ahead applies to the token following 'be'
+        List<PatternMatcher.Element> elements = new ArrayList<PatternMatcher.Element>();
+        elements.add(PatternMatcher.literal("be", PatternMatcher.verbTags));
+        elements.add(PatternMatcher.notFollowedBy(" not", " never"));
+        elements.add(PatternMatcher.optionalAdverb());
+        elements.add(PatternMatcher.literal(splitWord(passiveLemmaForm)[0], "VBN"));
+        elements.add(PatternMatcher.literal(prep, "IN"));
+        patternMatcher.addPattern(emotionPattern, elements);
+    }
+
+    /**
+     * Returns the matcher that checks all patterns that have been extracted in a single pass over a sentence.
+     * @return the pattern matcher
+     */
+    public PatternMatcher getPatternMatcher() {
+        return patternMatcher;
+    }
+
+    /**
+     * Splits a word of a pattern template into its lemma and its part-of-speech tag.
+     * @param word the word, e.g. "afraid/JJ"
+     * @return an array containing the lemma and the part-of-speech tag
+     */
+    private static String[] splitWord(String word) {
+        String[] wordSplit = word.split("/");
+        if (wordSplit.length != 2) {
+            throw new IllegalArgumentException(String.format("%s is not in the format lemma/POS.", word));
+        }
+
+        return wordSplit;
     }
 }
@@ -37,6 +37,64 @@ public class Extensions
         return result;
     }
 
+    /**
+     * Returns the k entries of a map with the highest or lowest values, sorted by their values like
+     * <code>sortByValue</code>; entries with the same value are sorted by their keys, so that the order doesn't depend
+     * on the order of the map. The entries are selected with a heap of at most k entries, so that only they are sorted.
+     * Use <code>sortByValue</code> if all entries are needed in order.
+     * @param map the map whose top entries should be selected
+     * @param k the maximum number of entries
+     * @param desc true for the highest values, false for the lowest
+     * @param <K> the key type
+     * @param <V> the value type
+     * @return the top k entries sorted by values
+     */
+    public static <K extends Comparable<? super K>, V extends Comparable<? super V>> Map<K, V> topByValue(
+            Map<K, V> map, int k, boolean desc) {
+        TopSelection<K, V> selection = new TopSelection<K, V>(k, map.size(), desc);
+        for (Map.Entry<K, V> entry : map.entrySet()) {
+            selection.offer(entry.getKey(), entry.getValue());
+        }
+
+        return selection.toMap();
+    }
+
+    /**
+     * Returns the k entries with the highest or lowest values of each group of a map, e.g. of each emotion of a map of
+     * emotion tab ngram and association score. The group of a key is the part before the separator, the key within
+     * the group the part after it. The entries of each group are sorted like those of <code>topByValue</code>.
+     * @param map the map whose top entries should be selected
+     * @param separator the separator of the group and the key within the group
+     * @param k the maximum number of entries of each group
+     * @param desc true for the highest values, false for the lowest
+     * @param <V> the value type
+     * @return a map with key: group; value: the top k entries of the group sorted by values. The groups are in the
+     * order in which they first appear in the map
+     */
+    public static <V extends Comparable<? super V>> Map<String, Map<String, V>> topByValuePerGroup(
+            Map<String, V> map, String separator, int k, boolean desc) {
+        Map<String, TopSelection<String, V>> selections = new LinkedHashMap<String, TopSelection<String, V>>();
+        for (Map.Entry<String, V> entry : map.entrySet()) {
+            String key = entry.getKey();
+            int separatorIndex = key.indexOf(separator);
+            String group = key.substring(0, separatorIndex);
+            TopSelection<String, V> selection = selections.get(group);
+            if (selection == null) {
+                selection = new TopSelection<String, V>(k, 11, desc);
+                selections.put(group, selection);
+            }
+
+            selection.offer(key.substring(separatorIndex + separator.length()), entry.getValue());
+        }
+
+        Map<String, Map<String, V>> result = new LinkedHashMap<String, Map<String, V>>();
+        for (Map.Entry<String, TopSelection<String, V>> entry : selections.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toMap());
+        }
+
+        return result;
+    }
+
     /**
      * Returns a collection as a sorted list.
      * @param c the collection that should be sorted
@@ -124,4 +182,113 @@ public class Extensions
 
         return result;
     }
+
+    /**
+     * Returns the k entries of a map with the highest or lowest aggregated values, sorted like
+     * <code>sortByAggregatedValue</code>; entries with the same aggregated value are sorted by their keys. Use
+     * <code>sortByAggregatedValue</code> if all entries are needed in order.
+     * @param map the map whose top entries should be selected
+     * @param k the maximum number of entries
+     * @param desc true for the highest aggregated values, false for the lowest
+     * @return the top k entries sorted by aggregated values
+     */
+    public static Map<String, Map<String, Double>> topByAggregatedValue(Map<String, Map<String, Double>> map, int k,
+                                                                       boolean desc) {
+        TopSelection<String, Double> selection = new TopSelection<String, Double>(k, map.size(), desc);
+        for (Map.Entry<String, Map<String, Double>> entry : map.entrySet()) {
+            double score = 0;
+            for (Map.Entry<String, Double> valueEntry : entry.getValue().entrySet()) {
+                score += valueEntry.getValue();
+            }
+
+            selection.offer(entry.getKey(), score);
+        }
+
+        Map<String, Map<String, Double>> result = new LinkedHashMap<String, Map<String, Double>>();
+        for (String key : selection.toMap().keySet()) {
+            result.put(key, map.get(key));
+        }
+
+        return result;
+    }
+
+    /**
+     * Selects the k entries with the highest or lowest values from entries that are offered one at a time. The entries
+     * are kept in a heap whose head is the worst of them, which is replaced by better entries. Of two entries with the
+     * same value, the one with the smaller key is better, so the selection doesn't depend on the order of the offers.
+     * @param <K> the key type
+     * @param <V> the value type
+     */
+    private static class TopSelection<K extends Comparable<? super K>, V extends Comparable<? super V>> {
+
+        private final int k;
+
+        private final boolean desc;
+
+        private final PriorityQueue<Candidate<K, V>> heap;
+
+        private TopSelection(int k, int expectedSize, boolean desc) {
+            this.k = k;
+            this.desc = desc;
+            this.heap = new PriorityQueue<Candidate<K, V>>(Math.max(1, Math.min(k, expectedSize)),
+                    new Comparator<Candidate<K, V>>() {
+                        @Override
+                        public int compare(Candidate<K, V> o1, Candidate<K, V> o2) {
+                            return compareCandidates(o2.key, o2.value, o1);
+                        }
+                    });
+        }
+
+        /**
+         * Compares an entry with a candidate.
+         * @param key the key of the entry
+         * @param value the value of the entry
+         * @param candidate the candidate
+         * @return a negative number if the entry is better than the candidate, a positive number if it is worse
+         */
+        private int compareCandidates(K key, V value, Candidate<K, V> candidate) {
+            int result = desc ? -value.compareTo(candidate.value) : value.compareTo(candidate.value);
+            return result != 0 ? result : key.compareTo(candidate.key);
+        }
+
+        private void offer(K key, V value) {
+            if (heap.size() < k) {
+                heap.add(new Candidate<K, V>(key, value));
+            }
+            else if (k > 0 && compareCandidates(key, value, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(new Candidate<K, V>(key, value));
+            }
+        }
+
+        /**
+         * Returns the selected entries, best first.
+         * @return the selected entries
+         */
+        private Map<K, V> toMap() {
+            List<Candidate<K, V>> candidates = new ArrayList<Candidate<K, V>>(heap.size());
+            while (!heap.isEmpty()) {
+                candidates.add(heap.poll());
+            }
+
+            Map<K, V> result = new LinkedHashMap<K, V>();
+            for (int i = candidates.size() - 1; i >= 0; i--) {
+                result.put(candidates.get(i).key, candidates.get(i).value);
+            }
+
+            return result;
+        }
+    }
+
+    private static class Candidate<K, V> {
+
+        private final K key;
+
+        private final V value;
+
+        private Candidate(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
 }
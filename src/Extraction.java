@@ -1,71 +1,76 @@
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * The class that stores information pertaining to each extraction.
+ * The class that stores information pertaining to each extraction. An extraction that is read from a results file keeps
+ * the line and the offsets of its fields; each field, including the prepositional objects and the bag-of-words of the
+ * cause as arrays, is only decoded when its getter is first called. An extraction is meant to be used by one thread at
+ * a time.
  *
  * Created by sebastian on 21/05/15.
  */
 public class Extraction {
 
     /**
-     * The id of the extraction in the format document ID slash sentence ID.
+     * The number of fields of an extraction.
      */
-    private String id;
+    private static final int fieldCount = 10;
 
-    /**
-     * The emotion of the extraction.
-     */
-    private String emotion;
+    // the indexes of the fields in the order of the results file
 
-    /**
-     * The pattern that yielded the extraction.
-     */
-    private String pattern;
+    private static final int id = 0;
 
-    /**
-     * The emotion holder.
-     */
-    private String emotionHolder;
+    private static final int emotion = 1;
 
-    /**
-     * The NP cause. Can be empty.
-     */
-    private String NPCause;
+    private static final int pattern = 2;
 
-    /**
-     * The subject of the S cause. Can be empty.
-     */
-    private String subjSCause;
+    private static final int emotionHolder = 3;
+
+    private static final int NPCause = 4;
+
+    private static final int subjSCause = 5;
+
+    private static final int predSCause = 6;
+
+    private static final int dobjSCause = 7;
+
+    private static final int pobjs = 8;
+
+    private static final int causeBoW = 9;
 
     /**
-     * The predicate of the S cause. Can be empty.
+     * The line of the results file; null if the extraction has been created from its fields.
      */
-    private String predSCause;
+    private final String line;
 
     /**
-     * The direct object of the S cause. Can be empty.
+     * The offset of each field in the line and the offset after the last field plus 1, i.e. field i ends at
+     * offsets[i + 1] - 1; null if the extraction has been created from its fields.
      */
-    private String dobjSCause;
+    private final int[] offsets;
 
     /**
-     * The prepositional objects of the S cause in the format [pobj1, pobj2, ...]. Can be empty.
+     * If the fields of the extraction are those of the line, so that its output format is the line itself.
      */
-    private String pobjsString;
+    private final boolean isVerbatim;
 
     /**
-     * The cause as a bag-of-words, tagged with parts-of-speech, in the format [word1, word2, ...].
+     * The fields of the extraction, i.e. the id in the format document ID slash sentence ID, the emotion, the pattern
+     * that yielded the extraction, the emotion holder, the NP cause, the subject, predicate, and direct object of the S
+     * cause, its prepositional objects in the format [pobj1, pobj2, ...], and the cause as a bag-of-words, tagged with
+     * parts-of-speech, in the format [word1, word2, ...]. The causes can be empty. A field is null until it is decoded.
      */
-    private String causeBoWString;
+    private final String[] fields = new String[fieldCount];
 
     /**
-     * The prepositional objects of the S cause as an array. Can be empty.
+     * The prepositional objects of the S cause as an array; null until they are decoded. Can be empty.
      */
-    private String[] pobjs;
+    private String[] pobjsArray;
 
     /**
-     * The bag-of-words of the cause as an array.
+     * The bag-of-words of the cause as an array; null until it is decoded.
      */
-    private String[] causeBoW;
+    private String[] causeBoWArray;
 
     /**
      * Creates an instance of an <code>Extraction</code>.
@@ -82,18 +87,132 @@ public class Extraction {
      */
     public Extraction(String id, String emotion, String pattern, String emotionHolder, String NPCause, String subjSCause,
                       String predSCause, String dobjSCause, String pobjs, String causeBoW) {
-        this.id = id;
-        this.emotion = emotion;
-        this.pattern = pattern;
-        this.emotionHolder = emotionHolder;
-        this.NPCause = NPCause;
-        this.subjSCause = subjSCause;
-        this.predSCause = predSCause;
-        this.dobjSCause = dobjSCause;
-        this.pobjsString = pobjs;
-        this.causeBoWString = causeBoW;
-        this.pobjs = pobjs.replaceAll("^\\[|\\]$", "").split(", ");
-        this.causeBoW = causeBoW.replaceAll("^\\[|\\]$", "").split(", ");
+        this.line = null;
+        this.offsets = null;
+        this.isVerbatim = false;
+        this.fields[Extraction.id] = id;
+        this.fields[Extraction.emotion] = emotion;
+        this.fields[Extraction.pattern] = pattern;
+        this.fields[Extraction.emotionHolder] = emotionHolder;
+        this.fields[Extraction.NPCause] = NPCause;
+        this.fields[Extraction.subjSCause] = subjSCause;
+        this.fields[Extraction.predSCause] = predSCause;
+        this.fields[Extraction.dobjSCause] = dobjSCause;
+        this.fields[Extraction.pobjs] = pobjs;
+        this.fields[Extraction.causeBoW] = causeBoW;
+    }
+
+    /**
+     * Creates an instance of an <code>Extraction</code> from a line of a results file without decoding its fields.
+     * @param line the line
+     * @throws IllegalArgumentException if the line doesn't have exactly ten fields or its last field, the cause
+     * bag-of-words, is empty
+     */
+    public Extraction(String line) {
+        this.line = line;
+        this.offsets = new int[fieldCount + 1];
+        int field = 1;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == '\t') {
+                if (field == fieldCount) {
+                    throw new IllegalArgumentException(String.format("Format error in line: %s", line));
+                }
+                offsets[field++] = i + 1;
+            }
+        }
+
+        if (field < fieldCount || offsets[fieldCount - 1] == line.length()) {
+            throw new IllegalArgumentException(String.format("Format error in line: %s", line));
+        }
+        offsets[fieldCount] = line.length() + 1;
+
+        this.isVerbatim = true;
+    }
+
+    /**
+     * Splits a line of a results file into its fields. A line is valid under the same rule as for
+     * <code>Extraction(String)</code>, so that every reader of results accepts the same lines.
+     * @param line the line
+     * @return the ten fields
+     * @throws IllegalArgumentException if the line doesn't have exactly ten fields or its last field is empty
+     */
+    public static String[] split(String line) {
+        Extraction extraction = new Extraction(line);
+        String[] fields = new String[fieldCount];
+        for (int field = 0; field < fieldCount; field++) {
+            fields[field] = line.substring(extraction.offsets[field], extraction.offsets[field + 1] - 1);
+        }
+
+        return fields;
+    }
+
+    /**
+     * Creates a copy of an extraction with another pattern, e.g. a normalized one. The copy shares the line.
+     * @param extraction the extraction
+     * @param pattern the pattern
+     */
+    private Extraction(Extraction extraction, String pattern) {
+        this.line = extraction.line;
+        this.offsets = extraction.offsets;
+        System.arraycopy(extraction.fields, 0, this.fields, 0, fieldCount);
+        this.fields[Extraction.pattern] = pattern;
+        this.isVerbatim = false;
+    }
+
+    /**
+     * Returns a copy of the extraction with another pattern, e.g. a normalized one.
+     * @param pattern the pattern
+     * @return the copy
+     */
+    public Extraction withPattern(String pattern) {
+        return new Extraction(this, pattern);
+    }
+
+    /**
+     * Returns a field, decoding it from the line if that hasn't been done yet.
+     * @param field the index of the field
+     * @return the field
+     */
+    private String getField(int field) {
+        if (fields[field] == null) {
+            fields[field] = line.substring(offsets[field], offsets[field + 1] - 1);
+        }
+
+        return fields[field];
+    }
+
+    /**
+     * Splits a list field in the format [element1, element2, ...] into its elements, as
+     * <code>list.replaceAll("^\\[|\\]$", "").split(", ")</code> would, but without regular expressions.
+     * @param list the list field
+     * @return the elements
+     */
+    private static String[] splitList(String list) {
+        int start = list.startsWith("[") ? 1 : 0;
+        int end = list.length() > start && list.endsWith("]") ? list.length() - 1 : list.length();
+        String elements = list.substring(start, end);
+
+        List<String> parts = new ArrayList<String>();
+        int partStart = 0;
+        int separator = elements.indexOf(", ");
+        while (separator >= 0) {
+            parts.add(elements.substring(partStart, separator));
+            partStart = separator + 2;
+            separator = elements.indexOf(", ", partStart);
+        }
+
+        if (parts.isEmpty()) {
+            return new String[] { elements };
+        }
+        parts.add(elements.substring(partStart));
+
+        // trailing empty elements are removed
+        int size = parts.size();
+        while (size > 0 && parts.get(size - 1).length() == 0) {
+            size--;
+        }
+
+        return parts.subList(0, size).toArray(new String[size]);
     }
 
     /**
@@ -102,9 +221,13 @@ public class Extraction {
      */
     @Override
     public String toString() {
-        return String.format("%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\n", this.id, this.emotion, this.pattern,
-                this.emotionHolder, this.NPCause, this.subjSCause, this.predSCause, this.dobjSCause, this.pobjsString,
-                this.causeBoWString);
+        if (isVerbatim) {
+            return line.substring(0, offsets[fieldCount] - 1) + "\n";
+        }
+
+        return String.format("%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\n", getId(), getEmotion(), getPattern(),
+                getEmotionHolder(), getNPCause(), getSubjSCause(), getPredSCause(), getDobjSCause(), getPobjsString(),
+                getCauseBoWString());
     }
 
     /**
@@ -122,11 +245,11 @@ public class Extraction {
         Extraction other = (Extraction)object;
 
         // ids can be different
-        return this.emotion.equals(other.emotion) && this.pattern.equals(other.pattern) &&
-                this.emotionHolder.equals(other.emotionHolder) && this.NPCause.equals(other.NPCause) &&
-                this.subjSCause.equals(other.subjSCause) && this.predSCause.equals(other.predSCause) &&
-                this.dobjSCause.equals(other.subjSCause) && this.pobjsString.equals(other.pobjsString) &&
-                this.causeBoWString.equals(other.causeBoWString);
+        return this.getEmotion().equals(other.getEmotion()) && this.getPattern().equals(other.getPattern()) &&
+                this.getEmotionHolder().equals(other.getEmotionHolder()) && this.getNPCause().equals(other.getNPCause()) &&
+                this.getSubjSCause().equals(other.getSubjSCause()) && this.getPredSCause().equals(other.getPredSCause()) &&
+                this.getDobjSCause().equals(other.getSubjSCause()) && this.getPobjsString().equals(other.getPobjsString()) &&
+                this.getCauseBoWString().equals(other.getCauseBoWString());
     }
 
     /**
@@ -135,63 +258,82 @@ public class Extraction {
      */
     @Override
     public int hashCode() {
-        int result = emotion.hashCode();
-        result = 31 * result + pattern.hashCode();
-        result = 31 * result + emotionHolder.hashCode();
-        result = 31 * result + NPCause.hashCode();
-        result = 31 * result + subjSCause.hashCode();
-        result = 31 * result + predSCause.hashCode();
-        result = 31 * result + dobjSCause.hashCode();
-        result = 31 * result + pobjsString.hashCode();
-        result = 31 * result + causeBoWString.hashCode();
+        int result = getEmotion().hashCode();
+        result = 31 * result + getPattern().hashCode();
+        result = 31 * result + getEmotionHolder().hashCode();
+        result = 31 * result + getNPCause().hashCode();
+        result = 31 * result + getSubjSCause().hashCode();
+        result = 31 * result + getPredSCause().hashCode();
+        result = 31 * result + getDobjSCause().hashCode();
+        result = 31 * result + getPobjsString().hashCode();
+        result = 31 * result + getCauseBoWString().hashCode();
         return result;
     }
 
+    /**
+     * Returns the key by which duplicate extractions are identified, i.e. all fields except for the id, separated by
+     * tabs.
+     * @return the key
+     */
+    public String getKey() {
+        return getEmotion() + "\t" + getPattern() + "\t" + getEmotionHolder() + "\t" + getNPCause() + "\t" +
+                getSubjSCause() + "\t" + getPredSCause() + "\t" + getDobjSCause() + "\t" + getPobjsString() + "\t" +
+                getCauseBoWString();
+    }
+
     public String getId() {
-        return id;
+        return getField(id);
     }
 
     public String getEmotion() {
-        return emotion;
+        return getField(emotion);
     }
 
     public String getPattern() {
-        return pattern;
+        return getField(pattern);
     }
 
     public String getEmotionHolder() {
-        return emotionHolder;
+        return getField(emotionHolder);
     }
 
     public String getNPCause() {
-        return NPCause;
+        return getField(NPCause);
     }
 
     public String getSubjSCause() {
-        return subjSCause;
+        return getField(subjSCause);
     }
 
     public String getPredSCause() {
-        return predSCause;
+        return getField(predSCause);
     }
 
     public String getDobjSCause() {
-        return dobjSCause;
+        return getField(dobjSCause);
     }
 
     public String getPobjsString() {
-        return pobjsString;
+        return getField(pobjs);
     }
 
     public String getCauseBoWString() {
-        return causeBoWString;
+        return getField(causeBoW);
     }
 
     public String[] getPobjs() {
-        return pobjs;
+        if (pobjsArray == null) {
+            pobjsArray = splitList(getPobjsString());
+        }
+
+        return pobjsArray;
     }
 
     public String[] getCauseBoW() {
-        return causeBoW;
+        if (causeBoWArray == null) {
+            causeBoWArray = splitList(getCauseBoWString());
+        }
+
+        return causeBoWArray;
     }
 }
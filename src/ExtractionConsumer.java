@@ -0,0 +1,20 @@
+import java.io.IOException;
+
+/**
+ * A consumer of the extractions of a single scan over a results file, e.g. to count frequencies or to write statistics.
+ * Several consumers can subscribe to the same scan, so that the extractions are read once and never held in memory.
+ */
+public interface ExtractionConsumer {
+
+    /**
+     * Consumes an extraction of the scan.
+     * @param extraction the extraction
+     */
+    void accept(Extraction extraction);
+
+    /**
+     * Is called once the scan has read all extractions.
+     * @throws IOException if the results of the consumer couldn't be written
+     */
+    void finish() throws IOException;
+}
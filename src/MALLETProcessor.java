@@ -280,11 +280,11 @@ public class MALLETProcessor {
 
     /**
      * Generates pseudo-dcouments for the top 200 bigrams of the NP and S cause (predicate + object) to be used for
-     * topic modelling.
+     * topic modelling. The extractions are streamed in a single pass and the bag-of-words of each cause that matches a
+     * bigram of its emotion is written to the file of the emotion.
      * @throws IOException
      */
     private static void generateEmotionFiles() throws IOException {
-        Map<Enums.Emotions, List<Extraction>> emotionsExtractionMap = orderExtractionsByEmotions(ResultsReader.readResults(resultsFilePath, false));
         Map<String, String> bigramEmotionMap = AnnotationTaskGenerator.getBigramsForAnnotation(pmiDir, 200);
 
         // clean up MALLET input files
@@ -294,6 +294,7 @@ public class MALLETProcessor {
             file.delete();
         }
 
+        PseudoDocumentWriter documentWriter = new PseudoDocumentWriter();
         int count = 0;
         for (Map.Entry<String, String> entry : bigramEmotionMap.entrySet()) {
 
@@ -301,62 +302,115 @@ public class MALLETProcessor {
             String bigram = entry.getKey().split("\t")[0];
             String ngramType = entry.getKey().split("\t")[1];
             System.out.printf("#%d\t%s\t%s\t%s\n", ++count, emotion, ngramType, bigram);
+            documentWriter.addBigram(Enums.Emotions.valueOf(emotion), bigram, ngramType);
+        }
 
-            // retrieve the bag-of-words of the causes by matching against the causes
-            boolean extractionFound = false;
-            Pattern pattern = Pattern.compile(bigram.replace("$", "\\$").replace("NUM", "NUMBER").replace(" ", ".*").toLowerCase() + "([^a-z]|$)");
+        ResultsReader.scan(ResultsReader.streamResults(resultsFilePath, false), documentWriter);
+    }
+
+    /**
+     * Writes the bag-of-words of the causes that match the bigrams of their emotion to the MALLET input file of the
+     * emotion, i.e. one pseudo-document per line.
+     */
+    private static class PseudoDocumentWriter implements ExtractionConsumer {
+
+        /**
+         * Key: emotion. Value: the bigrams of the emotion.
+         */
+        private Map<Enums.Emotions, List<String>> bigrams = new HashMap<Enums.Emotions, List<String>>();
+
+        /**
+         * Key: emotion. Value: the ngram type of each bigram of the emotion.
+         */
+        private Map<Enums.Emotions, List<Enums.NgramSource>> ngramTypes = new HashMap<Enums.Emotions, List<Enums.NgramSource>>();
+
+        /**
+         * Key: emotion. Value: the pattern matching the causes of each bigram of the emotion.
+         */
+        private Map<Enums.Emotions, List<Pattern>> patterns = new HashMap<Enums.Emotions, List<Pattern>>();
+
+        /**
+         * Key: emotion. Value: if an extraction has been found for each bigram of the emotion.
+         */
+        private Map<Enums.Emotions, List<Boolean>> found = new HashMap<Enums.Emotions, List<Boolean>>();
+
+        /**
+         * Key: emotion. Value: the writer of the MALLET input file of the emotion.
+         */
+        private Map<Enums.Emotions, PrintWriter> writers = new HashMap<Enums.Emotions, PrintWriter>();
+
+        private PseudoDocumentWriter() {
+            for (Enums.Emotions emotion : Enums.Emotions.values()) {
+                bigrams.put(emotion, new ArrayList<String>());
+                ngramTypes.put(emotion, new ArrayList<Enums.NgramSource>());
+                patterns.put(emotion, new ArrayList<Pattern>());
+                found.put(emotion, new ArrayList<Boolean>());
+            }
+        }
 
-            PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(Utils.combine(malletInputDir, emotion + ".txt"), true)));
+        /**
+         * Adds a bigram whose causes should be retrieved.
+         * @param emotion the emotion of the bigram
+         * @param bigram the bigram
+         * @param ngramType the ngram type of the bigram; either np_cause or s_cause_pred_dobj
+         * @throws IOException if the MALLET input file of the emotion couldn't be opened
+         */
+        private void addBigram(Enums.Emotions emotion, String bigram, String ngramType) throws IOException {
+            Enums.NgramSource ngramSource = Enums.NgramSource.valueOf(ngramType);
+            if (!ngramSource.equals(Enums.NgramSource.np_cause) && !ngramSource.equals(Enums.NgramSource.s_cause_pred_dobj)) {
+                throw new NotImplementedException();
+            }
 
-            for (Extraction extraction : emotionsExtractionMap.get(Enums.Emotions.valueOf(emotion))) {
+            // retrieve the bag-of-words of the causes by matching against the causes
+            bigrams.get(emotion).add(bigram);
+            ngramTypes.get(emotion).add(ngramSource);
+            patterns.get(emotion).add(Pattern.compile(bigram.replace("$", "\\$").replace("NUM", "NUMBER").replace(" ", ".*").toLowerCase() + "([^a-z]|$)"));
+            found.get(emotion).add(false);
+            if (!writers.containsKey(emotion)) {
+                writers.put(emotion, new PrintWriter(new BufferedWriter(new FileWriter(Utils.combine(malletInputDir, emotion + ".txt"), true))));
+            }
+        }
 
+        @Override
+        public void accept(Extraction extraction) {
+            Enums.Emotions emotion = Enums.Emotions.valueOf(extraction.getEmotion());
+            List<Pattern> emotionPatterns = patterns.get(emotion);
+            for (int i = 0; i < emotionPatterns.size(); i++) {
                 String cause;
-                if (ngramType.equals(Enums.NgramSource.np_cause.toString())) {
+                if (ngramTypes.get(emotion).get(i).equals(Enums.NgramSource.np_cause)) {
                     cause = extraction.getNPCause();
                 }
-                else if (ngramType.equals(Enums.NgramSource.s_cause_pred_dobj.toString())) {
-                    cause = extraction.getPredSCause() + " " + extraction.getDobjSCause();
-                }
                 else {
-                    throw new NotImplementedException();
+                    cause = extraction.getPredSCause() + " " + extraction.getDobjSCause();
                 }
 
-                Matcher m = pattern.matcher(cause);
+                Matcher m = emotionPatterns.get(i).matcher(cause);
 
                 if (m.find()) {
-                    extractionFound = true;
+                    found.get(emotion).set(i, true);
                     String causeBoW = Extensions.join(extraction.getCauseBoW(), " ").replaceAll("(/([A-Z]|\\$)+|lrb-/-lrb|rrb-/-rrb|-lrb-/-LRB-|-rrb-/-RRB-)", "");
                     // String emotionHolder = extraction.getEmotionHolder().replaceAll("[:_]", " ").replaceAll("/[A-Z]");
                     // System.out.print(extraction.toString());
-                    writer.printf("%s\n", causeBoW);
+                    writers.get(emotion).printf("%s\n", causeBoW);
                 }
             }
-
-            if (!extractionFound) {
-                System.out.println("NO EXTRACTION WAS FOUND!!!");
-                System.out.println(pattern);
-            }
-
-            writer.close();
         }
-    }
 
-    /**
-     * Creates a map with the emotion as key and the extractions of that emotion as value.
-     * @param extractions a list of all extractions
-     * @return the created map
-     */
-    private static Map<Enums.Emotions, List<Extraction>> orderExtractionsByEmotions(List<Extraction> extractions) {
-        Map<Enums.Emotions, List<Extraction>> emotionsExtractionMap = new HashMap<Enums.Emotions, List<Extraction>>();
+        @Override
+        public void finish() throws IOException {
+            for (PrintWriter writer : writers.values()) {
+                writer.close();
+            }
 
-        for (Enums.Emotions emotion : Enums.Emotions.values()) {
-            emotionsExtractionMap.put(emotion, new ArrayList<Extraction>());
-        }
-        for (Extraction extraction : extractions) {
-            emotionsExtractionMap.get(Enums.Emotions.valueOf(extraction.getEmotion())).add(extraction);
+            for (Enums.Emotions emotion : Enums.Emotions.values()) {
+                for (int i = 0; i < bigrams.get(emotion).size(); i++) {
+                    if (!found.get(emotion).get(i)) {
+                        System.out.println("NO EXTRACTION WAS FOUND!!!");
+                        System.out.println(patterns.get(emotion).get(i));
+                    }
+                }
+            }
         }
-
-        return emotionsExtractionMap;
     }
 
     // bin/mallet train-topics --input ../sentiment_analysis/mallet/output/topic-input.mallet --num-topics 20 --output-state ../sentiment_analysis/mallet/output/topic-state.gz --output-doc-topics ../sentiment_analysis/mallet/output/topics.txt --output-topic-keys ../sentiment_analysis/mallet/output/topic-keys.txt
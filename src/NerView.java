@@ -0,0 +1,79 @@
+import edu.jhu.agiga.AgigaSentence;
+import edu.jhu.agiga.AgigaToken;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A view of the named entity tags of the tokens of a document. The tags of a sentence are interned when they are first
+ * needed and kept afterwards, so that the extraction and the replacement of coreferents in other sentences share them.
+ * An instance belongs to a single document and is not thread-safe.
+ */
+public class NerView {
+
+    /**
+     * The named entity tags that are added to emotion holders and causes; all other tags are mapped to other.
+     */
+    public enum Tag {
+        NUMBER, PERSON, LOCATION, ORGANIZATION, other
+    }
+
+    /**
+     * Key: named entity tag. Value: its tag.
+     */
+    private static final Map<String, Tag> tagMap = new HashMap<String, Tag>();
+
+    static {
+        for (Tag tag : Tag.values()) {
+            if (tag != Tag.other) {
+                tagMap.put(tag.toString(), tag);
+            }
+        }
+    }
+
+    private final List<AgigaSentence> sentences;
+
+    /**
+     * The tags of each sentence; null if they haven't been needed yet.
+     */
+    private final Tag[][] tags;
+
+    /**
+     * Creates a view of the named entity tags of a document.
+     * @param sentences the sentences of the document
+     */
+    public NerView(List<AgigaSentence> sentences) {
+        this.sentences = sentences;
+        this.tags = new Tag[sentences.size()][];
+    }
+
+    /**
+     * Returns the named entity tags of the tokens of a sentence.
+     * @param sentIdx the index of the sentence
+     * @return the tag of each token
+     */
+    public Tag[] getTags(int sentIdx) {
+        if (tags[sentIdx] == null) {
+            List<AgigaToken> tokens = sentences.get(sentIdx).getTokens();
+            Tag[] sentTags = new Tag[tokens.size()];
+            for (int i = 0; i < sentTags.length; i++) {
+                Tag tag = tagMap.get(tokens.get(i).getNerTag());
+                sentTags[i] = tag == null ? Tag.other : tag;
+            }
+            tags[sentIdx] = sentTags;
+        }
+
+        return tags[sentIdx];
+    }
+
+    /**
+     * Returns the named entity tag of a token.
+     * @param sentIdx the index of the sentence
+     * @param tokIdx the index of the token in the sentence
+     * @return the tag
+     */
+    public Tag getTag(int sentIdx, int tokIdx) {
+        return getTags(sentIdx)[tokIdx];
+    }
+}
@@ -0,0 +1,652 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Counts the emotions of extractions and the unigrams and bigrams of each ngram source along with the emotions they
+ * co-occur with. Terms are interned in a dictionary that assigns each one a dense id, so that a token is only hashed
+ * once. Unigram counts are kept in int arrays indexed by term id, one column per emotion; bigram counts in the same
+ * kind of columns, indexed by the row that an open-addressing map assigns the packed ids of their terms. Stop words are
+ * a bit set over term ids. Once counting is done, the counts of each ngram source are frozen into sparse contingency
+ * tables for scoring. A counter is meant to be used by one thread at a time; extractions can be counted in parallel by
+ * counting consecutive chunks with separate counters and merging them in order.
+ */
+public class NgramCounter {
+
+    /**
+     * The dictionary of the terms, i.e. the tokens as they appear in the extractions and in lower case.
+     */
+    private final TermDictionary terms;
+
+    /**
+     * Key: emotion. Value: its id, i.e. its column.
+     */
+    private final Map<String, Integer> emotionIds = new HashMap<String, Integer>();
+
+    private final List<String> emotions = new ArrayList<String>();
+
+    /**
+     * The number of extractions of each emotion, indexed by emotion id.
+     */
+    private int[] emotionFreqs = new int[Enums.Emotions.values().length];
+
+    /**
+     * The number of extractions.
+     */
+    private int extractionCount = 0;
+
+    /**
+     * The number of ngrams of each ngram source that have been counted, indexed by ordinal. The number of unigrams for
+     * the sources with unigrams, the number of bigrams otherwise.
+     */
+    private final long[] tokenCounts = new long[Enums.NgramSource.values().length];
+
+    /**
+     * The unigram counts of each ngram source, indexed by ordinal; the rows are term ids.
+     */
+    private final CountColumns[] unigramCounts = new CountColumns[Enums.NgramSource.values().length];
+
+    /**
+     * The bigram counts of each ngram source, indexed by ordinal; the rows are assigned by the bigram index.
+     */
+    private final CountColumns[] bigramCounts = new CountColumns[Enums.NgramSource.values().length];
+
+    /**
+     * The index of the bigrams of each ngram source, which maps their packed term ids to their rows.
+     */
+    private final PairIndex[] bigramIndexes = new PairIndex[Enums.NgramSource.values().length];
+
+    /**
+     * The contingency tables of each ngram source and ngram, indexed by ordinals; null until they are requested and
+     * once more extractions have been counted.
+     */
+    private final ContingencyTable[][] tables =
+            new ContingencyTable[Enums.NgramSource.values().length][Enums.Ngram.values().length];
+
+    /**
+     * Creates a counter.
+     * @param stopWords the stop words, which aren't counted
+     */
+    public NgramCounter(Set<String> stopWords) {
+        this.terms = new TermDictionary(stopWords);
+        for (int i = 0; i < Enums.NgramSource.values().length; i++) {
+            unigramCounts[i] = new CountColumns();
+            bigramCounts[i] = new CountColumns();
+            bigramIndexes[i] = new PairIndex();
+        }
+    }
+
+    /**
+     * Counts the emotion, unigrams, and bigrams of an extraction. The NP cause, the S cause, and the emotion holder
+     * yield unigrams and bigrams; the S cause additionally yields bigrams of each token of its subject and its
+     * predicate as well as of its predicate and the last suitable token of its direct object.
+     * @param extraction the extraction
+     */
+    public void add(Extraction extraction) {
+
+        clearTables();
+
+        int emotion = getEmotionId(extraction.getEmotion());
+        extractionCount++;
+        emotionFreqs[emotion]++;
+
+        String[][] causes = { extraction.getNPCause().split(" "), (extraction.getSubjSCause() + " " +
+                extraction.getPredSCause() + " " + extraction.getDobjSCause()).split(" "),
+                extraction.getEmotionHolder().split(" ") };
+        Enums.NgramSource[] ngramSources = new Enums.NgramSource[] { Enums.NgramSource.np_cause,
+                Enums.NgramSource.s_cause, Enums.NgramSource.emotion_holder };
+        for (int j = 0; j < ngramSources.length; j++) {
+            int source = ngramSources[j].ordinal();
+            String[] tokens = causes[j];
+            for (int i = 0; i < tokens.length; i++) {
+
+                // unigrams are checked for stop words in lower case
+                if (tokens[i].equals("")) {
+                    continue;
+                }
+                int unigram = terms.getLowerCaseId(terms.getId(tokens[i]));
+                if (terms.isStopWord(unigram)) {
+                    continue;
+                }
+
+                tokenCounts[source]++;
+                unigramCounts[source].increment(unigram, emotion);
+
+                // the second token of a bigram is checked for stop words as it appears
+                if (i + 1 < tokens.length && !tokens[i + 1].equals("")) {
+                    int next = terms.getId(tokens[i + 1]);
+                    if (!terms.isStopWord(next)) {
+                        int row = bigramIndexes[source].getRow(unigram, terms.getLowerCaseId(next));
+                        bigramCounts[source].increment(row, emotion);
+                    }
+                }
+            }
+        }
+
+        // S cause subj + pred
+        int predSCause = terms.getLowerCaseId(terms.getId(extraction.getPredSCause()));
+        int source = Enums.NgramSource.s_cause_subj_pred.ordinal();
+        for (String token : extraction.getSubjSCause().split(" ")) {
+
+            // don't consider empty tokens or stop words
+            if (token.equals("")) {
+                continue;
+            }
+            int id = terms.getId(token);
+            if (terms.isStopWord(id)) {
+                continue;
+            }
+
+            int row = bigramIndexes[source].getRow(terms.getLowerCaseId(id), predSCause);
+            bigramCounts[source].increment(row, emotion);
+            tokenCounts[source]++;
+        }
+
+        // S cause pred + dobj; the last token that isn't a stop word or a named entity
+        String[] dobjSCause = extraction.getDobjSCause().split(" ");
+        source = Enums.NgramSource.s_cause_pred_dobj.ordinal();
+        for (int i = dobjSCause.length - 1; i > 0; i--) {
+            String token = dobjSCause[i];
+            if (token.equals("") || token.contains(":")) {
+                continue;
+            }
+            int id = terms.getId(token);
+            if (terms.isStopWord(id)) {
+                continue;
+            }
+
+            int row = bigramIndexes[source].getRow(predSCause, terms.getLowerCaseId(id));
+            bigramCounts[source].increment(row, emotion);
+            tokenCounts[source]++;
+            break;
+        }
+    }
+
+    /**
+     * Adds the counts of another counter that counted the extractions following the ones counted by this counter. Terms,
+     * emotions, and bigrams that are new to this counter are added in the order in which the other counter saw them, so
+     * the ids and rows are the same as if this counter had counted all extractions itself and so are the contingency
+     * tables.
+     * @param other the other counter, which must use the same stop words
+     */
+    public void merge(NgramCounter other) {
+
+        clearTables();
+
+        int[] termIds = new int[other.terms.size()];
+        for (int id = 0; id < termIds.length; id++) {
+            termIds[id] = terms.getId(other.terms.getTerm(id));
+        }
+
+        int[] emotionIds = new int[other.emotions.size()];
+        for (int emotion = 0; emotion < emotionIds.length; emotion++) {
+            emotionIds[emotion] = getEmotionId(other.emotions.get(emotion));
+            emotionFreqs[emotionIds[emotion]] += other.emotionFreqs[emotion];
+        }
+        extractionCount += other.extractionCount;
+
+        for (int source = 0; source < tokenCounts.length; source++) {
+            tokenCounts[source] += other.tokenCounts[source];
+            unigramCounts[source].add(other.unigramCounts[source], termIds, emotionIds);
+
+            PairIndex otherIndex = other.bigramIndexes[source];
+            int[] rows = new int[otherIndex.size()];
+            for (int row = 0; row < rows.length; row++) {
+                long key = otherIndex.getKey(row);
+                rows[row] = bigramIndexes[source].getRow(termIds[(int)(key >>> 32)], termIds[(int)key]);
+            }
+            bigramCounts[source].add(other.bigramCounts[source], rows, emotionIds);
+        }
+    }
+
+    /**
+     * Counts extractions in parallel. The extractions are split into consecutive chunks that are counted by separate
+     * counters, which are merged in a reduction tree: neighbouring counters of the same number of chunks are merged as
+     * soon as both exist, the earlier one absorbing the later one. The result is the same as if the extractions had
+     * been counted one after another by a single counter.
+     * @param extractions the extractions, e.g. as streamed by <code>ResultsReader.streamResults</code>
+     * @param stopWords the stop words, which aren't counted
+     * @param threads the number of threads
+     * @param chunkSize the number of extractions of a chunk
+     * @return the counter of all extractions
+     * @throws IOException if the extractions couldn't be counted
+     */
+    public static NgramCounter count(Iterable<Extraction> extractions, final Set<String> stopWords, int threads,
+                                     int chunkSize) throws IOException {
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        // bounds the chunks that have been read but not counted yet
+        final Semaphore pendingChunks = new Semaphore(2 * threads);
+
+        // the counters of consecutive runs of chunks and the number of chunks of each run; merges are submitted after
+        // their counters, so the counters are computed first
+        List<Future<NgramCounter>> counters = new ArrayList<Future<NgramCounter>>();
+        List<Integer> chunkCounts = new ArrayList<Integer>();
+        try {
+            Iterator<Extraction> iterator = extractions.iterator();
+            while (iterator.hasNext()) {
+                final List<Extraction> chunk = new ArrayList<Extraction>(chunkSize);
+                while (iterator.hasNext() && chunk.size() < chunkSize) {
+                    chunk.add(iterator.next());
+                }
+
+                pendingChunks.acquire();
+                counters.add(executor.submit(new Callable<NgramCounter>() {
+                    @Override
+                    public NgramCounter call() {
+                        try {
+                            NgramCounter counter = new NgramCounter(stopWords);
+                            for (Extraction extraction : chunk) {
+                                counter.add(extraction);
+                            }
+
+                            return counter;
+                        }
+                        finally {
+                            pendingChunks.release();
+                        }
+                    }
+                }));
+                chunkCounts.add(1);
+
+                int last = counters.size() - 1;
+                while (last > 0 && chunkCounts.get(last).equals(chunkCounts.get(last - 1))) {
+                    mergeLast(executor, counters, chunkCounts);
+                    last--;
+                }
+            }
+
+            while (counters.size() > 1) {
+                mergeLast(executor, counters, chunkCounts);
+            }
+
+            return counters.isEmpty() ? new NgramCounter(stopWords) : counters.get(0).get();
+        }
+        catch (InterruptedException ex) {
+            throw new IOException("Interrupted while counting extractions.", ex);
+        }
+        catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            while (cause instanceof ExecutionException) {
+                cause = cause.getCause();
+            }
+            throw new IOException("Error while counting extractions.", cause);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Replaces the last two counters with a counter that merges them.
+     * @param executor the executor that merges the counters
+     * @param counters the counters of consecutive runs of chunks
+     * @param chunkCounts the number of chunks of each run
+     */
+    private static void mergeLast(ExecutorService executor, List<Future<NgramCounter>> counters,
+                                  List<Integer> chunkCounts) {
+        final Future<NgramCounter> right = counters.remove(counters.size() - 1);
+        final Future<NgramCounter> left = counters.remove(counters.size() - 1);
+        int chunkCount = chunkCounts.remove(chunkCounts.size() - 1) + chunkCounts.remove(chunkCounts.size() - 1);
+
+        counters.add(executor.submit(new Callable<NgramCounter>() {
+            @Override
+            public NgramCounter call() throws InterruptedException, ExecutionException {
+                NgramCounter counter = left.get();
+                counter.merge(right.get());
+                return counter;
+            }
+        }));
+        chunkCounts.add(chunkCount);
+    }
+
+    private void clearTables() {
+        for (ContingencyTable[] sourceTables : tables) {
+            Arrays.fill(sourceTables, null);
+        }
+    }
+
+    /**
+     * Returns the id of an emotion and adds a column for it if it hasn't been seen yet.
+     * @param emotion the emotion
+     * @return the id
+     */
+    private int getEmotionId(String emotion) {
+        Integer id = emotionIds.get(emotion);
+        if (id == null) {
+            id = emotions.size();
+            emotionIds.put(emotion, id);
+            emotions.add(emotion);
+            if (id == emotionFreqs.length) {
+                emotionFreqs = Arrays.copyOf(emotionFreqs, 2 * id);
+            }
+        }
+
+        return id;
+    }
+
+    /**
+     * Returns the emotions in the order of their ids.
+     * @return the emotions
+     */
+    public List<String> getEmotions() {
+        return emotions;
+    }
+
+    public int getEmotionFreq(int emotion) {
+        return emotionFreqs[emotion];
+    }
+
+    public int getExtractionCount() {
+        return extractionCount;
+    }
+
+    /**
+     * Returns the number of ngrams of an ngram source that have been counted.
+     * @param ngramSource the ngram source
+     * @return the number of unigrams for the sources with unigrams, the number of bigrams otherwise
+     */
+    public long getTokenCount(Enums.NgramSource ngramSource) {
+        return tokenCounts[ngramSource.ordinal()];
+    }
+
+    /**
+     * Returns the contingency table of the emotions and the ngrams of an ngram source. The table is created once and
+     * then reused until more extractions are counted.
+     * @param ngramSource the ngram source
+     * @param ngramEnum unigram or bigram
+     * @return the contingency table
+     */
+    public synchronized ContingencyTable getContingencyTable(Enums.NgramSource ngramSource, Enums.Ngram ngramEnum) {
+        ContingencyTable table = tables[ngramSource.ordinal()][ngramEnum.ordinal()];
+        if (table == null) {
+            table = createContingencyTable(ngramSource, ngramEnum);
+            tables[ngramSource.ordinal()][ngramEnum.ordinal()] = table;
+        }
+
+        return table;
+    }
+
+    /**
+     * Collects the non-zero cells of the counts of an ngram source.
+     * @param ngramSource the ngram source
+     * @param ngramEnum unigram or bigram
+     * @return the contingency table
+     */
+    private ContingencyTable createContingencyTable(Enums.NgramSource ngramSource, Enums.Ngram ngramEnum) {
+        boolean isUnigram = ngramEnum.equals(Enums.Ngram.unigram);
+        CountColumns counts = isUnigram ? unigramCounts[ngramSource.ordinal()] : bigramCounts[ngramSource.ordinal()];
+        BitSet rows = counts.rows;
+        int size = rows.cardinality();
+        int emotionCount = emotions.size();
+
+        String[] ngrams = new String[size];
+        int[] ngramFreqs = new int[size];
+        int[] cellStarts = new int[size + 1];
+        int[] cellEmotions = new int[size * Math.min(emotionCount, 2)];
+        int[] cellFreqs = new int[cellEmotions.length];
+        int cellCount = 0;
+        int ngram = 0;
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            if (isUnigram) {
+                ngrams[ngram] = terms.getTerm(row);
+            }
+            else {
+                long key = bigramIndexes[ngramSource.ordinal()].getKey(row);
+                ngrams[ngram] = terms.getTerm((int)(key >>> 32)) + " " + terms.getTerm((int)key);
+            }
+
+            cellStarts[ngram] = cellCount;
+            for (int emotion = 0; emotion < emotionCount; emotion++) {
+                int freq = counts.get(row, emotion);
+                if (freq != 0) {
+                    if (cellCount == cellFreqs.length) {
+                        cellEmotions = Arrays.copyOf(cellEmotions, 2 * cellCount);
+                        cellFreqs = Arrays.copyOf(cellFreqs, 2 * cellCount);
+                    }
+                    cellEmotions[cellCount] = emotion;
+                    cellFreqs[cellCount] = freq;
+                    cellCount++;
+                    ngramFreqs[ngram] += freq;
+                }
+            }
+            ngram++;
+        }
+        cellStarts[size] = cellCount;
+
+        return new ContingencyTable(new ArrayList<String>(emotions), Arrays.copyOf(emotionFreqs, emotionCount),
+                extractionCount, tokenCounts[ngramSource.ordinal()], ngrams, ngramFreqs, cellStarts,
+                Arrays.copyOf(cellEmotions, cellCount), Arrays.copyOf(cellFreqs, cellCount));
+    }
+
+    /**
+     * Convert ngram to lower if it isn't a named entity. Shorten named entity tags.
+     * @param ngram the ngram to be converted to lower
+     * @return the ngram to lower
+     */
+    private static String ngramToLowerCase(String ngram) {
+        if (ngram.contains("/")) {
+            return ngram.replace("/PERSON", "/PERS").replace("/ORGANIZATION", "/ORG").replace("/LOCATION", "/LOC");
+        }
+        else if (ngram.equals("NUMBER")) {
+            return "NUM";
+        }
+        else {
+            return ngram.toLowerCase();
+        }
+    }
+
+    /**
+     * A dictionary that assigns each term a dense id and stores for each term if it is a stop word and the id of its
+     * lower case form, which is only computed once.
+     */
+    private static class TermDictionary {
+
+        private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+        private final List<String> terms = new ArrayList<String>();
+
+        private final Set<String> stopWords;
+
+        private final BitSet stopTerms = new BitSet();
+
+        /**
+         * The id of the lower case form of each term; -1 if it hasn't been computed yet.
+         */
+        private int[] lowerCaseIds = new int[1024];
+
+        private TermDictionary(Set<String> stopWords) {
+            this.stopWords = stopWords;
+        }
+
+        /**
+         * Returns the id of a term and adds it if it isn't in the dictionary yet.
+         * @param term the term
+         * @return the id
+         */
+        private int getId(String term) {
+            Integer id = ids.get(term);
+            if (id == null) {
+                id = terms.size();
+                ids.put(term, id);
+                terms.add(term);
+                if (stopWords.contains(term)) {
+                    stopTerms.set(id);
+                }
+                if (id == lowerCaseIds.length) {
+                    lowerCaseIds = Arrays.copyOf(lowerCaseIds, 2 * id);
+                }
+                lowerCaseIds[id] = -1;
+            }
+
+            return id;
+        }
+
+        /**
+         * Returns the id of the lower case form of a term, see <code>ngramToLowerCase</code>.
+         * @param id the id of the term
+         * @return the id of its lower case form
+         */
+        private int getLowerCaseId(int id) {
+            if (lowerCaseIds[id] == -1) {
+                // adding the lower case form can grow the array
+                int lowerCaseId = getId(ngramToLowerCase(terms.get(id)));
+                lowerCaseIds[id] = lowerCaseId;
+            }
+
+            return lowerCaseIds[id];
+        }
+
+        private boolean isStopWord(int id) {
+            return stopTerms.get(id);
+        }
+
+        private String getTerm(int id) {
+            return terms.get(id);
+        }
+
+        private int size() {
+            return terms.size();
+        }
+    }
+
+    /**
+     * Counts in one column per emotion, which grow with the number of rows.
+     */
+    private static class CountColumns {
+
+        /**
+         * The counts of each emotion, indexed by emotion id and row.
+         */
+        private int[][] columns = new int[0][];
+
+        private int capacity = 1024;
+
+        /**
+         * The rows that have been counted.
+         */
+        private final BitSet rows = new BitSet();
+
+        private void increment(int row, int emotion) {
+            add(row, emotion, 1);
+        }
+
+        /**
+         * Adds the counts of other columns.
+         * @param other the other columns
+         * @param targetRows the row of each row of the other columns
+         * @param targetEmotions the emotion id of each emotion id of the other columns
+         */
+        private void add(CountColumns other, int[] targetRows, int[] targetEmotions) {
+            for (int row = other.rows.nextSetBit(0); row >= 0; row = other.rows.nextSetBit(row + 1)) {
+                for (int emotion = 0; emotion < other.columns.length; emotion++) {
+                    int freq = other.columns[emotion][row];
+                    if (freq != 0) {
+                        add(targetRows[row], targetEmotions[emotion], freq);
+                    }
+                }
+            }
+        }
+
+        private void add(int row, int emotion, int freq) {
+            if (emotion >= columns.length) {
+                int oldLength = columns.length;
+                columns = Arrays.copyOf(columns, emotion + 1);
+                for (int i = oldLength; i < columns.length; i++) {
+                    columns[i] = new int[capacity];
+                }
+            }
+            if (row >= capacity) {
+                while (row >= capacity) {
+                    capacity *= 2;
+                }
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = Arrays.copyOf(columns[i], capacity);
+                }
+            }
+
+            columns[emotion][row] += freq;
+            rows.set(row);
+        }
+
+        private int get(int row, int emotion) {
+            return emotion < columns.length && row < capacity ? columns[emotion][row] : 0;
+        }
+    }
+
+    /**
+     * An open-addressing map from pairs of term ids, packed into a long, to dense rows.
+     */
+    private static class PairIndex {
+
+        /**
+         * The row of each slot plus 1; 0 marks an empty slot.
+         */
+        private int[] slots = new int[1024];
+
+        /**
+         * The packed pair of each row.
+         */
+        private long[] keys = new long[512];
+
+        private int size = 0;
+
+        /**
+         * Returns the row of a pair and adds it if it isn't in the index yet.
+         * @param first the id of the first term
+         * @param second the id of the second term
+         * @return the row
+         */
+        private int getRow(int first, int second) {
+            long key = (long)first << 32 | second & 0xffffffffL;
+            int slot = findSlot(slots, keys, key);
+            if (slots[slot] != 0) {
+                return slots[slot] - 1;
+            }
+
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, 2 * size);
+            }
+            keys[size] = key;
+            slots[slot] = ++size;
+
+            // the index is kept at most half full
+            if (2 * size > slots.length) {
+                int[] newSlots = new int[2 * slots.length];
+                for (int row = 0; row < size; row++) {
+                    newSlots[findSlot(newSlots, keys, keys[row])] = row + 1;
+                }
+                slots = newSlots;
+            }
+
+            return size - 1;
+        }
+
+        private long getKey(int row) {
+            return keys[row];
+        }
+
+        private int size() {
+            return size;
+        }
+
+        /**
+         * Finds the slot of a pair, i.e. the slot that holds it or the first empty slot.
+         * @param slots the slots
+         * @param keys the packed pair of each row
+         * @param key the packed pair
+         * @return the slot
+         */
+        private static int findSlot(int[] slots, long[] keys, long key) {
+            // the bits of both ids are mixed, as ids are small
+            long hash = key * 0x9e3779b97f4a7c15L;
+            int slot = (int)(hash >>> 32) & (slots.length - 1);
+            while (slots[slot] != 0 && keys[slots[slot] - 1] != key) {
+                slot = (slot + 1) & (slots.length - 1);
+            }
+
+            return slot;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+import java.io.*;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * A buffered output file that is flushed according to a flush policy rather than after every record. All open sinks are
+ * flushed when the JVM shuts down, so that output written before e.g. a kill isn't lost, and a timer flushes sinks
+ * whose time limit has passed even if nothing is written to them anymore.
+ */
+public class OutputSink implements Closeable {
+
+    private static Logger log = Logger.getLogger(OutputSink.class.getName());
+
+    /**
+     * The size of the buffer in characters.
+     */
+    private static final int bufferSize = 1 << 20;
+
+    /**
+     * The sinks that are open; flushed by the shutdown hook.
+     */
+    private static final Set<OutputSink> openSinks = Collections.synchronizedSet(new HashSet<OutputSink>());
+
+    /**
+     * The timer that checks the time limits of the open sinks.
+     */
+    private static final ScheduledExecutorService flushTimer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    // doesn't keep the JVM alive once the sinks are closed
+                    Thread thread = new Thread(runnable, "output-sink-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (openSinks) {
+                    for (OutputSink sink : openSinks) {
+                        try {
+                            sink.flush();
+                        }
+                        catch (IOException ex) {
+                            log.warning(String.format("%s couldn't be flushed on shutdown: %s", sink, ex.getMessage()));
+                        }
+                    }
+                }
+            }
+        }, "output-sink-flush"));
+    }
+
+    /**
+     * Determines when a sink is flushed. A sink is flushed as soon as one of the limits is reached; the limits are
+     * checked whenever a record is written, and the time limit is also checked by a timer at its interval.
+     */
+    public static class FlushPolicy {
+
+        /**
+         * The number of characters written since the last flush after which the sink is flushed.
+         */
+        private final long maxChars;
+
+        /**
+         * The number of records written since the last flush after which the sink is flushed.
+         */
+        private final int maxRecords;
+
+        /**
+         * The number of milliseconds since the last flush after which the sink is flushed.
+         */
+        private final long maxMillis;
+
+        /**
+         * Creates a flush policy. A limit of 0 or less is disabled.
+         * @param maxChars the number of characters after which the sink is flushed
+         * @param maxRecords the number of records after which the sink is flushed
+         * @param maxMillis the number of milliseconds after which the sink is flushed
+         */
+        public FlushPolicy(long maxChars, int maxRecords, long maxMillis) {
+            this.maxChars = maxChars;
+            this.maxRecords = maxRecords;
+            this.maxMillis = maxMillis;
+        }
+
+        private boolean isDue(long chars, int records, long lastFlush) {
+            return (maxChars > 0 && chars >= maxChars) || (maxRecords > 0 && records >= maxRecords) ||
+                    (maxMillis > 0 && System.currentTimeMillis() - lastFlush >= maxMillis);
+        }
+    }
+
+    private final String path;
+
+    private final Writer writer;
+
+    private final FlushPolicy flushPolicy;
+
+    /**
+     * The number of characters written since the last flush.
+     */
+    private long pendingChars = 0;
+
+    /**
+     * The number of records written since the last flush.
+     */
+    private int pendingRecords = 0;
+
+    /**
+     * The time of the last flush in milliseconds.
+     */
+    private long lastFlush = System.currentTimeMillis();
+
+    /**
+     * The check of the time limit by the timer; null if the policy has no time limit.
+     */
+    private ScheduledFuture<?> timedFlush = null;
+
+    private boolean isClosed = false;
+
+    /**
+     * Opens a sink.
+     * @param path the path of the output file
+     * @param append true if the output should be appended to the file, false if the file should be overwritten
+     * @param flushPolicy the flush policy
+     * @throws IOException if the file couldn't be opened
+     */
+    public OutputSink(String path, boolean append, FlushPolicy flushPolicy) throws IOException {
+        this.path = path;
+        this.writer = new BufferedWriter(new FileWriter(path, append), bufferSize);
+        this.flushPolicy = flushPolicy;
+        openSinks.add(this);
+
+        if (flushPolicy.maxMillis > 0) {
+            timedFlush = flushTimer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flushIfDue();
+                    }
+                    catch (IOException ex) {
+                        log.warning(String.format("%s couldn't be flushed: %s", OutputSink.this, ex.getMessage()));
+                    }
+                }
+            }, flushPolicy.maxMillis, flushPolicy.maxMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes a record.
+     * @param record the record
+     * @throws IOException if the record couldn't be written
+     */
+    public synchronized void print(String record) throws IOException {
+        writer.write(record);
+        pendingChars += record.length();
+        pendingRecords++;
+        if (flushPolicy.isDue(pendingChars, pendingRecords, lastFlush)) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes a record followed by a line separator.
+     * @param record the record
+     * @throws IOException if the record couldn't be written
+     */
+    public void println(String record) throws IOException {
+        print(record + System.getProperty("line.separator"));
+    }
+
+    /**
+     * Writes the buffered records to the file.
+     * @throws IOException if the records couldn't be written
+     */
+    public synchronized void flush() throws IOException {
+        writer.flush();
+        pendingChars = 0;
+        pendingRecords = 0;
+        lastFlush = System.currentTimeMillis();
+    }
+
+    /**
+     * Writes the buffered records to the file if there are any and the flush policy is due, e.g. because its time
+     * limit has passed since the last flush.
+     * @throws IOException if the records couldn't be written
+     */
+    private synchronized void flushIfDue() throws IOException {
+        if (!isClosed && pendingRecords > 0 && flushPolicy.isDue(pendingChars, pendingRecords, lastFlush)) {
+            flush();
+        }
+    }
+
+    /**
+     * Flushes and closes the sink.
+     * @throws IOException if the buffered records couldn't be written
+     */
+    @Override
+    public void close() throws IOException {
+        // removed before locking the sink, as the shutdown hook locks the set of open sinks first
+        openSinks.remove(this);
+        if (timedFlush != null) {
+            timedFlush.cancel(false);
+        }
+        synchronized (this) {
+            isClosed = true;
+            writer.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
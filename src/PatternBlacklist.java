@@ -0,0 +1,118 @@
+import java.io.*;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A blacklist of lemmas of patterns that have been identified as erroneous, e.g. "depress". Pattern templates that
+ * contain one of the lemmas aren't compiled by the <code>EmotionPatternExtractor</code>, and extractions whose pattern
+ * contains one of them can be skipped while results are read, so that the results don't need to be rewritten when a
+ * pattern is removed. The blacklist is stored next to the pattern templates in excluded_patterns.txt, one lemma per
+ * line.
+ */
+public class PatternBlacklist {
+
+    /**
+     * The name of the blacklist file in the directory of the pattern templates.
+     */
+    public static final String fileName = "excluded_patterns.txt";
+
+    private final Set<String> lemmas;
+
+    /**
+     * Key: the pattern of an extraction, i.e. its lemmas separated by spaces. Value: if it is excluded. Results only
+     * have a few hundred distinct patterns, so each one is only split once.
+     */
+    private final Map<String, Boolean> exclusions = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * Creates a blacklist.
+     * @param lemmas the lemmas of the patterns that should be excluded
+     */
+    public PatternBlacklist(Collection<String> lemmas) {
+        this.lemmas = new HashSet<String>(lemmas);
+    }
+
+    /**
+     * Reads a blacklist. Lines starting with # are comments.
+     * @param file the blacklist file
+     * @return the blacklist; empty if the file doesn't exist
+     * @throws IOException if the file couldn't be read
+     */
+    public static PatternBlacklist read(File file) throws IOException {
+        Set<String> lemmas = new HashSet<String>();
+        if (file.exists()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line = reader.readLine();
+            while (line != null) {
+                line = line.trim();
+                if (!line.startsWith("#") && !line.equals("")) {
+                    lemmas.add(line);
+                }
+
+                line = reader.readLine();
+            }
+
+            reader.close();
+        }
+
+        return new PatternBlacklist(lemmas);
+    }
+
+    /**
+     * Reads the blacklist that is stored next to a file of pattern templates.
+     * @param templatesFile the pattern templates file
+     * @return the blacklist; empty if there is none
+     * @throws IOException if the blacklist couldn't be read
+     */
+    public static PatternBlacklist readForTemplates(File templatesFile) throws IOException {
+        return read(new File(templatesFile.getAbsoluteFile().getParentFile(), fileName));
+    }
+
+    public boolean isEmpty() {
+        return lemmas.isEmpty();
+    }
+
+    public int size() {
+        return lemmas.size();
+    }
+
+    /**
+     * Checks if a pattern is excluded by its lemmas.
+     * @param patternLemmas the lemmas of the pattern
+     * @return true if one of the lemmas is on the blacklist
+     */
+    public boolean excludesAny(Collection<String> patternLemmas) {
+        for (String lemma : patternLemmas) {
+            if (lemmas.contains(lemma)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks if the pattern of an extraction is excluded.
+     * @param pattern the pattern of the extraction, i.e. its lemmas separated by spaces, e.g. "be depress by"
+     * @return true if one of the lemmas of the pattern is on the blacklist
+     */
+    public boolean excludes(String pattern) {
+        if (lemmas.isEmpty()) {
+            return false;
+        }
+
+        Boolean isExcluded = exclusions.get(pattern);
+        if (isExcluded == null) {
+            isExcluded = false;
+            for (String lemma : pattern.split(" ")) {
+                isExcluded |= lemmas.contains(lemma);
+            }
+            exclusions.put(pattern, isExcluded);
+        }
+
+        return isExcluded;
+    }
+}
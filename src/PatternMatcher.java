@@ -0,0 +1,497 @@
+import edu.jhu.agiga.AgigaToken;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled multi-pattern matcher that checks all emotion patterns in a single left-to-right pass over the tokens of
+ * a sentence. The patterns are stored in a trie keyed on lemma and part-of-speech, so that patterns sharing a prefix,
+ * e.g. "be RB", are only evaluated once per position. A match is identical to the one that <code>Matcher.find()</code>
+ * returns for the corresponding regular expression on the lemma/POS/index string of the sentence.
+ */
+public class PatternMatcher {
+
+    /**
+     * The part-of-speech tags a 'Verb' in a pattern template can have, i.e. all verb tags except past participle.
+     */
+    public static final String[] verbTags = new String[] {"VBD", "VBG", "VBP", "VBZ"};
+
+    /**
+     * The types of elements a pattern consists of.
+     */
+    public enum ElementType {
+
+        /**
+         * A token with a given lemma and one of the given part-of-speech tags.
+         */
+        literal,
+
+        /**
+         * An optional token with a given lemma and part-of-speech tag, e.g. 'that'.
+         */
+        optionalLiteral,
+
+        /**
+         * An optional adverb in lower case, e.g. "be (very) happy".
+         */
+        optionalAdverb,
+
+        /**
+         * A zero-width look-ahead that fails if the next token starts with one of the given prefixes, e.g. negations.
+         */
+        notFollowedBy
+    }
+
+    /**
+     * An element of a pattern.
+     */
+    public static class Element {
+
+        private final ElementType type;
+
+        private final String lemma;
+
+        private final Set<String> posTags;
+
+        /**
+         * The prefixes that the look-ahead rejects without their leading whitespace; they are compared against the
+         * text of the next token, i.e. lemma/POS/index, just as in the regular expression.
+         */
+        private final List<String> prefixes;
+
+        private Element(ElementType type, String lemma, Set<String> posTags, List<String> prefixes) {
+            this.type = type;
+            this.lemma = lemma;
+            this.posTags = posTags;
+            this.prefixes = prefixes;
+        }
+
+        /**
+         * Checks if a token is accepted by a literal or optional element.
+         * @param token the token
+         * @return true if the token is accepted
+         */
+        private boolean accepts(AgigaToken token) {
+            if (type == ElementType.optionalAdverb) {
+                return token.getPosTag().equals("RB") && isLowerCaseWord(token.getLemma());
+            }
+
+            return lemma.equals(token.getLemma()) && posTags.contains(token.getPosTag());
+        }
+
+        /**
+         * Checks if a look-ahead rejects the next token.
+         * @param token the next token; null if the end of the sentence has been reached
+         * @return true if the token is rejected
+         */
+        private boolean rejects(AgigaToken token) {
+            if (token == null) {
+                return false;
+            }
+
+            String lemma = token.getLemma();
+            for (String prefix : prefixes) {
+                if (prefix.length() <= lemma.length()) {
+                    if (lemma.startsWith(prefix)) {
+                        return true;
+                    }
+                }
+                // the text is only built if the prefix reaches beyond the lemma, which is rare
+                else if (prefix.startsWith(lemma) && prefix.charAt(lemma.length()) == '/' &&
+                        String.format("%s/%s/%d", lemma, token.getPosTag(), token.getTokIdx()).startsWith(prefix)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (object == null || object.getClass() != Element.class) {
+                return false;
+            }
+
+            Element other = (Element)object;
+            return this.type == other.type && this.lemma.equals(other.lemma) && this.posTags.equals(other.posTags) &&
+                    this.prefixes.equals(other.prefixes);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = type.hashCode();
+            result = 31 * result + lemma.hashCode();
+            result = 31 * result + posTags.hashCode();
+            result = 31 * result + prefixes.hashCode();
+            return result;
+        }
+    }
+
+    /**
+     * The left-most match of a pattern in a sentence.
+     */
+    public static class Match {
+
+        /**
+         * The index of the first token of the match in the token list.
+         */
+        private final int start;
+
+        /**
+         * The index of the last token of the match in the token list.
+         */
+        private final int end;
+
+        private Match(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+    }
+
+    /**
+     * A node of the pattern trie.
+     */
+    private static class Node {
+
+        private final Element element;
+
+        /**
+         * Key: lemma. Value: the literal children with that lemma.
+         */
+        private final Map<String, List<Node>> literalChildren = new HashMap<String, List<Node>>();
+
+        /**
+         * The optional and look-ahead children.
+         */
+        private final List<Node> otherChildren = new ArrayList<Node>();
+
+        /**
+         * The patterns that end in this node.
+         */
+        private final List<Pattern> patterns = new ArrayList<Pattern>();
+
+        private Node(Element element) {
+            this.element = element;
+        }
+
+        /**
+         * Returns the child with the specified element; creates it if it doesn't exist yet.
+         * @param element the element of the child
+         * @return the child
+         */
+        private Node getOrAddChild(Element element) {
+            List<Node> children;
+            if (element.type == ElementType.literal) {
+                if (!literalChildren.containsKey(element.lemma)) {
+                    literalChildren.put(element.lemma, new ArrayList<Node>());
+                }
+                children = literalChildren.get(element.lemma);
+            }
+            else {
+                children = otherChildren;
+            }
+
+            for (Node child : children) {
+                if (child.element.equals(element)) {
+                    return child;
+                }
+            }
+
+            Node child = new Node(element);
+            children.add(child);
+            return child;
+        }
+    }
+
+    /**
+     * The root of the pattern trie.
+     */
+    private final Node root = new Node(null);
+
+    /**
+     * The number of patterns that have been added.
+     */
+    private int size = 0;
+
+    /**
+     * The lemmas that every match of a pattern contains, one per pattern. For each pattern, this is the lemma of its
+     * last literal that isn't a preposition, i.e. its verb, adjective, or noun, e.g. "afraid" in "be RB afraid of",
+     * which is far more selective than the first lemma, e.g. "be".
+     */
+    private final Set<String> triggerLemmas = new HashSet<String>();
+
+    /**
+     * The maximum number of tokens that a match can have before the token of its trigger lemma.
+     */
+    private int maxTriggerOffset = 0;
+
+    /**
+     * Creates an element matching a token with the specified lemma and one of the specified part-of-speech tags.
+     * @param lemma the lemma
+     * @param posTags the part-of-speech tags
+     * @return the element
+     */
+    public static Element literal(String lemma, String... posTags) {
+        return new Element(ElementType.literal, lemma, new HashSet<String>(Arrays.asList(posTags)),
+                Collections.<String>emptyList());
+    }
+
+    /**
+     * Creates an element optionally matching a token with the specified lemma and part-of-speech tag.
+     * @param lemma the lemma
+     * @param posTag the part-of-speech tag
+     * @return the element
+     */
+    public static Element optionalLiteral(String lemma, String posTag) {
+        return new Element(ElementType.optionalLiteral, lemma, Collections.singleton(posTag),
+                Collections.<String>emptyList());
+    }
+
+    /**
+     * Creates an element optionally matching an adverb in lower case.
+     * @return the element
+     */
+    public static Element optionalAdverb() {
+        return new Element(ElementType.optionalAdverb, "", Collections.<String>emptySet(),
+                Collections.<String>emptyList());
+    }
+
+    /**
+     * Creates a look-ahead that fails if the next token, preceded by whitespace, starts with one of the prefixes.
+     * @param prefixes the prefixes, e.g. " not"
+     * @return the element
+     */
+    public static Element notFollowedBy(String... prefixes) {
+        // the text of a token is preceded by whitespace, so prefixes that don't start with it never match
+        List<String> tokenPrefixes = new ArrayList<String>();
+        for (String prefix : prefixes) {
+            if (prefix.startsWith(" ")) {
+                tokenPrefixes.add(prefix.substring(1));
+            }
+            else if (prefix.isEmpty()) {
+                tokenPrefixes.add(prefix);
+            }
+        }
+
+        return new Element(ElementType.notFollowedBy, "", Collections.<String>emptySet(), tokenPrefixes);
+    }
+
+    /**
+     * Adds a pattern to the trie.
+     * @param pattern the regular expression pattern that the elements are equivalent to
+     * @param elements the elements of the pattern
+     */
+    public void addPattern(Pattern pattern, List<Element> elements) {
+        if (elements.isEmpty() || elements.get(0).type != ElementType.literal) {
+            throw new IllegalArgumentException(String.format("Pattern %s doesn't start with a word.", pattern));
+        }
+
+        Node node = root;
+        for (Element element : elements) {
+            node = node.getOrAddChild(element);
+        }
+
+        node.patterns.add(pattern);
+        size++;
+
+        // the trigger is the last literal that isn't a preposition; every element before it consumes at most a token
+        String triggerLemma = elements.get(0).lemma;
+        int triggerOffset = 0;
+        int offset = 0;
+        for (Element element : elements) {
+            if (element.type == ElementType.literal && !element.posTags.contains("IN") &&
+                    !element.posTags.contains("TO")) {
+                triggerLemma = element.lemma;
+                triggerOffset = offset;
+            }
+            if (element.type != ElementType.notFollowedBy) {
+                offset++;
+            }
+        }
+
+        triggerLemmas.add(triggerLemma);
+        maxTriggerOffset = Math.max(maxTriggerOffset, triggerOffset);
+    }
+
+    /**
+     * Returns the number of patterns in the matcher.
+     * @return the number of patterns
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the lemmas of which every match contains one, i.e. the trigger lemmas.
+     * @return the set of trigger lemmas
+     */
+    public Set<String> getTriggerLemmas() {
+        return Collections.unmodifiableSet(triggerLemmas);
+    }
+
+    /**
+     * Finds the first token of a sentence with a trigger lemma at a position where it can be part of a match.
+     * Sentences without one don't have any matches and don't need to be processed further.
+     * @param tokens the tokens of the sentence
+     * @return the index of the first token with a trigger lemma; -1 if the sentence doesn't contain one
+     */
+    public int findTrigger(List<AgigaToken> tokens) {
+        // the first token is skipped as in match()
+        for (int i = 1; i < tokens.size(); i++) {
+            if (triggerLemmas.contains(tokens.get(i).getLemma())) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Finds the left-most match of every pattern in a sentence in a single pass over its tokens.
+     * @param tokens the tokens of the sentence
+     * @return a map with key: pattern; value: its left-most match. Patterns without a match are not contained.
+     */
+    public Map<Pattern, Match> match(List<AgigaToken> tokens) {
+        int trigger = findTrigger(tokens);
+        if (trigger == -1) {
+            return Collections.emptyMap();
+        }
+
+        return match(tokens, trigger);
+    }
+
+    /**
+     * Finds the left-most match of every pattern in a sentence whose first trigger has been found already. Matches
+     * can't start further before the trigger than the longest prefix of a pattern, so the tokens before are skipped.
+     * @param tokens the tokens of the sentence
+     * @param trigger the index of the first token with a trigger lemma, as returned by <code>findTrigger()</code>
+     * @return a map with key: pattern; value: its left-most match. Patterns without a match are not contained.
+     */
+    public Map<Pattern, Match> match(List<AgigaToken> tokens, int trigger) {
+        Map<Pattern, Match> matches = null;
+
+        // the regular expressions start with a look-behind for whitespace, which the first token lacks
+        for (int i = Math.max(1, trigger - maxTriggerOffset); i < tokens.size(); i++) {
+            List<Node> candidates = root.literalChildren.get(tokens.get(i).getLemma());
+            if (candidates == null) {
+                continue;
+            }
+
+            for (Node node : candidates) {
+                matches = visit(node, tokens, i, i, -1, matches);
+            }
+        }
+
+        if (matches == null) {
+            return Collections.emptyMap();
+        }
+
+        return matches;
+    }
+
+    /**
+     * Matches the element of a node against the tokens and visits its children if it succeeds.
+     * @param node the node
+     * @param tokens the tokens of the sentence
+     * @param start the index of the first token of the match
+     * @param pos the index of the next token that should be matched
+     * @param end the index of the last token that has been matched
+     * @param matches the matches found so far; can be null
+     * @return the matches found so far; can be null
+     */
+    private static Map<Pattern, Match> visit(Node node, List<AgigaToken> tokens, int start, int pos, int end,
+                                             Map<Pattern, Match> matches) {
+
+        Element element = node.element;
+        AgigaToken token = pos < tokens.size() ? tokens.get(pos) : null;
+        switch (element.type) {
+            case literal:
+                if (token != null && element.accepts(token)) {
+                    matches = visitChildren(node, tokens, start, pos + 1, pos, matches);
+                }
+                break;
+            case optionalLiteral:
+            case optionalAdverb:
+                // greedy like the regular expression: first try to match the token, then try to skip it
+                if (token != null && element.accepts(token)) {
+                    matches = visitChildren(node, tokens, start, pos + 1, pos, matches);
+                }
+                matches = visitChildren(node, tokens, start, pos, end, matches);
+                break;
+            case notFollowedBy:
+                if (!element.rejects(token)) {
+                    matches = visitChildren(node, tokens, start, pos, end, matches);
+                }
+                break;
+        }
+
+        return matches;
+    }
+
+    /**
+     * Adds the patterns ending in a node to the matches and visits its children.
+     * @param node the node whose element has been matched
+     * @param tokens the tokens of the sentence
+     * @param start the index of the first token of the match
+     * @param pos the index of the next token that should be matched
+     * @param end the index of the last token that has been matched
+     * @param matches the matches found so far; can be null
+     * @return the matches found so far; can be null
+     */
+    private static Map<Pattern, Match> visitChildren(Node node, List<AgigaToken> tokens, int start, int pos, int end,
+                                                     Map<Pattern, Match> matches) {
+
+        // only the first match of a pattern is kept, which is the left-most one
+        for (Pattern pattern : node.patterns) {
+            if (matches == null) {
+                matches = new HashMap<Pattern, Match>();
+            }
+            if (!matches.containsKey(pattern)) {
+                matches.put(pattern, new Match(start, end));
+            }
+        }
+
+        if (pos < tokens.size()) {
+            List<Node> children = node.literalChildren.get(tokens.get(pos).getLemma());
+            if (children != null) {
+                for (Node child : children) {
+                    matches = visit(child, tokens, start, pos, end, matches);
+                }
+            }
+        }
+
+        for (Node child : node.otherChildren) {
+            matches = visit(child, tokens, start, pos, end, matches);
+        }
+
+        return matches;
+    }
+
+    /**
+     * Checks if a string only consists of lower-case letters, i.e. if it matches [a-z]+.
+     * @param str the string
+     * @return true if the string is a lower-case word
+     */
+    private static boolean isLowerCaseWord(String str) {
+        if (str.isEmpty()) {
+            return false;
+        }
+
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 'a' || c > 'z') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,115 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+
+/**
+ * A registry of the emotion patterns that assigns each pattern a dense id, in the order of the emotion map, and stores
+ * its emotion and if its cause is an NP. Match counts are kept in <code>AtomicLongArray</code>s indexed by id, which
+ * can be updated by several threads and read from without locking.
+ */
+public class PatternRegistry {
+
+    /**
+     * Key: pattern. Value: its id.
+     */
+    private final Map<Pattern, Integer> ids = new HashMap<Pattern, Integer>();
+
+    private final Pattern[] patterns;
+
+    private final String[] emotions;
+
+    private final boolean[] isNP;
+
+    /**
+     * Creates a registry of the patterns of an emotion map.
+     * @param emotionMap the emotion map created by the <code>EmotionPatternExtractor</code>
+     */
+    public PatternRegistry(Map<String, Map<Pattern, Map<String, Boolean>>> emotionMap) {
+        int size = 0;
+        for (Map<Pattern, Map<String, Boolean>> patternMap : emotionMap.values()) {
+            size += patternMap.size();
+        }
+
+        patterns = new Pattern[size];
+        emotions = new String[size];
+        isNP = new boolean[size];
+        int id = 0;
+        for (String emotion : emotionMap.keySet()) {
+            for (Pattern pattern : emotionMap.get(emotion).keySet()) {
+                ids.put(pattern, id);
+                patterns[id] = pattern;
+                emotions[id] = emotion;
+                isNP[id] = emotionMap.get(emotion).get(pattern).get(Enums.Features.isNP.toString());
+                id++;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of patterns.
+     * @return the number of patterns
+     */
+    public int size() {
+        return patterns.length;
+    }
+
+    /**
+     * Returns the id of a pattern.
+     * @param pattern the pattern
+     * @return the id
+     */
+    public int getId(Pattern pattern) {
+        Integer id = ids.get(pattern);
+        if (id == null) {
+            throw new IllegalArgumentException(String.format("Pattern %s is not registered.", pattern));
+        }
+
+        return id;
+    }
+
+    public Pattern getPattern(int id) {
+        return patterns[id];
+    }
+
+    public String getEmotion(int id) {
+        return emotions[id];
+    }
+
+    public boolean isNP(int id) {
+        return isNP[id];
+    }
+
+    /**
+     * Creates an array for the match counts of the patterns, indexed by id.
+     * @return the match counts; all 0
+     */
+    public AtomicLongArray createCounts() {
+        return new AtomicLongArray(patterns.length);
+    }
+
+    /**
+     * Copies match counts, e.g. to write them while they are still being updated.
+     * @param counts the match counts
+     * @return a copy of the match counts
+     */
+    public static long[] snapshot(AtomicLongArray counts) {
+        long[] snapshot = new long[counts.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Adds match counts, e.g. of a single file, to other match counts.
+     * @param counts the match counts that should be added to
+     * @param partialCounts the match counts that should be added; have to belong to the same registry
+     */
+    public static void add(AtomicLongArray counts, AtomicLongArray partialCounts) {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.addAndGet(i, partialCounts.get(i));
+        }
+    }
+}
@@ -0,0 +1,450 @@
+import java.io.*;
+import java.util.logging.Logger;
+
+/**
+ * A filter of the propositions of a store, e.g. results.txt, with which duplicates of stored propositions are removed
+ * while new ones are written, so that an incremental run doesn't need a separate pass of the <code>ResultsCleaner</code>.
+ * A proposition is identified by the fingerprint of its key, i.e. all fields except for the id. The fingerprints are
+ * checked against a Bloom filter with a configurable false-positive rate, which is saved next to the store along with a
+ * file of all fingerprints. A false positive drops a unique proposition, unless duplicates are verified against the set
+ * of all fingerprints, which is then held in memory. If the filter is saved for the first time, the store is read once;
+ * after that, the filter is rebuilt from the fingerprints if it is full or its false-positive rate has changed.
+ */
+public class PropositionFilter implements Closeable {
+
+    private static Logger log = Logger.getLogger(PropositionFilter.class.getName());
+
+    /**
+     * The magic number at the start of the filter file: "PRF" and the version of the format.
+     */
+    private static final int magic = 0x50524601;
+
+    /**
+     * The minimum number of propositions for which a filter is sized.
+     */
+    private static final long minCapacity = 1 << 20;
+
+    private final File filterFile;
+
+    /**
+     * The file of the fingerprints of all stored propositions in the order in which they were added.
+     */
+    private final File fingerprintFile;
+
+    private final double falsePositiveRate;
+
+    /**
+     * If propositions that the Bloom filter reports as stored are verified against the set of all fingerprints.
+     */
+    private final boolean verify;
+
+    /**
+     * The bits of the Bloom filter.
+     */
+    private long[] bits;
+
+    private long bitCount;
+
+    private int hashCount;
+
+    /**
+     * The number of fingerprints for which the filter has been sized; it is rebuilt once it holds more.
+     */
+    private long capacity;
+
+    /**
+     * The number of fingerprints that have been added.
+     */
+    private long count;
+
+    private DataOutputStream fingerprintWriter;
+
+    /**
+     * The set of all fingerprints; null if duplicates aren't verified.
+     */
+    private FingerprintSet fingerprints;
+
+    private long duplicateCount = 0;
+
+    /**
+     * The number of propositions that the Bloom filter reported as stored, but that weren't.
+     */
+    private long falsePositiveCount = 0;
+
+    /**
+     * Creates a filter of a store.
+     * @param storePath the path of the store
+     * @param falsePositiveRate the false-positive rate of the Bloom filter
+     * @param verify if duplicates should be verified against the set of all fingerprints
+     */
+    private PropositionFilter(String storePath, double falsePositiveRate, boolean verify) {
+        String basePath = storePath.endsWith(".txt") ? storePath.substring(0, storePath.length() - 4) : storePath;
+        this.filterFile = new File(basePath + "_filter.bin");
+        this.fingerprintFile = new File(basePath + "_fingerprints.bin");
+        this.falsePositiveRate = falsePositiveRate;
+        this.verify = verify;
+    }
+
+    /**
+     * Opens the filter of a store. If the store doesn't have a filter yet, it is built from the propositions of the
+     * store, if there are any.
+     * @param storePath the path of the store, e.g. results.txt
+     * @param falsePositiveRate the false-positive rate of the Bloom filter, e.g. 0.001
+     * @param verify if duplicates should be verified against the set of all fingerprints, so that no unique propositions
+     *               are dropped
+     * @param storedCount the number of propositions that the filter had when the store was last checkpointed; the
+     *                    propositions that have been added after that are removed. -1 if the filter should be used as
+     *                    it was saved
+     * @return the filter
+     * @throws IOException if the filter or the store couldn't be read
+     */
+    public static PropositionFilter open(String storePath, double falsePositiveRate, boolean verify, long storedCount)
+            throws IOException {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException(String.format("%s is not a valid false-positive rate.", falsePositiveRate));
+        }
+
+        PropositionFilter filter = new PropositionFilter(storePath, falsePositiveRate, verify);
+        if (!filter.read(storedCount)) {
+            filter.addStore(storePath);
+        }
+
+        if (filter.verify) {
+            filter.readFingerprints();
+        }
+
+        filter.fingerprintWriter = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(filter.fingerprintFile, true)));
+        return filter;
+    }
+
+    /**
+     * Deletes the filter of a store, e.g. because the store is written anew.
+     * @param storePath the path of the store
+     */
+    public static void delete(String storePath) {
+        PropositionFilter filter = new PropositionFilter(storePath, 0, false);
+        filter.filterFile.delete();
+        filter.fingerprintFile.delete();
+    }
+
+    /**
+     * Reads the saved filter. The fingerprints that have been added after it was saved, e.g. by an interrupted run, are
+     * removed, as are those added after the checkpoint of the store if it was saved after that. The filter is rebuilt
+     * if it is full, its false-positive rate has changed, or it was truncated to the checkpoint.
+     * @param storedCount the number of propositions at the checkpoint of the store; -1 if there is none
+     * @return true if the filter could be read; false if there is no saved filter
+     * @throws IOException if the filter couldn't be read or has fewer propositions than at the checkpoint
+     */
+    private boolean read(long storedCount) throws IOException {
+        if (!filterFile.exists() || !fingerprintFile.exists()) {
+            return false;
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filterFile), 1 << 16));
+        double savedFalsePositiveRate;
+        try {
+            if (in.readInt() != magic) {
+                throw new IOException(String.format("%s is not a proposition filter.", filterFile));
+            }
+
+            savedFalsePositiveRate = in.readDouble();
+            count = in.readLong();
+            capacity = in.readLong();
+            hashCount = in.readInt();
+            bits = new long[in.readInt()];
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] = in.readLong();
+            }
+            bitCount = (long)bits.length * 64;
+        }
+        finally {
+            in.close();
+        }
+
+        boolean truncated = false;
+        if (storedCount >= 0 && storedCount != count) {
+            if (storedCount > count) {
+                throw new IOException(String.format("%s has %d propositions instead of %d.", filterFile, count,
+                        storedCount));
+            }
+            count = storedCount;
+            truncated = true;
+        }
+
+        Checkpoint.truncate(fingerprintFile.getPath(), count * 8);
+        if (truncated || count > capacity || savedFalsePositiveRate != falsePositiveRate) {
+            rebuild(Math.max(minCapacity, 2 * count));
+        }
+
+        log.info(String.format("Read the filter of %d propositions from %s", count, filterFile));
+        return true;
+    }
+
+    /**
+     * Adds the propositions of a store to a new filter.
+     * @param storePath the path of the store
+     * @throws IOException if the store couldn't be read or the fingerprints couldn't be written
+     */
+    private void addStore(String storePath) throws IOException {
+        count = 0;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fingerprintFile)));
+        try {
+            if (new File(storePath).exists()) {
+                BufferedReader reader = new BufferedReader(new FileReader(storePath));
+                try {
+                    String line = reader.readLine();
+                    while (line != null) {
+                        if (!line.isEmpty() && !line.startsWith("#")) {
+                            out.writeLong(Deduplicator.fingerprint(new Extraction(line).getKey()));
+                            count++;
+                        }
+
+                        line = reader.readLine();
+                    }
+                }
+                finally {
+                    reader.close();
+                }
+            }
+        }
+        finally {
+            out.close();
+        }
+
+        rebuild(Math.max(minCapacity, 2 * count));
+        log.info(String.format("Built the filter of %d propositions of %s", count, storePath));
+    }
+
+    /**
+     * Rebuilds the Bloom filter from the fingerprints for a new capacity.
+     * @param newCapacity the number of fingerprints for which the filter should be sized
+     * @throws IOException if the fingerprints couldn't be read
+     */
+    private void rebuild(long newCapacity) throws IOException {
+        // the optimal number of bits and hash functions for the capacity and the false-positive rate
+        long words = (long)Math.ceil(-newCapacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)) / 64);
+        if (words > Integer.MAX_VALUE) {
+            throw new IllegalStateException(String.format("A filter of %d propositions is too large.", newCapacity));
+        }
+
+        capacity = newCapacity;
+        bits = new long[(int)words];
+        bitCount = words * 64;
+        hashCount = Math.max(1, (int)Math.round((double)bitCount / capacity * Math.log(2)));
+
+        if (fingerprintWriter != null) {
+            fingerprintWriter.flush();
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fingerprintFile), 1 << 16));
+        try {
+            for (long i = 0; i < count; i++) {
+                set(in.readLong());
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads all fingerprints into a set.
+     * @throws IOException if the fingerprints couldn't be read
+     */
+    private void readFingerprints() throws IOException {
+        fingerprints = new FingerprintSet(Math.max(minCapacity, 2 * count));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fingerprintFile), 1 << 16));
+        try {
+            for (long i = 0; i < count; i++) {
+                fingerprints.add(in.readLong());
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Adds a proposition to the filter unless it is a duplicate of a stored one.
+     * @param line the line of the proposition in the results format
+     * @return true if the proposition is new and should be written; false if it is a duplicate
+     * @throws IOException if the fingerprint couldn't be written
+     */
+    public boolean add(String line) throws IOException {
+        long fingerprint = Deduplicator.fingerprint(new Extraction(line).getKey());
+        if (contains(fingerprint)) {
+            if (fingerprints == null || fingerprints.contains(fingerprint)) {
+                duplicateCount++;
+                return false;
+            }
+            falsePositiveCount++;
+        }
+
+        set(fingerprint);
+        if (fingerprints != null) {
+            fingerprints.add(fingerprint);
+        }
+        fingerprintWriter.writeLong(fingerprint);
+        count++;
+        if (count > capacity) {
+            rebuild(2 * capacity);
+        }
+
+        return true;
+    }
+
+    /**
+     * Sets the bits of a fingerprint. The positions are derived from its two halves by double hashing.
+     * @param fingerprint the fingerprint
+     */
+    private void set(long fingerprint) {
+        long hash = fingerprint;
+        long step = (fingerprint >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (hash & Long.MAX_VALUE) % bitCount;
+            bits[(int)(bit >>> 6)] |= 1L << bit;
+            hash += step;
+        }
+    }
+
+    /**
+     * Checks if the bits of a fingerprint are set.
+     * @param fingerprint the fingerprint
+     * @return true if the fingerprint may have been added; false if it hasn't
+     */
+    private boolean contains(long fingerprint) {
+        long hash = fingerprint;
+        long step = (fingerprint >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (hash & Long.MAX_VALUE) % bitCount;
+            if ((bits[(int)(bit >>> 6)] & 1L << bit) == 0) {
+                return false;
+            }
+            hash += step;
+        }
+
+        return true;
+    }
+
+    /**
+     * Saves the filter. Should only be called once the propositions that have been added are in the store, as they
+     * are dropped from then on; if the store is checkpointed afterwards, the number of propositions should be recorded
+     * in the checkpoint, so that the filter can be truncated to it.
+     * @throws IOException if the filter couldn't be written
+     */
+    public void save() throws IOException {
+        fingerprintWriter.flush();
+
+        File tempFile = new File(filterFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16));
+        out.writeInt(magic);
+        out.writeDouble(falsePositiveRate);
+        out.writeLong(count);
+        out.writeLong(capacity);
+        out.writeInt(hashCount);
+        out.writeInt(bits.length);
+        for (long word : bits) {
+            out.writeLong(word);
+        }
+        out.close();
+
+        Utils.replaceFile(tempFile, filterFile);
+    }
+
+    /**
+     * Returns the number of propositions that have been added, including those of the store.
+     * @return the number of propositions
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the number of duplicates that have been dropped.
+     * @return the number of duplicates
+     */
+    public long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * Returns the number of propositions that the Bloom filter reported as stored, but that weren't according to the
+     * verification; 0 if duplicates aren't verified.
+     * @return the number of false positives
+     */
+    public long getFalsePositiveCount() {
+        return falsePositiveCount;
+    }
+
+    /**
+     * Closes the file of the fingerprints without saving the filter.
+     * @throws IOException if the fingerprints couldn't be written
+     */
+    @Override
+    public void close() throws IOException {
+        fingerprintWriter.close();
+    }
+
+    /**
+     * An open-addressing hash set of fingerprints, which grows once it is half full.
+     */
+    private static class FingerprintSet {
+
+        /**
+         * The fingerprints; 0 marks an empty slot.
+         */
+        private long[] table;
+
+        private int size = 0;
+
+        private boolean hasZero = false;
+
+        private FingerprintSet(long expectedSize) {
+            table = new long[Integer.highestOneBit((int)Math.min(expectedSize, 1 << 29)) << 1];
+        }
+
+        private boolean contains(long fingerprint) {
+            if (fingerprint == 0) {
+                return hasZero;
+            }
+
+            return table[findSlot(table, fingerprint)] == fingerprint;
+        }
+
+        private void add(long fingerprint) {
+            if (fingerprint == 0) {
+                hasZero = true;
+                return;
+            }
+
+            int slot = findSlot(table, fingerprint);
+            if (table[slot] == 0) {
+                table[slot] = fingerprint;
+                if (++size > table.length / 2) {
+                    long[] oldTable = table;
+                    table = new long[oldTable.length << 1];
+                    for (long oldFingerprint : oldTable) {
+                        if (oldFingerprint != 0) {
+                            table[findSlot(table, oldFingerprint)] = oldFingerprint;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Finds the slot of a fingerprint, i.e. the slot that holds it or the first empty slot.
+         * @param table the table
+         * @param fingerprint the fingerprint
+         * @return the slot
+         */
+        private static int findSlot(long[] table, long fingerprint) {
+            int slot = (int)fingerprint & (table.length - 1);
+            while (table[slot] != 0 && table[slot] != fingerprint) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+
+            return slot;
+        }
+    }
+}
@@ -0,0 +1,640 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * A compact binary format of the proposition store, which a results file can be converted to and back. The records are
+ * stored in blocks and each block stores its records column by column. Emotions are byte codes; patterns, emotion
+ * holders, causes, prepositional objects, and the words of the cause bag-of-words are codes into a dictionary of terms,
+ * which is sorted by frequency, so that the most frequent terms take a single byte. Codes and lengths are varints.
+ *
+ * The file starts with a header: the magic number, the emotion table, and the term dictionary. Each block consists of
+ * its number of records and its length in bytes, followed by the columns: ids, emotions, patterns, emotion holders, NP
+ * causes, subjects, predicates, and direct objects of S causes, prepositional objects, and cause bags-of-words.
+ *
+ * The binary file is a manual conversion: neither <code>AgigaReader</code> nor <code>ResultsCleaner</code> writes it, so
+ * it has to be converted again with <code>toBinary</code> whenever the results file changes.
+ */
+public class PropositionStore {
+
+    /**
+     * The magic number at the start of the file: "EPS" and the version of the format.
+     */
+    private static final int magic = 0x45505301;
+
+    /**
+     * The number of records per block.
+     */
+    private static final int blockSize = 4096;
+
+    /**
+     * The number of fields of a line of a results file.
+     */
+    private static final int fieldCount = 10;
+
+    /**
+     * The header of a results file as written by <code>AgigaReader</code>.
+     */
+    private static final String header = "# ID\tEmotion\tPattern\tEmotion Holder\t(NP-Cause)\t(Subj S-Cause)\t(Pred S-Cause)\t(Dobj S-Cause)\t[Pobjs S-Cause]\t[BoW Cause]\n";
+
+    // the kinds of list fields, i.e. of the prepositional objects and the cause bag-of-words
+
+    /**
+     * The field is empty.
+     */
+    private static final int emptyList = 0;
+
+    /**
+     * The field is not in the format [element1, element2, ...] and is stored as a single term.
+     */
+    private static final int rawList = 1;
+
+    /**
+     * The field is in the format [element1, element2, ...]; the number of elements is added to the kind.
+     */
+    private static final int bracketList = 2;
+
+    /**
+     * Main method to convert a results file to the binary format or back.
+     * @param args toBinary or toText, the input file, and optionally the output file; the binary file is written
+     *             alongside the results file per default
+     * @throws IOException if a file couldn't be read or written
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 2 || args.length > 3 || !(args[0].equals("toBinary") || args[0].equals("toText"))) {
+            System.out.println("Usage: java PropositionStore toBinary|toText inputPath [outputPath]");
+            System.exit(1);
+        }
+
+        long start = System.currentTimeMillis();
+        int records;
+        if (args[0].equals("toBinary")) {
+            String outputPath = args.length == 3 ? args[2] : args[1].replaceAll("\\.txt$", "") + ".bin";
+            records = writeBinary(args[1], outputPath);
+        }
+        else {
+            String outputPath = args.length == 3 ? args[2] : args[1].replaceAll("\\.bin$", "") + ".txt";
+            records = writeText(args[1], outputPath);
+        }
+
+        System.out.printf("Converted %d propositions in %.2fs\n", records, (System.currentTimeMillis() - start) / 1000.0);
+    }
+
+    /**
+     * Converts a results file to the binary format. The file is read twice: first to build the dictionary, then to
+     * write the records.
+     * @param textPath the path of the results file
+     * @param binaryPath the path of the binary file
+     * @return the number of records
+     * @throws IOException if a file couldn't be read or written
+     * @throws IllegalArgumentException if a line isn't valid according to <code>Extraction.split</code> or there are
+     * more than 256 emotions
+     */
+    public static int writeBinary(String textPath, String binaryPath) throws IOException {
+
+        // count the emotions and the terms
+        final Map<String, Integer> emotionCodes = new LinkedHashMap<String, Integer>();
+        final Map<String, int[]> termCounts = new HashMap<String, int[]>();
+        BufferedReader reader = new BufferedReader(new FileReader(textPath));
+        String[] fields = readFields(reader);
+        while (fields != null) {
+            if (!emotionCodes.containsKey(fields[1])) {
+                if (emotionCodes.size() == 256) {
+                    throw new IllegalArgumentException(String.format("%s has more than 256 emotions.", textPath));
+                }
+                emotionCodes.put(fields[1], emotionCodes.size());
+            }
+
+            for (int i = 2; i < fieldCount; i++) {
+                for (String term : getTerms(fields[i], i >= 8)) {
+                    int[] count = termCounts.get(term);
+                    if (count == null) {
+                        termCounts.put(term, new int[] {1});
+                    }
+                    else {
+                        count[0]++;
+                    }
+                }
+            }
+
+            fields = readFields(reader);
+        }
+        reader.close();
+
+        // frequent terms get small codes
+        String[] terms = termCounts.keySet().toArray(new String[termCounts.size()]);
+        Arrays.sort(terms, new Comparator<String>() {
+            @Override
+            public int compare(String term1, String term2) {
+                int count1 = termCounts.get(term1)[0];
+                int count2 = termCounts.get(term2)[0];
+                return count1 > count2 ? -1 : count1 < count2 ? 1 : term1.compareTo(term2);
+            }
+        });
+        Map<String, Integer> termCodes = new HashMap<String, Integer>(terms.length * 2);
+        for (int i = 0; i < terms.length; i++) {
+            termCodes.put(terms[i], i);
+        }
+        termCounts.clear();
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binaryPath), 1 << 16));
+        out.writeInt(magic);
+        writeVarint(out, emotionCodes.size());
+        for (String emotion : emotionCodes.keySet()) {
+            writeString(out, emotion);
+        }
+        writeVarint(out, terms.length);
+        for (String term : terms) {
+            writeString(out, term);
+        }
+
+        // write the records in blocks
+        int records = 0;
+        List<String[]> block = new ArrayList<String[]>(blockSize);
+        reader = new BufferedReader(new FileReader(textPath));
+        fields = readFields(reader);
+        while (fields != null) {
+            block.add(fields);
+            records++;
+            if (block.size() == blockSize) {
+                writeBlock(out, block, emotionCodes, termCodes);
+                block.clear();
+            }
+
+            fields = readFields(reader);
+        }
+        reader.close();
+
+        if (!block.isEmpty()) {
+            writeBlock(out, block, emotionCodes, termCodes);
+        }
+
+        out.close();
+        return records;
+    }
+
+    /**
+     * Converts a binary file back to a results file.
+     * @param binaryPath the path of the binary file
+     * @param textPath the path of the results file
+     * @return the number of records
+     * @throws IOException if a file couldn't be read or written
+     */
+    public static int writeText(String binaryPath, String textPath) throws IOException {
+        Reader reader = new Reader(binaryPath);
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(textPath)));
+        writer.print(header);
+        int records = 0;
+        while (reader.next()) {
+            writer.print(reader.toLine());
+            records++;
+        }
+
+        reader.close();
+        writer.close();
+        return records;
+    }
+
+    /**
+     * Reads the fields of the next proposition of a results file, skipping comments.
+     * @param reader the reader of the results file
+     * @return the fields; null at the end of the file
+     * @throws IOException if the file couldn't be read
+     * @throws IllegalArgumentException if the line isn't valid according to <code>Extraction.split</code>
+     */
+    private static String[] readFields(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        while (line != null && line.startsWith("#")) {
+            line = reader.readLine();
+        }
+
+        // the results end at the first empty line
+        if (line == null || line.equals("")) {
+            return null;
+        }
+
+        return Extraction.split(line);
+    }
+
+    /**
+     * Returns the terms of a field as they are stored in the dictionary.
+     * @param field the field
+     * @param isList if the field is a list, i.e. the prepositional objects or the cause bag-of-words
+     * @return the terms
+     */
+    private static List<String> getTerms(String field, boolean isList) {
+        if (!isList) {
+            return Collections.singletonList(field);
+        }
+
+        switch (getListKind(field)) {
+            case emptyList:
+                return Collections.emptyList();
+            case rawList:
+                return Collections.singletonList(field);
+            default:
+                return Arrays.asList(field.substring(1, field.length() - 1).split(", ", -1));
+        }
+    }
+
+    private static int getListKind(String field) {
+        if (field.length() == 0) {
+            return emptyList;
+        }
+
+        return field.length() >= 2 && field.startsWith("[") && field.endsWith("]") ? bracketList : rawList;
+    }
+
+    /**
+     * Writes a block of records column by column.
+     * @param out the output stream of the binary file
+     * @param block the fields of the records
+     * @param emotionCodes key: emotion. Value: its code.
+     * @param termCodes key: term. Value: its code.
+     * @throws IOException if the block couldn't be written
+     */
+    private static void writeBlock(DataOutputStream out, List<String[]> block, Map<String, Integer> emotionCodes,
+                                   Map<String, Integer> termCodes) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(block.size() * 64);
+        for (String[] fields : block) {
+            writeString(bytes, fields[0]);
+        }
+        for (String[] fields : block) {
+            bytes.write(emotionCodes.get(fields[1]));
+        }
+        for (int i = 2; i < 8; i++) {
+            for (String[] fields : block) {
+                writeVarint(bytes, termCodes.get(fields[i]));
+            }
+        }
+        for (int i = 8; i < fieldCount; i++) {
+            for (String[] fields : block) {
+                int kind = getListKind(fields[i]);
+                List<String> terms = getTerms(fields[i], true);
+                writeVarint(bytes, kind == bracketList ? bracketList + terms.size() : kind);
+                for (String term : terms) {
+                    writeVarint(bytes, termCodes.get(term));
+                }
+            }
+        }
+
+        out.writeInt(block.size());
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeString(OutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads the records of a binary file one at a time. Only the block of the current record is held in memory. The
+     * codes of the current record can be read without building any strings; the terms are shared by all records.
+     */
+    public static class Reader implements Closeable {
+
+        private final DataInputStream in;
+
+        private final String[] emotions;
+
+        private final String[] terms;
+
+        // the columns of the current block
+
+        private String[] ids = new String[0];
+
+        private int[] emotionCodes = new int[0];
+
+        /**
+         * The codes of the pattern, the emotion holder, the NP cause, and the subject, predicate, and direct object of
+         * the S cause of each record.
+         */
+        private int[][] termColumns = new int[6][0];
+
+        /**
+         * The kinds of the prepositional objects and the cause bag-of-words of each record.
+         */
+        private int[][] listKinds = new int[2][0];
+
+        /**
+         * The list of record i consists of the codes from listOffsets[i] to listOffsets[i + 1] - 1.
+         */
+        private int[][] listOffsets = new int[2][1];
+
+        private int[][] listCodes = new int[2][0];
+
+        /**
+         * The bytes of the current block.
+         */
+        private byte[] buffer = new byte[0];
+
+        /**
+         * The position in the bytes of the current block.
+         */
+        private int position;
+
+        /**
+         * The number of records of the current block.
+         */
+        private int recordCount = 0;
+
+        /**
+         * The index of the current record in the block.
+         */
+        private int record = -1;
+
+        /**
+         * Opens a binary file and reads its header.
+         * @param path the path of the binary file
+         * @throws IOException if the file couldn't be read or is not in the binary format
+         */
+        public Reader(String path) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16));
+            if (in.readInt() != magic) {
+                in.close();
+                throw new IOException(String.format("%s is not a binary proposition store.", path));
+            }
+
+            emotions = new String[readVarint(in)];
+            for (int i = 0; i < emotions.length; i++) {
+                emotions[i] = readString(in);
+            }
+            terms = new String[readVarint(in)];
+            for (int i = 0; i < terms.length; i++) {
+                terms[i] = readString(in);
+            }
+        }
+
+        /**
+         * Moves to the next record.
+         * @return true if there is a next record; false at the end of the file
+         * @throws IOException if the file couldn't be read
+         */
+        public boolean next() throws IOException {
+            if (++record < recordCount) {
+                return true;
+            }
+
+            if (!readBlock()) {
+                return false;
+            }
+
+            record = 0;
+            return true;
+        }
+
+        /**
+         * Reads the next block and decodes its columns.
+         * @return false at the end of the file
+         * @throws IOException if the file couldn't be read
+         */
+        private boolean readBlock() throws IOException {
+            int count;
+            try {
+                count = in.readInt();
+            }
+            catch (EOFException ex) {
+                recordCount = 0;
+                return false;
+            }
+
+            int length = in.readInt();
+            if (buffer.length < length) {
+                buffer = new byte[length];
+            }
+            in.readFully(buffer, 0, length);
+            position = 0;
+
+            if (ids.length < count) {
+                ids = new String[count];
+                emotionCodes = new int[count];
+                termColumns = new int[termColumns.length][count];
+                listKinds = new int[listKinds.length][count];
+                listOffsets = new int[listOffsets.length][count + 1];
+            }
+            recordCount = count;
+
+            for (int i = 0; i < count; i++) {
+                int size = readVarint();
+                ids[i] = new String(buffer, position, size, "UTF-8");
+                position += size;
+            }
+            for (int i = 0; i < count; i++) {
+                emotionCodes[i] = buffer[position++] & 0xff;
+            }
+            for (int[] column : termColumns) {
+                for (int i = 0; i < count; i++) {
+                    column[i] = readVarint();
+                }
+            }
+            for (int list = 0; list < listKinds.length; list++) {
+                int offset = 0;
+                for (int i = 0; i < count; i++) {
+                    int kind = readVarint();
+                    int size = kind == emptyList ? 0 : kind == rawList ? 1 : kind - bracketList;
+                    listKinds[list][i] = Math.min(kind, bracketList);
+                    listOffsets[list][i] = offset;
+                    if (listCodes[list].length < offset + size) {
+                        listCodes[list] = Arrays.copyOf(listCodes[list], Math.max(offset + size, 2 * listCodes[list].length));
+                    }
+                    for (int j = 0; j < size; j++) {
+                        listCodes[list][offset++] = readVarint();
+                    }
+                }
+                listOffsets[list][count] = offset;
+            }
+
+            return true;
+        }
+
+        private int readVarint() {
+            int value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = buffer[position++];
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            return value;
+        }
+
+        public String getId() {
+            return ids[record];
+        }
+
+        public int getEmotionCode() {
+            return emotionCodes[record];
+        }
+
+        public String getEmotion() {
+            return emotions[emotionCodes[record]];
+        }
+
+        public int getPatternCode() {
+            return termColumns[0][record];
+        }
+
+        public int getEmotionHolderCode() {
+            return termColumns[1][record];
+        }
+
+        public int getNPCauseCode() {
+            return termColumns[2][record];
+        }
+
+        public int getSubjSCauseCode() {
+            return termColumns[3][record];
+        }
+
+        public int getPredSCauseCode() {
+            return termColumns[4][record];
+        }
+
+        public int getDobjSCauseCode() {
+            return termColumns[5][record];
+        }
+
+        /**
+         * Returns the codes of the prepositional objects of the S cause of the current record.
+         * @return the codes; empty if there are none
+         */
+        public int[] getPobjCodes() {
+            return getListCodes(0);
+        }
+
+        /**
+         * Returns the codes of the words of the cause bag-of-words of the current record.
+         * @return the codes; empty if there are none
+         */
+        public int[] getCauseBoWCodes() {
+            return getListCodes(1);
+        }
+
+        private int[] getListCodes(int list) {
+            return Arrays.copyOfRange(listCodes[list], listOffsets[list][record], listOffsets[list][record + 1]);
+        }
+
+        /**
+         * Returns the term of a code.
+         * @param code the code
+         * @return the term
+         */
+        public String getTerm(int code) {
+            return terms[code];
+        }
+
+        /**
+         * Returns the number of terms in the dictionary.
+         * @return the number of terms
+         */
+        public int getTermCount() {
+            return terms.length;
+        }
+
+        public String[] getEmotions() {
+            return emotions.clone();
+        }
+
+        /**
+         * Returns the prepositional objects of the S cause of the current record as they are in the results file.
+         * @return the prepositional objects in the format [pobj1, pobj2, ...]; can be empty
+         */
+        public String getPobjsString() {
+            return getListString(0);
+        }
+
+        /**
+         * Returns the cause bag-of-words of the current record as it is in the results file.
+         * @return the bag-of-words in the format [word1, word2, ...]
+         */
+        public String getCauseBoWString() {
+            return getListString(1);
+        }
+
+        /**
+         * Rebuilds a list field of the current record as it is in the results file.
+         * @param list the list field; 0 for the prepositional objects, 1 for the cause bag-of-words
+         * @return the field
+         */
+        private String getListString(int list) {
+            int start = listOffsets[list][record];
+            int end = listOffsets[list][record + 1];
+            switch (listKinds[list][record]) {
+                case emptyList:
+                    return "";
+                case rawList:
+                    return terms[listCodes[list][start]];
+                default:
+                    StringBuilder sb = new StringBuilder("[");
+                    for (int i = start; i < end; i++) {
+                        if (i > start) {
+                            sb.append(", ");
+                        }
+                        sb.append(terms[listCodes[list][i]]);
+                    }
+                    return sb.append("]").toString();
+            }
+        }
+
+        /**
+         * Returns the current record as an <code>Extraction</code>.
+         * @return the extraction
+         */
+        public Extraction toExtraction() {
+            return new Extraction(getId(), getEmotion(), terms[getPatternCode()], terms[getEmotionHolderCode()],
+                    terms[getNPCauseCode()], terms[getSubjSCauseCode()], terms[getPredSCauseCode()],
+                    terms[getDobjSCauseCode()], getListString(0), getListString(1));
+        }
+
+        /**
+         * Returns the current record as a line of a results file.
+         * @return the line, ending with a newline
+         */
+        public String toLine() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(getId()).append('\t').append(getEmotion());
+            for (int[] column : termColumns) {
+                sb.append('\t').append(terms[column[record]]);
+            }
+            sb.append('\t').append(getListString(0)).append('\t').append(getListString(1)).append('\n');
+            return sb.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private static int readVarint(DataInputStream in) throws IOException {
+            int value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = in.readUnsignedByte();
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            return value;
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[readVarint(in)];
+            in.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        }
+    }
+}
@@ -1,5 +1,6 @@
 import java.io.*;
 import java.util.*;
+import java.util.logging.Logger;
 
 /**
  * Class to remove duplicates from results, i.e. extractions that are equal except for their id.
@@ -8,6 +9,43 @@ import java.util.*;
  */
 public class ResultsCleaner {
 
+    private static Logger log = Logger.getLogger(ResultsCleaner.class.getName());
+
+    /**
+     * The number of buckets into which the lines are partitioned for deduplication.
+     */
+    private static final int bucketCount = 64;
+
+    /**
+     * Identifies duplicate extractions by the fields that are compared by <code>Extraction.equals</code>, i.e. all
+     * except for the id. Malformed lines are dropped.
+     */
+    private static final Deduplicator.KeyFunction extractionKey = new Deduplicator.KeyFunction() {
+        @Override
+        public String getKey(String line) {
+            try {
+                return new Extraction(line).getKey();
+            }
+            catch (IllegalArgumentException ex) {
+                log.warning(String.format("Dropped malformed line: %s", line));
+                return null;
+            }
+        }
+    };
+
+    /**
+     * Identifies duplicate collocations by their sentence.
+     */
+    private static final Deduplicator.KeyFunction sentenceKey = new Deduplicator.KeyFunction() {
+        @Override
+        public String getKey(String line) {
+            String[] lineSplit = line.split("\t");
+
+            // there is one erroneous line without an id; skip that one
+            return lineSplit.length < 2 ? null : lineSplit[1];
+        }
+    };
+
     /**
      * Main method for removing duplicates.
      * @param args the file whose duplicates should be removed
@@ -18,65 +56,64 @@ public class ResultsCleaner {
         String dir = "/home/sebastian/git/sentiment_analysis/out/";
 
         args = new String[] { Utils.combine(dir, "results_final/collocations.txt") };
-        //List<String> idList = removeDuplicatesWithCollocations(args[0]);
-        //writeWithoutDuplicates(Utils.combine(dir, "results.txt"), Utils.combine(dir, "results_cleaned.txt"), idList);
-        removePatterns(Utils.combine(dir, "results_cleaned.txt"), Utils.combine(dir, "results_cleaned_removed.txt"));
+        //removeDuplicates(Utils.combine(dir, "results.txt"), Utils.combine(dir, "results_cleaned.txt"));
+        //Set<String> idSet = removeDuplicatesWithCollocations(args[0]);
+        //writeWithoutDuplicates(Utils.combine(dir, "results.txt"), Utils.combine(dir, "results_cleaned.txt"), idSet);
+        PatternBlacklist blacklist = PatternBlacklist.read(new File(Utils.combine(dir, "patterns/" + PatternBlacklist.fileName)));
+        removePatterns(Utils.combine(dir, "results_cleaned.txt"), Utils.combine(dir, "results_cleaned_removed.txt"), blacklist);
     }
 
     /**
-     * Remove patterns that have been identified as erroneous.
+     * Remove patterns that have been identified as erroneous, i.e. that contain a lemma of the pattern blacklist, in a
+     * single pass over a results file or a binary file created by the <code>PropositionStore</code>. The results are
+     * written in the text format. The blacklist can also be passed to <code>ResultsReader.streamResults</code>, which
+     * skips these patterns while reading, so that the results don't need to be rewritten.
      * @param oldFilePath the path to the old results file
      * @param newFilePath the path to the new results file
+     * @param blacklist the blacklist of the lemmas of erroneous patterns
      * @throws IOException
      */
-    private static void removePatterns(String oldFilePath, String newFilePath) throws IOException {
-
-        List<String> patterns = new ArrayList<String> (Arrays.asList("depress", "aggravate", "rattle", "afflict", "inflame"));
-
-        // clean-up file before adding to it
-        File file = new File(newFilePath);
-        file.delete();
-        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(newFilePath, true)));
+    private static void removePatterns(String oldFilePath, String newFilePath, PatternBlacklist blacklist)
+            throws IOException {
 
-        BufferedReader reader = new BufferedReader(new FileReader(oldFilePath));
-        String line = reader.readLine();
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(newFilePath)));
+        ResultsReader.ExtractionIterator extractions = ResultsReader.streamResults(oldFilePath, false, blacklist);
         int i = 0;
-        while (line != null && !line.equals("")) {
-
-            if (line.startsWith("#")) {
-                line = reader.readLine();
-                continue;
-            }
-
-            String pattern = line.split("\t")[2];
-            boolean containsPattern = false;
-            for (String removePattern : patterns) {
-                if (Arrays.asList(pattern.split(" ")).contains(removePattern)) {
-                    containsPattern = true;
-                }
-            }
-
-            if (!containsPattern) {
-                writer.println(line);
+        try {
+            for (Extraction extraction : extractions) {
+                writer.print(extraction);
                 if (++i % 1000 == 0) {
                     System.out.println("Line #" + i);
                 }
             }
-
-            line = reader.readLine();
         }
+        finally {
+            extractions.close();
+            writer.close();
+        }
+    }
 
-        writer.close();
+    /**
+     * Removes duplicate extractions, i.e. extractions that are equal except for their id, from a results file. The first
+     * occurrence of each extraction is kept in its original place. The file is deduplicated on disk and in parallel, so
+     * that it can be larger than memory.
+     * @param oldFilePath the path to the old results file
+     * @param newFilePath the path to the new results file
+     * @throws IOException if a file couldn't be read or written
+     */
+    private static void removeDuplicates(String oldFilePath, String newFilePath) throws IOException {
+        Deduplicator deduplicator = new Deduplicator(extractionKey, bucketCount, Runtime.getRuntime().availableProcessors());
+        deduplicator.deduplicate(oldFilePath, newFilePath);
     }
 
     /**
-     * Writes the propositions corresponding to a list of ids with unique propositions to a file.
+     * Writes the propositions corresponding to a set of ids with unique propositions to a file.
      * @param oldFilePath the path to the old results file
      * @param newFilePath the path to the new results file
-     * @param idList the list of ids with unique propositions
+     * @param idSet the set of ids with unique propositions
      * @throws IOException
      */
-    private static void writeWithoutDuplicates(String oldFilePath, String newFilePath, List<String> idList) throws IOException {
+    private static void writeWithoutDuplicates(String oldFilePath, String newFilePath, Set<String> idSet) throws IOException {
 
         // clean-up file before adding to it
         File file = new File(newFilePath);
@@ -94,7 +131,7 @@ public class ResultsCleaner {
             }
 
             String id = line.split("\t")[0];
-            if (idList.contains(id)) {
+            if (idSet.contains(id)) {
                 writer.println(line);
                 if (++i % 1000 == 0) {
                     System.out.println("Line #" + ++i);
@@ -108,42 +145,29 @@ public class ResultsCleaner {
     }
 
     /**
-     * Uses the collocations to identify unique propositions. Stores their ids in a list of strings.
+     * Uses the collocations to identify unique propositions. The last id of each sentence is kept; the sentences are
+     * deduplicated on disk, so that only the ids are held in memory.
      * @param filePath the path to the collocations file
-     * @return a list of ids of unique propositions
+     * @return a set of ids of unique propositions
      * @throws IOException
      */
-    private static List<String> removeDuplicatesWithCollocations(String filePath) throws IOException {
+    private static Set<String> removeDuplicatesWithCollocations(String filePath) throws IOException {
 
-        Map<String, String> sentenceIdMap = new HashMap<String, String>();
+        String uniqueFilePath = filePath + ".unique";
+        Deduplicator deduplicator = new Deduplicator(sentenceKey, bucketCount, Runtime.getRuntime().availableProcessors(),
+                true);
+        deduplicator.deduplicate(filePath, uniqueFilePath);
 
-        BufferedReader reader = new BufferedReader(new FileReader(filePath));
+        Set<String> idSet = new HashSet<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(uniqueFilePath));
         String line = reader.readLine();
-        while (line != null && !line.equals("")) {
-
-            // skip lines that don't list the id and the sentence, e.g. #1 Emotion: 'trust' ...
-            if (line.startsWith("#")) {
-                line = reader.readLine();
-                continue;
-            }
-
-            String id = line.split("\t")[0];
-            try {
-                String sentence = line.split("\t")[1];
-                sentenceIdMap.put(sentence, id);
-            }
-            catch (ArrayIndexOutOfBoundsException ex){
-                // there is one erroneous line without an id; skip that one
-            }
-
+        while (line != null) {
+            idSet.add(line.split("\t")[0]);
             line = reader.readLine();
         }
 
-        List<String> idList = new ArrayList<String>();
-        for (String sentence : sentenceIdMap.keySet()) {
-            idList.add(sentenceIdMap.get(sentence));
-        }
-
-        return idList;
+        reader.close();
+        new File(uniqueFilePath).delete();
+        return idSet;
     }
 }
@@ -1,5 +1,6 @@
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
@@ -10,11 +11,6 @@ import sun.reflect.generics.reflectiveObjects.NotImplementedException;
  */
 public class ResultsReader {
 
-    /**
-     * List to store extractions.
-     */
-    private static List<Extraction> extractions;
-
     /**
      * Directory where scores are saved
      */
@@ -22,6 +18,33 @@ public class ResultsReader {
 
     private static int topN = 50;
 
+    /**
+     * The number of top-scoring ngrams of each emotion that are written to a score file and of expressions that are
+     * written to a sentiment file. Integer.MAX_VALUE writes all of them, so that the files are a complete lexicon; a
+     * smaller value, e.g. 10000 as the visualizer reads at most the top 10,000, keeps only the top of each file.
+     */
+    private static int scoreFileSize = Integer.MAX_VALUE;
+
+    /**
+     * The number of expressions with the highest aggregated scores that are written to an overlap file.
+     */
+    private static int overlapFileSize = 1000;
+
+    /**
+     * The number of threads that count the frequencies of the extractions.
+     */
+    private static int countingThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The number of combinations of metric, ngram, and ngram source that are scored at the same time.
+     */
+    private static int scoringThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The maximum number of files that the scoring threads keep open at the same time.
+     */
+    private static int maxOpenFiles = 16;
+
     /**
      * Key: Expression in NRC Emotion Lexicon. Value: Array of booleans in order of Enums.Emotions indicating if the
      * expression is associated with that emotion.
@@ -34,6 +57,11 @@ public class ResultsReader {
      */
     private static boolean writeNRCOverlap = true;
 
+    /**
+     * The prepositions that are removed from the end of patterns when patterns are normalized.
+     */
+    private static List<String> prepositions = Arrays.asList("that", "about", "of", "by", "on", "for");
+
     /**
      * Main method to read in an extraction file and calculate association metrics and write files per emotion
      * sorted by association metric.
@@ -43,31 +71,59 @@ public class ResultsReader {
     public static void main(String[] args) throws IOException {
 
         args = new String[] { "/home/sebastian/git/sentiment_analysis/out/results_cleaned_removed.txt" };
-        extractions = readResults(args[0], false);
         if (writeNRCOverlap) {
             emotionLexicon = readNRCEmotionLexicon("/home/sebastian/git/sentiment_analysis/NRC-Emotion-Lexicon-v0.92/NRC_emotion_lexicon_list.txt");
         }
 
+        // erroneous patterns are skipped while reading, so that the results don't need to be rewritten to remove them
+        PatternBlacklist blacklist = PatternBlacklist.read(
+                new File("/home/sebastian/git/sentiment_analysis/out/patterns/" + PatternBlacklist.fileName));
+
         Analyzer analyzer = new Analyzer("/home/sebastian/git/sentiment_analysis/out/stop_words.txt");
-        analyzer.countFrequencies(extractions);
+        analyzer.countFrequencies(streamResults(args[0], false, blacklist), countingThreads);
+
+        scoreAll(analyzer, scoringThreads, maxOpenFiles);
+    }
 
+    /**
+     * Scores all combinations of metric, ngram, and ngram source in parallel and writes their score, overlap, and
+     * sentiment files. The combinations are independent once the frequencies have been counted: they only read the
+     * contingency tables of the analyzer, which mustn't count any more extractions in the meantime, and write their own
+     * files. The largest combinations are started first, so that scoring takes about as long as the slowest one.
+     * @param analyzer the analyzer whose frequencies have been counted
+     * @param threads the number of combinations that are scored at the same time
+     * @param maxOpenFiles the maximum number of files that are open at the same time; at least the number of emotions
+     * @throws IOException if a metric directory doesn't exist or a file couldn't be written
+     */
+    public static void scoreAll(Analyzer analyzer, int threads, int maxOpenFiles) throws IOException {
+
+        // the score files of all emotions of a combination are open at the same time
+        if (maxOpenFiles < Enums.Emotions.values().length) {
+            throw new IllegalArgumentException(String.format("At least %d files have to be open at the same time.",
+                    Enums.Emotions.values().length));
+        }
+
+        // the directories are cleaned before any combination writes to them
         for (Enums.Metric metricEnum : Enums.Metric.values()) {
-            String metric = metricEnum.toString();
 
             // check if metric directory exists
-            File metricDir = new File(Utils.combine(dir, metric));
+            File metricDir = new File(Utils.combine(dir, metricEnum.toString()));
             if (!metricDir.isDirectory()) {
                 throw new IOException(metricDir + " is not a directory.");
             }
 
             Utils.cleanDirectory(metricDir.getPath(), "*");
+        }
+
+        Semaphore openFiles = new Semaphore(maxOpenFiles);
+        List<ScoringTask> tasks = new ArrayList<ScoringTask>();
+        for (Enums.Metric metricEnum : Enums.Metric.values()) {
 
             // if (metricEnum.equals(Enums.Metric.chi_square)) continue;
 
             for (Enums.Ngram ngramEnum : Enums.Ngram.values()) {
 
                 // if (ngramEnum.equals(Enums.Ngram.unigram)) continue;
-                String ngram = ngramEnum.toString();
                 for (Enums.NgramSource ngramSource : Enums.NgramSource.values()) {
 
                     // no unigram expressions for combinations of S cause predicate and subject/direct object
@@ -76,40 +132,157 @@ public class ResultsReader {
                         continue;
                     }
 
-                    Map<String, Double> map;
-                    switch (metricEnum) {
-                        case pmi:
-                            map = analyzer.calculatePMI(ngramSource, ngramEnum);
-                            break;
-                        case chi_square:
-                            map = analyzer.calculateChiSquare(ngramSource, ngramEnum);
-                            break;
-                        default:
-                            throw new NotImplementedException();
-                    }
+                    tasks.add(new ScoringTask(analyzer, metricEnum, ngramEnum, ngramSource, openFiles));
+                }
+            }
+        }
 
-                    map = Extensions.sortByValue(map, true);
-                    System.out.printf("metric: %s, ngram: %s, ngram type: %s\n", metric, ngram, ngramSource.toString());
+        // the work of a combination is roughly proportional to the number of cells of its contingency table
+        Collections.sort(tasks, new Comparator<ScoringTask>() {
+            @Override
+            public int compare(ScoringTask o1, ScoringTask o2) {
+                return o1.cellCount < o2.cellCount ? 1 : o1.cellCount > o2.cellCount ? -1 : 0;
+            }
+        });
 
-                    if (ngramSource.equals(Enums.NgramSource.np_cause) || ngramSource.equals(Enums.NgramSource.s_cause_pred_dobj)
-                            || ngramSource.equals(Enums.NgramSource.emotion_holder) || ngramSource.equals(Enums.NgramSource.s_cause_subj_pred)) {
-                        writeScoreFiles(map, metricEnum, ngramEnum, ngramSource, writeNRCOverlap, metricDir.getPath(), emotionLexicon);
-                    }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (ScoringTask task : tasks) {
+                futures.add(executor.submit(task));
+            }
 
-                    Map<String, Map<String, Double>> overlapMap =
-                            analyzer.calculcateEmotionOverlap(ngramSource, ngramEnum, map);
-                    overlapMap = Extensions.sortByAggregatedValue(overlapMap, true);
+            for (int i = 0; i < tasks.size(); i++) {
+                try {
+                    futures.get(i).get();
+                }
+                catch (InterruptedException ex) {
+                    throw new IOException(String.format("Interrupted while scoring %s.", tasks.get(i)), ex);
+                }
+                catch (ExecutionException ex) {
+                    throw new IOException(String.format("Error while scoring %s.", tasks.get(i)), ex.getCause());
+                }
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
 
-                    String overlapFileName = String.format("%s_%s_%s.overlap", metric, ngram, ngramSource.toString());
+    /**
+     * Scores a combination of metric, ngram, and ngram source.
+     */
+    private static class ScoringTask implements Callable<Void> {
 
-                    if (ngramSource.equals(Enums.NgramSource.np_cause)) {
-                        writeEmotionOverlapMap(overlapMap, Utils.combine(metricDir.getPath(), overlapFileName));
-                    }
+        private final Analyzer analyzer;
 
-                    String sentimentFile = String.format("%s_%s_%s", metricEnum.toString(), ngramEnum.toString(), ngramSource.toString());
-                    writeSentiment(overlapMap, Utils.combine(metricDir.getPath(), sentimentFile));
-                }
+        private final Enums.Metric metricEnum;
+
+        private final Enums.Ngram ngramEnum;
+
+        private final Enums.NgramSource ngramSource;
+
+        private final Semaphore openFiles;
+
+        /**
+         * The number of cells of the contingency table of the ngram source and ngram.
+         */
+        private final int cellCount;
+
+        private ScoringTask(Analyzer analyzer, Enums.Metric metricEnum, Enums.Ngram ngramEnum,
+                            Enums.NgramSource ngramSource, Semaphore openFiles) {
+            this.analyzer = analyzer;
+            this.metricEnum = metricEnum;
+            this.ngramEnum = ngramEnum;
+            this.ngramSource = ngramSource;
+            this.openFiles = openFiles;
+            this.cellCount = analyzer.getContingencyTable(ngramSource, ngramEnum).getCellCount();
+        }
+
+        @Override
+        public Void call() throws IOException, InterruptedException {
+            score(analyzer, metricEnum, ngramEnum, ngramSource, openFiles);
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("metric: %s, ngram: %s, ngram type: %s", metricEnum, ngramEnum, ngramSource);
+        }
+    }
+
+    /**
+     * Scores a combination of metric, ngram, and ngram source and writes its score, overlap, and sentiment files.
+     * @param analyzer the analyzer whose frequencies have been counted
+     * @param metricEnum the metric
+     * @param ngramEnum unigram or bigram
+     * @param ngramSource the ngram source
+     * @param openFiles a permit for each file that may be opened
+     * @throws IOException if a file couldn't be written
+     * @throws InterruptedException if the thread was interrupted while waiting for a file
+     */
+    private static void score(Analyzer analyzer, Enums.Metric metricEnum, Enums.Ngram ngramEnum,
+                              Enums.NgramSource ngramSource, Semaphore openFiles) throws IOException, InterruptedException {
+
+        String metric = metricEnum.toString();
+        String ngram = ngramEnum.toString();
+        String metricDir = Utils.combine(dir, metric);
+
+        Map<String, Double> map;
+        switch (metricEnum) {
+            case pmi:
+                map = analyzer.calculatePMI(ngramSource, ngramEnum);
+                break;
+            case chi_square:
+                map = analyzer.calculateChiSquare(ngramSource, ngramEnum);
+                break;
+            default:
+                throw new NotImplementedException();
+        }
+
+        System.out.printf("metric: %s, ngram: %s, ngram type: %s\n", metric, ngram, ngramSource.toString());
+
+        // the score file of each emotion is open until all of them have been written
+        if (ngramSource.equals(Enums.NgramSource.np_cause) || ngramSource.equals(Enums.NgramSource.s_cause_pred_dobj)
+                || ngramSource.equals(Enums.NgramSource.emotion_holder) || ngramSource.equals(Enums.NgramSource.s_cause_subj_pred)) {
+            Map<String, Map<String, Double>> emotionMaps =
+                    Extensions.topByValuePerGroup(map, "\t", scoreFileSize, true);
+            openFiles.acquire(emotionMaps.size());
+            try {
+                writeScoreFiles(emotionMaps, metricEnum, ngramEnum, ngramSource, writeNRCOverlap, metricDir,
+                        emotionLexicon);
             }
+            finally {
+                openFiles.release(emotionMaps.size());
+            }
+        }
+
+        // the overlap only looks up the scores, so the map doesn't need to be sorted
+        Map<String, Map<String, Double>> overlapMap =
+                analyzer.calculcateEmotionOverlap(ngramSource, ngramEnum, map);
+
+        String overlapFileName = String.format("%s_%s_%s.overlap", metric, ngram, ngramSource.toString());
+
+        // the overlap map is written to three files
+        if (ngramSource.equals(Enums.NgramSource.np_cause)) {
+            openFiles.acquire(3);
+            try {
+                writeEmotionOverlapMap(Extensions.topByAggregatedValue(overlapMap, overlapFileSize, true),
+                        Utils.combine(metricDir, overlapFileName));
+            }
+            finally {
+                openFiles.release(3);
+            }
+        }
+
+        // the sentiment is written to a positive and a negative file
+        String sentimentFile = String.format("%s_%s_%s", metricEnum.toString(), ngramEnum.toString(), ngramSource.toString());
+        openFiles.acquire(2);
+        try {
+            writeSentiment(overlapMap, Utils.combine(metricDir, sentimentFile));
+        }
+        finally {
+            openFiles.release(2);
         }
     }
 
@@ -140,8 +313,8 @@ public class ResultsReader {
             negMap.put(expression, negScore);
         }
 
-        posMap = Extensions.sortByValue(posMap, true);
-        negMap = Extensions.sortByValue(negMap, true);
+        posMap = Extensions.topByValue(posMap, scoreFileSize, true);
+        negMap = Extensions.topByValue(negMap, scoreFileSize, true);
         PrintWriter posWriter = new PrintWriter(new BufferedWriter(new FileWriter(fileName + ".pos")));
         PrintWriter negWriter = new PrintWriter(new BufferedWriter(new FileWriter(fileName + ".neg")));
 
@@ -159,8 +332,8 @@ public class ResultsReader {
 
     /**
      * Writes ngrams that have high assocation metric scores across several emotions in csv format.
-     * Note: At the moment cuts off after the top 1000 expressions.
-     * @param overlapMap key: expression; value: map with key: emotion; value: score.
+     * @param overlapMap key: expression; value: map with key: emotion; value: score. Sorted by aggregated score, e.g.
+     *                   the top expressions selected by <code>Extensions.topByAggregatedValue</code>
      * @param fileName the name of the file the output should be saved as
      * @throws IOException if an error occurred during writing
      */
@@ -192,7 +365,6 @@ public class ResultsReader {
 
         Map<String, Double> ngramTotalMap = new HashMap<String, Double>();
 
-        int count = 0;
         for (Map.Entry<String, Map<String, Double>> entry : overlapMap.entrySet()) {
             double posScore = 0;
             double negScore = 0;
@@ -230,12 +402,9 @@ public class ResultsReader {
             }
 
             posNegWriter.printf(Locale.US, "%.2f,%.2f,%.2f", posScore, negScore, neuScore);
-
-            if (count++ > 1000) break;
         }
 
         // write percent overlap as well
-        count = 0;
         for (Map.Entry<String, Map<String, Double>> entry : overlapMap.entrySet()) {
             String ngram = entry.getKey();
             percentWriter.printf("\n%s,", ngram);
@@ -254,8 +423,6 @@ public class ResultsReader {
                     percentWriter.print("0.00");
                 }
             }
-
-            if (count++ > 1000) break;
         }
 
         writer.close();
@@ -265,7 +432,8 @@ public class ResultsReader {
 
     /**
      * Writes the ngrams of an association map to one file per emotion, sorted by association score.
-     * @param map key: emotion tab ngram; value: association score
+     * @param emotionMaps key: emotion; value: map with key: ngram; value: association score, sorted by association
+     *                    score, e.g. the top ngrams of each emotion selected by <code>Extensions.topByValuePerGroup</code>
      * @param metricEnum the association metric that was used (pmi, chi-square)
      * @param ngramEnum the ngram that was used (unigram, bigram)
      * @param ngramSourceEnum the ngram type that was used
@@ -273,60 +441,73 @@ public class ResultsReader {
      * @param dir the directory that the files should be written to
      * @throws IOException if the directory was not found
      */
-    private static void writeScoreFiles(Map<String, Double> map, Enums.Metric metricEnum, Enums.Ngram ngramEnum,
-                                        Enums.NgramSource ngramSourceEnum, boolean writeNRCOverlap, String dir,
-                                        Map<String, Boolean[]> emotionLexicon) throws IOException {
-
-        for (Map.Entry<String, Double> entry: map.entrySet()) {
-            String emotion = entry.getKey().split("\t")[0];
-            String ngram = entry.getKey().split("\t")[1];
-            String fileName =  String.format("%s_%s_%s_%s.txt", emotion, metricEnum.toString(), ngramEnum.toString(), ngramSourceEnum.toString());
-            PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(Utils.combine(dir, fileName), true)));
-
-            if (writeNRCOverlap) {
-                String overlap = "NA";
-                String overlapWithSentiment = "NA";
-                boolean isAssociated = false;
-                boolean isAssociatedWithSentiment = false;
-                Enums.Sentiment sentiment = Enums.emotionToSentiment(Enums.Emotions.valueOf(emotion));
-                if (ngramEnum.equals(Enums.Ngram.unigram)) {
-                    if (emotionLexicon.containsKey(ngram)) {
-                        isAssociated |= emotionLexicon.get(ngram)[Enums.Emotions.valueOf(emotion).ordinal()];
-                        overlap = isAssociated ? "TRUE" : "FALSE";
-
-                        // only check association with sentiment for clearly positive or negative emotions
-                        if (sentiment.equals(Enums.Sentiment.positive) || sentiment.equals(Enums.Sentiment.negative)) {
-                            isAssociatedWithSentiment |= emotionLexicon.get(ngram)[sentiment.ordinal() + 8];
-                            overlapWithSentiment = isAssociatedWithSentiment ? "TRUE" : "FALSE";
+    private static void writeScoreFiles(Map<String, Map<String, Double>> emotionMaps, Enums.Metric metricEnum,
+                                        Enums.Ngram ngramEnum, Enums.NgramSource ngramSourceEnum,
+                                        boolean writeNRCOverlap, String dir, Map<String, Boolean[]> emotionLexicon)
+            throws IOException {
+
+        // each score file is written by one writer and replaced once all of them have been written
+        ScoreFileSink sink = new ScoreFileSink(dir, metricEnum, ngramEnum, ngramSourceEnum);
+        boolean isWritten = false;
+        try {
+            for (Map.Entry<String, Map<String, Double>> emotionEntry : emotionMaps.entrySet()) {
+                String emotion = emotionEntry.getKey();
+                PrintWriter writer = sink.getWriter(emotion);
+                for (Map.Entry<String, Double> entry: emotionEntry.getValue().entrySet()) {
+                    String ngram = entry.getKey();
+
+                    if (writeNRCOverlap) {
+                        String overlap = "NA";
+                        String overlapWithSentiment = "NA";
+                        boolean isAssociated = false;
+                        boolean isAssociatedWithSentiment = false;
+                        Enums.Sentiment sentiment = Enums.emotionToSentiment(Enums.Emotions.valueOf(emotion));
+                        if (ngramEnum.equals(Enums.Ngram.unigram)) {
+                            if (emotionLexicon.containsKey(ngram)) {
+                                isAssociated |= emotionLexicon.get(ngram)[Enums.Emotions.valueOf(emotion).ordinal()];
+                                overlap = isAssociated ? "TRUE" : "FALSE";
+
+                                // only check association with sentiment for clearly positive or negative emotions
+                                if (sentiment.equals(Enums.Sentiment.positive) || sentiment.equals(Enums.Sentiment.negative)) {
+                                    isAssociatedWithSentiment |= emotionLexicon.get(ngram)[sentiment.ordinal() + 8];
+                                    overlapWithSentiment = isAssociatedWithSentiment ? "TRUE" : "FALSE";
+                                }
+                            }
                         }
-                    }
-                }
-                else if (ngramEnum.equals(Enums.Ngram.bigram)) {
+                        else if (ngramEnum.equals(Enums.Ngram.bigram)) {
 
-                    for (String unigram : ngram.split(" ")) {
-                        if (unigram.contains(":")) {
-                            unigram = unigram.split(":")[0];
-                        }
+                            for (String unigram : ngram.split(" ")) {
+                                if (unigram.contains(":")) {
+                                    unigram = unigram.split(":")[0];
+                                }
 
-                        if (emotionLexicon.containsKey(unigram)) {
-                            isAssociated |= emotionLexicon.get(unigram)[Enums.Emotions.valueOf(emotion).ordinal()];
-                            overlap = isAssociated ? "TRUE" : "FALSE";
+                                if (emotionLexicon.containsKey(unigram)) {
+                                    isAssociated |= emotionLexicon.get(unigram)[Enums.Emotions.valueOf(emotion).ordinal()];
+                                    overlap = isAssociated ? "TRUE" : "FALSE";
 
-                            // only check association with sentiment for clearly positive or negative emotions
-                            if (sentiment.equals(Enums.Sentiment.positive) || sentiment.equals(Enums.Sentiment.negative)) {
-                                isAssociatedWithSentiment |= emotionLexicon.get(unigram)[sentiment.ordinal() + 8];
-                                overlapWithSentiment = isAssociatedWithSentiment ? "TRUE" : "FALSE";
+                                    // only check association with sentiment for clearly positive or negative emotions
+                                    if (sentiment.equals(Enums.Sentiment.positive) || sentiment.equals(Enums.Sentiment.negative)) {
+                                        isAssociatedWithSentiment |= emotionLexicon.get(unigram)[sentiment.ordinal() + 8];
+                                        overlapWithSentiment = isAssociatedWithSentiment ? "TRUE" : "FALSE";
+                                    }
+                                }
                             }
                         }
+                        writer.printf(Locale.ENGLISH, "%s\t%f\t%s\t%s\n", ngram, entry.getValue(), overlap, overlapWithSentiment);
+                    }
+                    else {
+                        writer.println(ngram + "\t" + entry.getValue());
                     }
                 }
-                writer.printf(Locale.ENGLISH, "%s\t%f\t%s\t%s\n", ngram, entry.getValue(), overlap, overlapWithSentiment);
-            }
-            else {
-                writer.println(ngram + "\t" + entry.getValue());
             }
 
-            writer.close();
+            sink.close();
+            isWritten = true;
+        }
+        finally {
+            if (!isWritten) {
+                sink.discard();
+            }
         }
     }
 
@@ -389,81 +570,254 @@ public class ResultsReader {
     }
 
     /**
-     * Reads extractions from a file and stores them as <code>Extraction</code> in a list.
+     * Reads extractions from a file and stores them as <code>Extraction</code> in a list. Use
+     * <code>streamResults</code> to read them one at a time instead.
      * @param filePath the path to the extraction file
+     * @param normalizePattern if patterns should be modified back to their base form
      * @throws IOException if the file was not found
      */
     public static List<Extraction> readResults(String filePath, boolean normalizePattern) throws IOException {
 
-        BufferedReader reader = new BufferedReader(new FileReader(filePath));
-        String line = reader.readLine();
         List<Extraction> extractions = new ArrayList<Extraction>();
-        int i = 0; // row count
-        while (line != null && !line.equals("")) {
+        for (Extraction extraction : streamResults(filePath, normalizePattern)) {
+            extractions.add(extraction);
+        }
 
-            if (line.startsWith("#")) {
-                line = reader.readLine();
-                continue;
-            }
+        System.out.println("Done");
+        return extractions;
+    }
 
-            //# ID	Emotion	Pattern	Emotion Holder	(NP-Cause)	(Subj S-Cause)	(Pred S-Cause)	(Dobj S-Cause)	[Pobjs S-Cause]	[BoW Cause]
+    /**
+     * Opens a file to read its extractions one at a time, so that only the current extraction is held in memory.
+     * @param filePath the path to the extraction file; either a results file or a binary file created by the
+     *                 <code>PropositionStore</code>, which has the extension .bin
+     * @param normalizePattern if patterns should be modified back to their base form
+     * @return the extractions of the file; can only be iterated over once
+     * @throws IOException if the file was not found
+     */
+    public static ExtractionIterator streamResults(String filePath, boolean normalizePattern) throws IOException {
+        return new ExtractionIterator(filePath, normalizePattern, null);
+    }
 
-            String[] lineSplit = line.split("\t");
+    /**
+     * Opens a file to read its extractions one at a time and skips the extractions of erroneous patterns. The pattern
+     * is checked before the other fields of an extraction are decoded.
+     * @param filePath the path to the extraction file; either a results file or a binary file created by the
+     *                 <code>PropositionStore</code>, which has the extension .bin
+     * @param normalizePattern if patterns should be modified back to their base form
+     * @param blacklist the blacklist of the lemmas of patterns whose extractions should be skipped
+     * @return the extractions of the file; can only be iterated over once
+     * @throws IOException if the file was not found
+     */
+    public static ExtractionIterator streamResults(String filePath, boolean normalizePattern, PatternBlacklist blacklist)
+            throws IOException {
+        return new ExtractionIterator(filePath, normalizePattern, blacklist);
+    }
 
-            try {
-                String id = lineSplit[0];
-                String emotion = lineSplit[1];
-                String pattern = lineSplit[2];
-
-                if (normalizePattern) {
-
-                    // as patterns include adverbs, modify patterns back to base form
-                    List<String> prepositions = new ArrayList<String>(Arrays.asList("that", "about", "of", "by", "on", "for"));
-                    if (pattern.startsWith("be ")) {
-                        String[] patternSplit = pattern.split(" ");
-                        int length = patternSplit.length;
-                        boolean endsWithPreposition = false;
-                        for (String preposition : prepositions) {
-                            if (pattern.endsWith(preposition)) {
-                                endsWithPreposition = true;
-                                if (length != 3) {
-                                    pattern = String.format("%s %s", patternSplit[0], patternSplit[length - 2]);
-                                }
-                            }
-                        }
+    /**
+     * Feeds the extractions of a single scan to several consumers, which receive each extraction in turn and are
+     * finished at the end of the scan.
+     * @param extractions the extractions, e.g. as returned by <code>streamResults</code>
+     * @param consumers the consumers
+     * @return the number of extractions
+     * @throws IOException if a consumer couldn't write its results
+     */
+    public static int scan(Iterable<Extraction> extractions, ExtractionConsumer... consumers) throws IOException {
+        int count = 0;
+        for (Extraction extraction : extractions) {
+            for (ExtractionConsumer consumer : consumers) {
+                consumer.accept(extraction);
+            }
+            count++;
+        }
 
-                        if (!endsWithPreposition && length != 2) {
-                            pattern = String.format("%s %s", patternSplit[0], patternSplit[length - 1]);
-                        }
-                    }
+        for (ExtractionConsumer consumer : consumers) {
+            consumer.finish();
+        }
 
-                    // exclude prepositions
-                    for (String preposition : prepositions) {
-                        if (pattern.endsWith(preposition)) {
-                            pattern = pattern.substring(0, pattern.length() - preposition.length() - 1);
-                        }
+        return count;
+    }
+
+    /**
+     * Modifies a pattern back to its base form, as patterns include adverbs, and removes its preposition.
+     * @param pattern the pattern
+     * @return the normalized pattern
+     */
+    private static String normalizePattern(String pattern) {
+        if (pattern.startsWith("be ")) {
+            String[] patternSplit = pattern.split(" ");
+            int length = patternSplit.length;
+            boolean endsWithPreposition = false;
+            for (String preposition : prepositions) {
+                if (pattern.endsWith(preposition)) {
+                    endsWithPreposition = true;
+                    if (length != 3) {
+                        pattern = String.format("%s %s", patternSplit[0], patternSplit[length - 2]);
                     }
                 }
+            }
 
-                String emotionHolder = lineSplit[3];
-                String NPCause = lineSplit[4];
-                String subjSCause = lineSplit[5];
-                String predSCause = lineSplit[6];
-                String dobjSCause = lineSplit[7];
-                String pobjs = lineSplit[8];
-                String causeBoW = lineSplit[9];
-                Extraction extraction = new Extraction(id, emotion, pattern, emotionHolder, NPCause, subjSCause, predSCause,
-                        dobjSCause, pobjs, causeBoW);
-                extractions.add(extraction);
+            if (!endsWithPreposition && length != 2) {
+                pattern = String.format("%s %s", patternSplit[0], patternSplit[length - 1]);
             }
-            catch (ArrayIndexOutOfBoundsException ex) {
-                throw new IllegalArgumentException(String.format("Format error in line %d: %s", i - 1, line));
+        }
+
+        // exclude prepositions
+        for (String preposition : prepositions) {
+            if (pattern.endsWith(preposition)) {
+                pattern = pattern.substring(0, pattern.length() - preposition.length() - 1);
             }
+        }
 
-            line = reader.readLine();
+        return pattern;
+    }
+
+    /**
+     * Iterates over the extractions of a results file or of a binary file created by the <code>PropositionStore</code>,
+     * reading one line or record at a time. The file is closed after the last extraction. As an iterator can't throw
+     * an <code>IOException</code>, read errors are thrown as an <code>IllegalStateException</code>.
+     */
+    public static class ExtractionIterator implements Iterator<Extraction>, Iterable<Extraction>, Closeable {
+
+        private final String filePath;
+
+        private final boolean normalizePattern;
+
+        /**
+         * The blacklist of lemmas of patterns whose extractions are skipped; null if none are skipped.
+         */
+        private final PatternBlacklist blacklist;
+
+        /**
+         * The reader of a results file; null for a binary file.
+         */
+        private BufferedReader reader;
+
+        /**
+         * The reader of a binary file; null for a results file.
+         */
+        private PropositionStore.Reader store;
+
+        /**
+         * The next extraction; null at the end of the file.
+         */
+        private Extraction next;
+
+        private int lineNumber = 0;
+
+        private ExtractionIterator(String filePath, boolean normalizePattern, PatternBlacklist blacklist)
+                throws IOException {
+            this.filePath = filePath;
+            this.normalizePattern = normalizePattern;
+            this.blacklist = blacklist == null || blacklist.isEmpty() ? null : blacklist;
+            if (filePath.endsWith(".bin")) {
+                store = new PropositionStore.Reader(filePath);
+            }
+            else {
+                reader = new BufferedReader(new FileReader(filePath));
+            }
+
+            next = read();
         }
 
-        System.out.println("Done");
-        return extractions;
+        /**
+         * Reads the next extraction.
+         * @return the extraction; null at the end of the file
+         * @throws IOException if the file couldn't be read
+         */
+        private Extraction read() throws IOException {
+            if (store != null) {
+                boolean hasNext = store.next();
+                while (hasNext && blacklist != null && blacklist.excludes(store.getTerm(store.getPatternCode()))) {
+                    hasNext = store.next();
+                }
+
+                if (!hasNext) {
+                    close();
+                    return null;
+                }
+
+                String pattern = store.getTerm(store.getPatternCode());
+                return new Extraction(store.getId(), store.getEmotion(),
+                        normalizePattern ? normalizePattern(pattern) : pattern,
+                        store.getTerm(store.getEmotionHolderCode()), store.getTerm(store.getNPCauseCode()),
+                        store.getTerm(store.getSubjSCauseCode()), store.getTerm(store.getPredSCauseCode()),
+                        store.getTerm(store.getDobjSCauseCode()), store.getPobjsString(), store.getCauseBoWString());
+            }
+
+            Extraction extraction;
+            do {
+                String line = reader.readLine();
+                lineNumber++;
+                while (line != null && line.startsWith("#")) {
+                    line = reader.readLine();
+                    lineNumber++;
+                }
+
+                if (line == null || line.equals("")) {
+                    close();
+                    return null;
+                }
+
+                //# ID	Emotion	Pattern	Emotion Holder	(NP-Cause)	(Subj S-Cause)	(Pred S-Cause)	(Dobj S-Cause)	[Pobjs S-Cause]	[BoW Cause]
+
+                // the fields are only decoded when they are used
+                try {
+                    extraction = new Extraction(line);
+                }
+                catch (IllegalArgumentException ex) {
+                    close();
+                    throw new IllegalArgumentException(String.format("Format error in line %d: %s", lineNumber, line));
+                }
+            } while (blacklist != null && blacklist.excludes(extraction.getPattern()));
+
+            return normalizePattern ? extraction.withPattern(normalizePattern(extraction.getPattern())) : extraction;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Extraction next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+
+            Extraction extraction = next;
+            try {
+                next = read();
+            }
+            catch (IOException ex) {
+                throw new IllegalStateException(String.format("%s couldn't be read.", filePath), ex);
+            }
+
+            return extraction;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Returns the iterator itself, so that the extractions can be used in a for-each loop.
+         * @return the iterator
+         */
+        @Override
+        public Iterator<Extraction> iterator() {
+            return this;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null) {
+                reader.close();
+            }
+            if (store != null) {
+                store.close();
+            }
+        }
     }
 }
@@ -2,7 +2,6 @@ import java.io.*;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -11,7 +10,37 @@ import java.util.Map;
  *
  * Created by sebastian on 21/06/15.
  */
-public class ResultsStatsWriter {
+public class ResultsStatsWriter implements ExtractionConsumer {
+
+    /**
+     * The path to the file to which stats should be written.
+     */
+    private String filePath;
+
+    /**
+     * The number of extractions.
+     */
+    private int total = 0;
+
+    /**
+     * Key: pattern. Value: frequency.
+     */
+    private Map<String, Double> patternCounts = new HashMap<String, Double>();
+
+    /**
+     * Key: emotion. Value: frequency.
+     */
+    private Map<String, Double> emotionCounts = new HashMap<String, Double>();
+
+    /**
+     * Key: emotion. Value: map with key: pattern; value: frequency.
+     */
+    private Map<String, Map<String, Double>> emotionPatternCounts = new HashMap<String, Map<String, Double>>();
+
+    /**
+     * Key: emotion. Value: frequency of NP causes.
+     */
+    private Map<String, Double> npCounts = new HashMap<String, Double>();
 
     /**
      * The main method to write result stats.
@@ -20,56 +49,66 @@ public class ResultsStatsWriter {
      */
     public static void main(String[] args) throws IOException {
         String dir = "/home/sebastian/git/sentiment_analysis/out/";
-        List<Extraction> extractions = ResultsReader.readResults(Utils.combine(dir, "results_cleaned_removed.txt"), true);
-        writeResultsStats(extractions, Utils.combine(dir, "stats_all.txt"));
+        writeResultsStats(ResultsReader.streamResults(Utils.combine(dir, "results_cleaned_removed.txt"), true),
+                Utils.combine(dir, "stats_all.txt"));
     }
 
     /**
-     * Writes stats about a list of extractions to a file.
-     * @param extractions the list of extractions statistics should be written about
+     * Initializes a <code>ResultsStatsWriter</code> that counts extractions, e.g. as a consumer of a scan that is shared
+     * with other consumers, and writes stats about them once they have been counted.
      * @param filePath the path to the file to which stats should be written
-     * @throws IOException
      */
-    public static void writeResultsStats(List<Extraction> extractions, String filePath) throws IOException {
-        File file = new File(filePath);
-        file.delete();
-        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(filePath, true)));
-
-        // key: pattern; value: frequency
-        Map<String, Double> patternCounts = new HashMap<String, Double>();
-
-        // key: pattern; value: frequency
-        Map<String, Double> emotionCounts = new HashMap<String, Double>();
-
-        // key: emotion; value: map with key: pattern; value: frequency
-        Map<String, Map<String, Double>> emotionPatternCounts = new HashMap<String, Map<String, Double>>();
-
-        // key: emotion; value: frequency of NP causes
-        Map<String, Double> npCounts = new HashMap<String, Double>();
+    public ResultsStatsWriter(String filePath) {
+        this.filePath = filePath;
         for (Enums.Emotions emotion : Enums.Emotions.values()) {
             emotionPatternCounts.put(emotion.toString(), new HashMap<String, Double>());
         }
+    }
 
-        for (Extraction extraction : extractions) {
-            Extensions.updateMap(patternCounts, extraction.getPattern());
-            Extensions.updateMap(emotionCounts, extraction.getEmotion());
-            Extensions.updateMap(emotionPatternCounts.get(extraction.getEmotion()), extraction.getPattern());
-            if (!extraction.getNPCause().equals("")) {
-                Extensions.updateMap(npCounts, extraction.getEmotion());
-            }
+    /**
+     * Writes stats about extractions to a file.
+     * @param extractions the extractions statistics should be written about, e.g. as streamed by
+     *                    <code>ResultsReader.streamResults</code>
+     * @param filePath the path to the file to which stats should be written
+     * @throws IOException
+     */
+    public static void writeResultsStats(Iterable<Extraction> extractions, String filePath) throws IOException {
+        ResultsReader.scan(extractions, new ResultsStatsWriter(filePath));
+    }
+
+    /**
+     * Counts the pattern, emotion, and NP cause of an extraction.
+     * @param extraction the extraction
+     */
+    @Override
+    public void accept(Extraction extraction) {
+        Extensions.updateMap(patternCounts, extraction.getPattern());
+        Extensions.updateMap(emotionCounts, extraction.getEmotion());
+        Extensions.updateMap(emotionPatternCounts.get(extraction.getEmotion()), extraction.getPattern());
+        if (!extraction.getNPCause().equals("")) {
+            Extensions.updateMap(npCounts, extraction.getEmotion());
         }
+        total++;
+    }
 
-        int total = extractions.size();
-        emotionCounts = Extensions.sortByValue(emotionCounts, true);
+    /**
+     * Writes the stats about the counted extractions to the file.
+     * @throws IOException if the file couldn't be written
+     */
+    @Override
+    public void finish() throws IOException {
+        File file = new File(filePath);
+        file.delete();
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(filePath, true)));
+
+        // only the cause types are written in full order; of the other counts only the top 10 are written
         writeEntries(writer, emotionCounts, total);
-        npCounts = Extensions.sortByValue(npCounts, true);
+        Map<String, Double> npCounts = Extensions.sortByValue(this.npCounts, true);
         compareCauseType(writer, npCounts, emotionCounts);
-        patternCounts = Extensions.sortByValue(patternCounts, true);
         writeEntries(writer, patternCounts, total);
         for (String emotion : emotionPatternCounts.keySet()) {
-            Map<String, Double> emotionPatternMap = Extensions.sortByValue(emotionPatternCounts.get(emotion), true);
             writer.printf("\n%s\n-----\n", emotion);
-            writeEntries(writer, emotionPatternMap, total);
+            writeEntries(writer, emotionPatternCounts.get(emotion), total);
         }
 
         writer.close();
@@ -104,9 +143,9 @@ public class ResultsStatsWriter {
     }
 
     /**
-     * Writes statistics about the entries of a frequency map to a file.
+     * Writes statistics about the entries of a frequency map to a file, i.e. the top 10 entries and the totals.
      * @param writer the writer to be used
-     * @param map the frequency map to be used
+     * @param map the frequency map to be used, which doesn't need to be sorted
      * @param totalExtractions the number of total extractions
      */
     private static void writeEntries(PrintWriter writer, Map<String, Double> map, int totalExtractions) {
@@ -114,7 +153,6 @@ public class ResultsStatsWriter {
         int total = 0;
         int totalTop10 = 0;
         int noFreqHigher10 = 0;
-        int i = 0;
 
         // set format for comma separation
         DecimalFormat usFormat = (DecimalFormat) NumberFormat.getNumberInstance(Locale.US);
@@ -122,14 +160,14 @@ public class ResultsStatsWriter {
         usFormat.setGroupingUsed(true);
         usFormat.setGroupingSize(3);
 
-        for (Map.Entry<String, Double> entry : map.entrySet()) {
+        for (Map.Entry<String, Double> entry : Extensions.topByValue(map, 10, true).entrySet()) {
             String percent = String.format(Locale.US, "%.2f", entry.getValue() / (double) totalExtractions * 100);
-            total += entry.getValue();
-            if (i++ < 10) {
-                writer.printf("%s\t%s\t%s\n", entry.getKey(), usFormat.format(entry.getValue()), percent);
-                totalTop10 += entry.getValue();
-            }
+            writer.printf("%s\t%s\t%s\n", entry.getKey(), usFormat.format(entry.getValue()), percent);
+            totalTop10 += entry.getValue();
+        }
 
+        for (Map.Entry<String, Double> entry : map.entrySet()) {
+            total += entry.getValue();
             if (entry.getValue() > 10) {
                 noFreqHigher10++;
             }
@@ -0,0 +1,124 @@
+import java.io.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes the score files of a combination of metric, ngram, and ngram source, one file per emotion, e.g.
+ * anger_pmi_unigram_np_cause.txt. Each file is written by a single buffered writer that is kept open until all scores
+ * have been written, instead of being opened and closed for every score. The writer writes to a temporary file that
+ * replaces the score file once the sink is closed, so that a score file is never seen partially written. Scores are
+ * written in the order in which they should appear in their file.
+ */
+public class ScoreFileSink implements Closeable {
+
+    private final String dir;
+
+    private final Enums.Metric metricEnum;
+
+    private final Enums.Ngram ngramEnum;
+
+    private final Enums.NgramSource ngramSourceEnum;
+
+    /**
+     * Key: emotion. Value: the writer of the temporary file of its score file.
+     */
+    private final Map<String, PrintWriter> writers = new LinkedHashMap<String, PrintWriter>();
+
+    /**
+     * Key: emotion. Value: its score file.
+     */
+    private final Map<String, File> files = new LinkedHashMap<String, File>();
+
+    /**
+     * Creates a sink for the score files of a combination of metric, ngram, and ngram source.
+     * @param dir the directory that the files should be written to
+     * @param metricEnum the association metric that was used (pmi, chi-square)
+     * @param ngramEnum the ngram that was used (unigram, bigram)
+     * @param ngramSourceEnum the ngram type that was used
+     */
+    public ScoreFileSink(String dir, Enums.Metric metricEnum, Enums.Ngram ngramEnum, Enums.NgramSource ngramSourceEnum) {
+        this.dir = dir;
+        this.metricEnum = metricEnum;
+        this.ngramEnum = ngramEnum;
+        this.ngramSourceEnum = ngramSourceEnum;
+    }
+
+    /**
+     * Returns the name of the score file of an emotion.
+     * @param emotion the emotion
+     * @param metricEnum the association metric
+     * @param ngramEnum the ngram
+     * @param ngramSourceEnum the ngram type
+     * @return the file name, e.g. anger_pmi_unigram_np_cause.txt
+     */
+    public static String getFileName(String emotion, Enums.Metric metricEnum, Enums.Ngram ngramEnum,
+                                     Enums.NgramSource ngramSourceEnum) {
+        return String.format("%s_%s_%s_%s.txt", emotion, metricEnum.toString(), ngramEnum.toString(),
+                ngramSourceEnum.toString());
+    }
+
+    /**
+     * Returns the writer of the score file of an emotion, which is opened when it is first requested.
+     * @param emotion the emotion
+     * @return the writer
+     * @throws IOException if the file couldn't be opened
+     */
+    public PrintWriter getWriter(String emotion) throws IOException {
+        PrintWriter writer = writers.get(emotion);
+        if (writer == null) {
+            File file = new File(Utils.combine(dir, getFileName(emotion, metricEnum, ngramEnum, ngramSourceEnum)));
+            writer = new PrintWriter(new BufferedWriter(new FileWriter(getTempFile(file))));
+            writers.put(emotion, writer);
+            files.put(emotion, file);
+        }
+
+        return writer;
+    }
+
+    /**
+     * Closes the writers and replaces the score files with the files they have written.
+     * @throws IOException if a file couldn't be written or replaced; the score files that haven't been replaced yet
+     * are left as they were
+     */
+    @Override
+    public void close() throws IOException {
+        boolean hasError = false;
+        for (PrintWriter writer : writers.values()) {
+            writer.close();
+            hasError |= writer.checkError();
+        }
+        if (hasError) {
+            discard();
+            throw new IOException(String.format("Score files of %s %s %s couldn't be written to %s.", metricEnum,
+                    ngramEnum, ngramSourceEnum, dir));
+        }
+
+        try {
+            for (File file : files.values()) {
+                Utils.replaceFile(getTempFile(file), file);
+            }
+        }
+        finally {
+            discard();
+        }
+    }
+
+    /**
+     * Closes the writers and deletes the temporary files that are left, so that the score files are left as they were.
+     */
+    public void discard() {
+        for (PrintWriter writer : writers.values()) {
+            writer.close();
+        }
+        for (File file : files.values()) {
+            getTempFile(file).delete();
+        }
+
+        writers.clear();
+        files.clear();
+    }
+
+    private static File getTempFile(File file) {
+        return new File(file.getPath() + ".tmp");
+    }
+}
@@ -0,0 +1,155 @@
+import edu.jhu.agiga.AgigaSentence;
+import edu.stanford.nlp.trees.Tree;
+
+/**
+ * The constituency tree of a sentence, decoded only when it is first needed. The decoded tree is flattened into arrays
+ * of the parent, label, and span of each node, so that the ancestors of a leaf and their spans are looked up without
+ * walking the tree from the root. An instance belongs to a single sentence and is not thread-safe.
+ */
+public class SentenceTree {
+
+    private final AgigaSentence sentence;
+
+    /**
+     * The parent of each node; -1 for the root. Nodes are numbered in pre-order.
+     */
+    private int[] parents;
+
+    private String[] labels;
+
+    /**
+     * The index of the first leaf dominated by each node.
+     */
+    private int[] spanStarts;
+
+    /**
+     * The index of the last leaf dominated by each node.
+     */
+    private int[] spanEnds;
+
+    /**
+     * The node of each leaf.
+     */
+    private int[] leafNodes;
+
+    /**
+     * Creates the tree of a sentence without decoding it.
+     * @param sentence the sentence
+     */
+    public SentenceTree(AgigaSentence sentence) {
+        this.sentence = sentence;
+    }
+
+    /**
+     * Decodes the tree of the sentence if that hasn't been done yet.
+     */
+    private void decode() {
+        if (parents != null) {
+            return;
+        }
+
+        Tree root = sentence.getStanfordContituencyTree();
+        int[] counts = new int[2];
+        count(root, counts);
+        parents = new int[counts[0]];
+        labels = new String[counts[0]];
+        spanStarts = new int[counts[0]];
+        spanEnds = new int[counts[0]];
+        leafNodes = new int[counts[1]];
+        flatten(root, -1, new int[2]);
+    }
+
+    /**
+     * Counts the nodes and the leaves of a tree.
+     * @param node the root of the tree
+     * @param counts the number of nodes and leaves counted so far
+     */
+    private static void count(Tree node, int[] counts) {
+        counts[0]++;
+        if (node.isLeaf()) {
+            counts[1]++;
+        }
+        for (Tree child : node.children()) {
+            count(child, counts);
+        }
+    }
+
+    /**
+     * Stores a tree in the arrays.
+     * @param node the root of the tree
+     * @param parent the parent node of the root
+     * @param next the next node and the next leaf
+     * @return the node of the root
+     */
+    private int flatten(Tree node, int parent, int[] next) {
+        int id = next[0]++;
+        parents[id] = parent;
+        labels[id] = node.label().toString();
+        if (node.isLeaf()) {
+            int leaf = next[1]++;
+            leafNodes[leaf] = id;
+            spanStarts[id] = leaf;
+            spanEnds[id] = leaf;
+            return id;
+        }
+
+        spanStarts[id] = next[1];
+        for (Tree child : node.children()) {
+            flatten(child, id, next);
+        }
+        spanEnds[id] = next[1] - 1;
+        return id;
+    }
+
+    /**
+     * Returns the ancestor of a leaf, i.e. the node at the specified height above it, as <code>Tree.ancestor</code>.
+     * @param leafIdx the index of the leaf
+     * @param height the height; 1 is the parent, i.e. the preterminal
+     * @return the ancestor; -1 if the height is above the root
+     */
+    public int getAncestor(int leafIdx, int height) {
+        decode();
+        int node = leafNodes[leafIdx];
+        for (int i = 0; i < height && node != -1; i++) {
+            node = parents[node];
+        }
+
+        return node;
+    }
+
+    /**
+     * Returns the label of an ancestor of a leaf.
+     * @param leafIdx the index of the leaf
+     * @param height the height; 1 is the parent, i.e. the preterminal
+     * @return the label of the ancestor; null if the height is above the root
+     */
+    public String getAncestorLabel(int leafIdx, int height) {
+        int node = getAncestor(leafIdx, height);
+        return node == -1 ? null : labels[node];
+    }
+
+    public String getLabel(int node) {
+        decode();
+        return labels[node];
+    }
+
+    /**
+     * Returns the index of the first leaf dominated by a node.
+     * @param node the node
+     * @return the index of the first leaf
+     */
+    public int getSpanStart(int node) {
+        decode();
+        return spanStarts[node];
+    }
+
+    /**
+     * Returns the index of the last leaf dominated by a node.
+     * @param node the node
+     * @return the index of the last leaf
+     */
+    public int getSpanEnd(int node) {
+        decode();
+        return spanEnds[node];
+    }
+}
@@ -0,0 +1,441 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * An index of the ids of the lines in a directory of shelves, e.g. of the emotion proposition store or the sentences,
+ * that maps an id, i.e. document ID slash sentence ID, to the shelf and offset of each line with that id. The index is
+ * built once and stored in the directory as a hash table. The index and the shelves are memory-mapped, so that a lookup
+ * reads a few slots of the table and returns views of the lines in the shelves without copying them. Lookups only use
+ * absolute reads, so an index can be shared by threads.
+ */
+public class ShelfIndex implements Closeable {
+
+    private static Logger log = Logger.getLogger(ShelfIndex.class.getName());
+
+    /**
+     * The name of the index file in the directory of the shelves.
+     */
+    public static final String indexName = "shelf_index.bin";
+
+    /**
+     * The magic number at the start of the index file: "SHI" and the version of the format.
+     */
+    private static final int magic = 0x53484901;
+
+    /**
+     * The size of a slot of the hash table: the hash of an id, its first entry, and its number of entries.
+     */
+    private static final int slotSize = 16;
+
+    /**
+     * The size of an entry: the shelf, the offset, and the length of a line.
+     */
+    private static final int entrySize = 16;
+
+    /**
+     * The shelves in the order of their numbers.
+     */
+    private final File[] shelves;
+
+    private final MappedByteBuffer[] shelfBuffers;
+
+    private final MappedByteBuffer indexBuffer;
+
+    /**
+     * The number of slots of the hash table; a power of two.
+     */
+    private final int tableSize;
+
+    /**
+     * The position of the hash table in the index file.
+     */
+    private final int tableStart;
+
+    /**
+     * The position of the entries in the index file.
+     */
+    private final int entriesStart;
+
+    /**
+     * Main method to look up propositions and the sentences they were extracted from.
+     * @param args the directory of the emotion proposition store, the directory of the sentences, and the ids
+     * @throws IOException if an index couldn't be built or a shelf couldn't be read
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 3) {
+            System.out.println("Usage: java ShelfIndex storeDir sentencesDir id [id ...]");
+            System.exit(1);
+        }
+
+        ShelfIndex storeIndex = open(args[0]);
+        ShelfIndex sentenceIndex = open(args[1]);
+        for (int i = 2; i < args.length; i++) {
+            List<String> sentences = sentenceIndex.getLines(args[i]);
+            System.out.printf("%s\t%s\n", args[i], sentences.isEmpty() ? "" : sentences.get(0));
+            for (String proposition : storeIndex.getLines(args[i])) {
+                System.out.println(proposition);
+            }
+        }
+
+        storeIndex.close();
+        sentenceIndex.close();
+    }
+
+    /**
+     * Opens the index of a directory of shelves. The index is built if it doesn't exist or if the shelves have changed
+     * since it was built.
+     * @param dir the directory of the shelves
+     * @return the index
+     * @throws IOException if the index couldn't be built or read
+     */
+    public static ShelfIndex open(String dir) throws IOException {
+        File[] shelves = getShelves(dir);
+        File indexFile = new File(Utils.combine(dir, indexName));
+        if (!indexFile.exists() || !isCurrent(indexFile, shelves)) {
+            log.info(String.format("Building the index of %s", dir));
+            build(shelves, indexFile);
+        }
+
+        return new ShelfIndex(indexFile, shelves);
+    }
+
+    /**
+     * Returns the shelves of a directory, i.e. the files shelf_0.txt, shelf_1.txt, etc., sorted by their numbers.
+     * @param dir the directory
+     * @return the shelves
+     * @throws IOException if the directory contains no shelves
+     */
+    private static File[] getShelves(String dir) throws IOException {
+        File[] shelves = new File(dir).listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.matches("shelf_\\d+\\.txt");
+            }
+        });
+
+        if (shelves == null || shelves.length == 0) {
+            throw new FileNotFoundException(String.format("%s doesn't contain any shelves.", dir));
+        }
+
+        Arrays.sort(shelves, new Comparator<File>() {
+            @Override
+            public int compare(File shelf1, File shelf2) {
+                return getNumber(shelf1) - getNumber(shelf2);
+            }
+        });
+
+        return shelves;
+    }
+
+    private static int getNumber(File shelf) {
+        String name = shelf.getName();
+        return Integer.parseInt(name.substring("shelf_".length(), name.length() - ".txt".length()));
+    }
+
+    /**
+     * Checks if an index belongs to the shelves as they are now, i.e. has been built from the same shelves with the same
+     * lengths.
+     * @param indexFile the index file
+     * @param shelves the shelves
+     * @return true if the index is current
+     * @throws IOException if the index couldn't be read
+     */
+    private static boolean isCurrent(File indexFile, File[] shelves) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if (in.readInt() != magic || in.readInt() != shelves.length) {
+                return false;
+            }
+
+            for (File shelf : shelves) {
+                if (!in.readUTF().equals(shelf.getName()) || in.readLong() != shelf.length()) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+        catch (EOFException ex) {
+            return false;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Builds the index of shelves. The lines of each id are stored in the order of the shelves.
+     * @param shelves the shelves
+     * @param indexFile the index file
+     * @throws IOException if a shelf couldn't be read or the index couldn't be written
+     */
+    private static void build(File[] shelves, File indexFile) throws IOException {
+
+        // collect the hash, shelf, offset, and length of each line
+        int count = 0;
+        long[] hashes = new long[1 << 16];
+        int[] shelfIdxs = new int[hashes.length];
+        long[] offsets = new long[hashes.length];
+        int[] lengths = new int[hashes.length];
+        for (int shelf = 0; shelf < shelves.length; shelf++) {
+            MappedByteBuffer buffer = map(shelves[shelf]);
+            int limit = buffer.limit();
+            int start = 0;
+            while (start < limit) {
+                int end = start;
+                while (end < limit && buffer.get(end) != '\n') {
+                    end++;
+                }
+
+                int idEnd = start;
+                while (idEnd < end && buffer.get(idEnd) != '\t') {
+                    idEnd++;
+                }
+
+                // comments, e.g. the header or the matches in the sentences, and lines without an id are skipped
+                if (idEnd < end && buffer.get(start) != '#') {
+                    if (count == hashes.length) {
+                        hashes = Arrays.copyOf(hashes, 2 * count);
+                        shelfIdxs = Arrays.copyOf(shelfIdxs, 2 * count);
+                        offsets = Arrays.copyOf(offsets, 2 * count);
+                        lengths = Arrays.copyOf(lengths, 2 * count);
+                    }
+                    hashes[count] = hash(buffer, start, idEnd);
+                    shelfIdxs[count] = shelf;
+                    offsets[count] = start;
+                    lengths[count] = end > start && buffer.get(end - 1) == '\r' ? end - 1 - start : end - start;
+                    count++;
+                }
+
+                start = end + 1;
+            }
+        }
+
+        // hash table with linear probing and at most half of the slots used; first count the entries of each slot
+        int tableSize = Integer.highestOneBit(Math.max(2 * count, 2) - 1) << 1;
+        long[] slotHashes = new long[tableSize];
+        int[] slotCounts = new int[tableSize];
+        int[] entrySlots = new int[count];
+        for (int i = 0; i < count; i++) {
+            int slot = findSlot(slotHashes, slotCounts, hashes[i]);
+            slotHashes[slot] = hashes[i];
+            slotCounts[slot]++;
+            entrySlots[i] = slot;
+        }
+
+        // the entries of each slot are consecutive and keep their order
+        int[] slotStarts = new int[tableSize];
+        int next = 0;
+        for (int slot = 0; slot < tableSize; slot++) {
+            slotStarts[slot] = next;
+            next += slotCounts[slot];
+        }
+        int[] entries = new int[count];
+        int[] slotNext = Arrays.copyOf(slotStarts, tableSize);
+        for (int i = 0; i < count; i++) {
+            entries[slotNext[entrySlots[i]]++] = i;
+        }
+
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16));
+        out.writeInt(magic);
+        out.writeInt(shelves.length);
+        for (File shelf : shelves) {
+            out.writeUTF(shelf.getName());
+            out.writeLong(shelf.length());
+        }
+        out.writeInt(tableSize);
+        for (int slot = 0; slot < tableSize; slot++) {
+            out.writeLong(slotHashes[slot]);
+            out.writeInt(slotStarts[slot]);
+            out.writeInt(slotCounts[slot]);
+        }
+        for (int entry : entries) {
+            out.writeInt(shelfIdxs[entry]);
+            out.writeLong(offsets[entry]);
+            out.writeInt(lengths[entry]);
+        }
+        out.close();
+
+        Utils.replaceFile(tempFile, indexFile);
+    }
+
+    /**
+     * Finds the slot of a hash, i.e. the slot that holds the hash or the first empty slot.
+     * @param slotHashes the hash of each slot
+     * @param slotCounts the number of entries of each slot; 0 if the slot is empty
+     * @param hash the hash
+     * @return the slot
+     */
+    private static int findSlot(long[] slotHashes, int[] slotCounts, long hash) {
+        int mask = slotHashes.length - 1;
+        int slot = (int)hash & mask;
+        while (slotCounts[slot] != 0 && slotHashes[slot] != hash) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    /**
+     * Returns the 64-bit FNV-1a hash of bytes.
+     * @param buffer the buffer holding the bytes
+     * @param start the position of the first byte
+     * @param end the position after the last byte
+     * @return the hash
+     */
+    private static long hash(ByteBuffer buffer, int start, int end) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            hash ^= buffer.get(i) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+
+        // the slot is taken from the low bits, so the high bits are mixed into them
+        return hash ^ (hash >>> 32);
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        if (file.length() > Integer.MAX_VALUE) {
+            throw new IOException(String.format("%s is too large to be mapped.", file));
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Maps an index and its shelves.
+     * @param indexFile the index file
+     * @param shelves the shelves
+     * @throws IOException if a file couldn't be mapped
+     */
+    private ShelfIndex(File indexFile, File[] shelves) throws IOException {
+        this.shelves = shelves;
+        this.shelfBuffers = new MappedByteBuffer[shelves.length];
+        for (int i = 0; i < shelves.length; i++) {
+            shelfBuffers[i] = map(shelves[i]);
+        }
+
+        indexBuffer = map(indexFile);
+
+        // skip the header: the magic number and the names and lengths of the shelves
+        int position = 8;
+        for (int i = 0; i < shelves.length; i++) {
+            position += 2 + (indexBuffer.getShort(position) & 0xffff) + 8;
+        }
+        tableSize = indexBuffer.getInt(position);
+        tableStart = position + 4;
+        entriesStart = tableStart + tableSize * slotSize;
+    }
+
+    /**
+     * Returns the lines with an id as views of the shelves; the views are read-only and share the mapped memory.
+     * @param id the id in the format document ID slash sentence ID
+     * @return the lines, without line separators, in the order of the shelves; empty if the id isn't found
+     */
+    public List<ByteBuffer> get(String id) {
+        byte[] idBytes;
+        try {
+            idBytes = id.getBytes("UTF-8");
+        }
+        catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+
+        long hash = hash(ByteBuffer.wrap(idBytes), 0, idBytes.length);
+        int mask = tableSize - 1;
+        int slot = (int)hash & mask;
+        while (true) {
+            int slotPosition = tableStart + slot * slotSize;
+            int count = indexBuffer.getInt(slotPosition + 12);
+            if (count == 0) {
+                return Collections.emptyList();
+            }
+
+            if (indexBuffer.getLong(slotPosition) == hash) {
+                int first = indexBuffer.getInt(slotPosition + 8);
+                List<ByteBuffer> lines = new ArrayList<ByteBuffer>(count);
+                for (int entry = first; entry < first + count; entry++) {
+                    int entryPosition = entriesStart + entry * entrySize;
+                    ByteBuffer shelf = shelfBuffers[indexBuffer.getInt(entryPosition)];
+                    int offset = (int)indexBuffer.getLong(entryPosition + 4);
+                    int length = indexBuffer.getInt(entryPosition + 12);
+
+                    // ids with the same hash share a slot
+                    if (hasId(shelf, offset, length, idBytes)) {
+                        ByteBuffer line = shelf.asReadOnlyBuffer();
+                        line.limit(offset + length);
+                        line.position(offset);
+                        lines.add(line.slice());
+                    }
+                }
+
+                return lines;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static boolean hasId(ByteBuffer shelf, int offset, int length, byte[] idBytes) {
+        if (length <= idBytes.length || shelf.get(offset + idBytes.length) != '\t') {
+            return false;
+        }
+
+        for (int i = 0; i < idBytes.length; i++) {
+            if (shelf.get(offset + i) != idBytes[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the lines with an id as strings.
+     * @param id the id in the format document ID slash sentence ID
+     * @return the lines, without line separators, in the order of the shelves; empty if the id isn't found
+     */
+    public List<String> getLines(String id) {
+        List<String> lines = new ArrayList<String>();
+        for (ByteBuffer line : get(id)) {
+            byte[] bytes = new byte[line.remaining()];
+            line.get(bytes);
+            try {
+                lines.add(new String(bytes, "UTF-8"));
+            }
+            catch (UnsupportedEncodingException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        return lines;
+    }
+
+    /**
+     * Returns the shelves of the index.
+     * @return the shelves in the order of their numbers
+     */
+    public File[] getShelves() {
+        return shelves.clone();
+    }
+
+    /**
+     * Releases the mapped buffers; they are unmapped once they are garbage-collected.
+     */
+    @Override
+    public void close() {
+        Arrays.fill(shelfBuffers, null);
+    }
+}
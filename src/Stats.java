@@ -1,11 +1,9 @@
-import edu.stanford.nlp.util.ArrayMap;
-
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -16,94 +14,113 @@ import java.util.regex.Pattern;
 public class Stats {
 
     /**
-     * Creates a map storing the number of matches of a pattern and its features from an emotion map.
-     * @param emotionMap
-     * @return
+     * Matches the words of a pattern string, i.e. the tokens without their POS tags and indexes.
      */
-    public static Map<Pattern, Map<String, String>> createResultMap(
-            Map<String, Map<Pattern, Map<String, Boolean>>> emotionMap) {
-
-        Map<Pattern, Map<String, String>> resultMap = new ArrayMap<Pattern, Map<String, String>>();
-        for (String emotion: emotionMap.keySet()) {
-            for (Pattern pattern : emotionMap.get(emotion).keySet()) {
-                Map<String, String> featureMap = new ArrayMap<String, String>();
-                featureMap.put(Enums.Stats.matches.toString(), "0");
-                featureMap.put(Enums.Features.isNP.toString(),
-                        emotionMap.get(emotion).get(pattern).get(Enums.Features.isNP.toString()) ? "NP" : "S");
-                featureMap.put(Enums.Stats.emotion.toString(), emotion);
-                resultMap.put(pattern, featureMap);
-            }
-        }
-
-        return resultMap;
-    }
+    private static final Pattern patternCleaner = Pattern.compile("[a-z]+?(?=/)");
 
     /**
-     * Write stats files.
-     * @param resultMap the hashmap in which the results have been saved
+     * Write stats files. Each file is written to a temporary file first, which then replaces it, so that the stats can
+     * be read while they are being updated.
+     * @param registry the registry of the patterns
+     * @param counts the number of matches of each pattern, indexed by id
+     * @param sentenceCount the number of sentences the patterns have been matched against
      * @param outDir the output directory to which the files should be written
-     * @throws IOException
+     * @throws IOException if a file couldn't be written
      */
-    public static void writeStats(Map<Pattern, Map<String, String>> resultMap, String outDir) throws IOException {
-
-        PrintWriter patternStatWriter = new PrintWriter(new BufferedWriter(new FileWriter(outDir + "pattern_stats.txt")));
-        PrintWriter emotionStatWriter = new PrintWriter(new BufferedWriter(new FileWriter(outDir + "emotion_stats.txt")));
-        PrintWriter emotionSummaryWriter = new PrintWriter(new BufferedWriter(new FileWriter(outDir + "emotion_summary.txt")));
-
-        // create maps for keeping track of patterns, their counts, and for emotions, patterns, and counts
-        Map<Pattern, Integer> statMap = new HashMap<Pattern, Integer>();
-        Map<String, Map<Pattern, Integer>> emotionStatMap = new HashMap<String, Map<Pattern, Integer>>();
+    public static void writeStats(PatternRegistry registry, long[] counts, long sentenceCount, String outDir)
+            throws IOException {
+
+        File patternStatFile = new File(outDir + "pattern_stats.txt");
+        File emotionStatFile = new File(outDir + "emotion_stats.txt");
+        File emotionSummaryFile = new File(outDir + "emotion_summary.txt");
+        File patternStatTemp = new File(patternStatFile.getPath() + ".tmp");
+        File emotionStatTemp = new File(emotionStatFile.getPath() + ".tmp");
+        File emotionSummaryTemp = new File(emotionSummaryFile.getPath() + ".tmp");
+
+        PrintWriter patternStatWriter = new PrintWriter(new BufferedWriter(new FileWriter(patternStatTemp)));
+        PrintWriter emotionStatWriter = new PrintWriter(new BufferedWriter(new FileWriter(emotionStatTemp)));
+        PrintWriter emotionSummaryWriter = new PrintWriter(new BufferedWriter(new FileWriter(emotionSummaryTemp)));
+
+        // create a map for keeping track of the pattern ids of each emotion
+        Map<String, List<Integer>> emotionIdMap = new HashMap<String, List<Integer>>();
         for (Enum emotionEnum : Enums.Emotions.values()) {
-            emotionStatMap.put(emotionEnum.toString(), new HashMap<Pattern, Integer>());
+            emotionIdMap.put(emotionEnum.toString(), new ArrayList<Integer>());
         }
 
-        // add the patterns to the maps
-        for (Pattern pattern : resultMap.keySet()) {
-            int matches = Integer.parseInt(resultMap.get(pattern).get(Enums.Stats.matches.toString()));
-            statMap.put(pattern, matches);
-            emotionStatMap.get(resultMap.get(pattern).get(Enums.Stats.emotion.toString())).put(pattern, matches);
-        }
-
-        // sort the pattern, count map and write the patterns to a file
-        statMap = Extensions.sortByValue(statMap, true);
-        for (Pattern pattern : statMap.keySet()) {
-            if (pattern != null) {
-                String emotion = resultMap.get(pattern).get(Enums.Stats.emotion.toString());
-                patternStatWriter.printf("%s\t%s\t%s\t%d\n", emotion, cleanPattern(pattern.toString()),
-                        resultMap.get(pattern).get(Enums.Features.isNP.toString()),
-                        statMap.get(pattern));
-            }
+        // sort the pattern ids by count and write the patterns to a file; the ids of each emotion are sorted as well
+        for (int id : sortByCount(counts)) {
+            emotionIdMap.get(registry.getEmotion(id)).add(id);
+            patternStatWriter.printf(Locale.US, "%s\t%s\t%s\t%d\t%.2f\n", registry.getEmotion(id),
+                    cleanPattern(registry.getPattern(id).toString()), registry.isNP(id) ? "NP" : "S", counts[id],
+                    getHitRate(counts[id], sentenceCount));
         }
 
         emotionSummaryWriter.printf("Emotion\t#patterns\ttotal_freq\t#patterns(>10)\ttotal_freq(>10)\n");
 
-        // iterate through the emotions, sorting each respective map, and add the patterns to a file
-        for (String emotion : emotionStatMap.keySet()) {
-            int totalFreq = 0;
-            int totalFreq10 = 0;
+        // iterate through the emotions and add their patterns to a file
+        for (String emotion : emotionIdMap.keySet()) {
+            long totalFreq = 0;
+            long totalFreq10 = 0;
             int patterns10 = 0;
-            Map<Pattern, Integer> sortedEmotionMap = Extensions.sortByValue(emotionStatMap.get(emotion), true);
-            for (Pattern pattern : sortedEmotionMap.keySet()) {
-                if (pattern != null) {
-                    int freq = sortedEmotionMap.get(pattern);
-                    totalFreq += freq;
-                    if (freq > 10) {
-                        totalFreq10 += freq;
-                        patterns10++;
-                    }
-
-                    emotionStatWriter.printf("%s\t%s\t%s\t%d\n", emotion, cleanPattern(pattern.toString()),
-                            resultMap.get(pattern).get(Enums.Features.isNP.toString()), freq);
+            for (int id : emotionIdMap.get(emotion)) {
+                long freq = counts[id];
+                totalFreq += freq;
+                if (freq > 10) {
+                    totalFreq10 += freq;
+                    patterns10++;
                 }
+
+                emotionStatWriter.printf(Locale.US, "%s\t%s\t%s\t%d\t%.2f\n", emotion,
+                        cleanPattern(registry.getPattern(id).toString()), registry.isNP(id) ? "NP" : "S", freq,
+                        getHitRate(freq, sentenceCount));
             }
 
-            emotionSummaryWriter.printf("%s\t%d\t%d\t%d\t%d\n", emotion, emotionStatMap.get(emotion).keySet().size(), totalFreq,
+            emotionSummaryWriter.printf("%s\t%d\t%d\t%d\t%d\n", emotion, emotionIdMap.get(emotion).size(), totalFreq,
                     patterns10, totalFreq10);
         }
 
         patternStatWriter.close();
         emotionStatWriter.close();
         emotionSummaryWriter.close();
+        if (patternStatWriter.checkError() || emotionStatWriter.checkError() || emotionSummaryWriter.checkError()) {
+            throw new IOException(String.format("Stats couldn't be written to %s.", outDir));
+        }
+
+        Utils.replaceFile(patternStatTemp, patternStatFile);
+        Utils.replaceFile(emotionStatTemp, emotionStatFile);
+        Utils.replaceFile(emotionSummaryTemp, emotionSummaryFile);
+    }
+
+    /**
+     * Sorts pattern ids by their counts in descending order. The sort is stable, i.e. patterns with the same count stay
+     * in the order of their ids.
+     * @param counts the number of matches of each pattern, indexed by id
+     * @return the sorted pattern ids
+     */
+    private static Integer[] sortByCount(final long[] counts) {
+        Integer[] ids = new Integer[counts.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+
+        Arrays.sort(ids, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer id1, Integer id2) {
+                return counts[id1] > counts[id2] ? -1 : counts[id1] < counts[id2] ? 1 : 0;
+            }
+        });
+
+        return ids;
+    }
+
+    /**
+     * Returns the hit rate of a pattern, i.e. its number of matches per million sentences.
+     * @param matches the number of matches of the pattern
+     * @param sentenceCount the number of sentences
+     * @return the hit rate; 0 if there are no sentences
+     */
+    public static double getHitRate(long matches, long sentenceCount) {
+        return sentenceCount == 0 ? 0 : matches * 1e6 / sentenceCount;
     }
 
     /**
@@ -112,7 +129,6 @@ public class Stats {
      * @return the cleaned pattern
      */
     public static String cleanPattern(String pattern) {
-        Pattern patternCleaner = Pattern.compile("[a-z]+?(?=/)");
         StringBuilder sb = new StringBuilder();
         Matcher m = patternCleaner.matcher(pattern.toString());
         while (m.find()) {
@@ -0,0 +1,207 @@
+import java.io.*;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+/**
+ * Publishes the stats of an extraction run at a fixed wall-clock interval from a background thread. The writing stages
+ * add their sentences and matches as they write them; the reporter only reads snapshots of the counts, so that
+ * publishing never blocks extraction. Besides the pattern and emotion stats, the throughput of the run and an estimate
+ * of the remaining time, based on the compressed bytes of the files that have been processed, are written to
+ * progress_stats.txt.
+ */
+public class StatsReporter implements Runnable, Closeable {
+
+    private static Logger log = Logger.getLogger(StatsReporter.class.getName());
+
+    private final PatternRegistry registry;
+
+    /**
+     * The output directory to which the stats are written.
+     */
+    private final String outDir;
+
+    /**
+     * The number of milliseconds between two publications.
+     */
+    private final long interval;
+
+    /**
+     * The number of matches of each pattern, indexed by id, including the counts restored from checkpoints.
+     */
+    private final AtomicLongArray matchCounts;
+
+    private final AtomicLong sentenceCount = new AtomicLong();
+
+    private final AtomicLong matchCount = new AtomicLong();
+
+    /**
+     * The sentences and matches restored from checkpoints; they don't count towards the throughput of the run.
+     */
+    private final AtomicLong restoredSentences = new AtomicLong();
+
+    private final AtomicLong restoredMatches = new AtomicLong();
+
+    /**
+     * The compressed size of the files that have been processed in this run.
+     */
+    private final AtomicLong processedBytes = new AtomicLong();
+
+    /**
+     * The compressed size of all files that are processed in this run.
+     */
+    private final long totalBytes;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            // doesn't keep the JVM alive if the run fails
+            Thread thread = new Thread(runnable, "stats-reporter");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Creates a reporter of the stats of a run.
+     * @param registry the pattern registry of the emotion map
+     * @param outDir the output directory to which the stats should be written
+     * @param interval the number of milliseconds between two publications
+     * @param totalBytes the compressed size of the files that are processed in the run
+     */
+    public StatsReporter(PatternRegistry registry, String outDir, long interval, long totalBytes) {
+        this.registry = registry;
+        this.outDir = outDir;
+        this.interval = interval;
+        this.totalBytes = totalBytes;
+        this.matchCounts = registry.createCounts();
+    }
+
+    /**
+     * Adds the counts of an interrupted run that is resumed. They are included in the stats, but not in the throughput.
+     * @param counts the number of matches of each pattern, indexed by id
+     * @param sentences the number of sentences
+     * @param matches the number of matches
+     */
+    public void restore(AtomicLongArray counts, long sentences, long matches) {
+        PatternRegistry.add(matchCounts, counts);
+        sentenceCount.addAndGet(sentences);
+        matchCount.addAndGet(matches);
+        restoredSentences.addAndGet(sentences);
+        restoredMatches.addAndGet(matches);
+    }
+
+    /**
+     * Adds sentences that have been matched against the patterns.
+     * @param sentences the number of sentences
+     */
+    public void addSentences(int sentences) {
+        sentenceCount.addAndGet(sentences);
+    }
+
+    /**
+     * Adds a match of a pattern.
+     * @param id the id of the pattern
+     */
+    public void addMatch(int id) {
+        matchCounts.incrementAndGet(id);
+        matchCount.incrementAndGet();
+    }
+
+    /**
+     * Removes a match of a pattern that has been added, e.g. because it was dropped as a duplicate.
+     * @param id the id of the pattern
+     */
+    public void removeMatch(int id) {
+        matchCounts.decrementAndGet(id);
+        matchCount.decrementAndGet();
+    }
+
+    /**
+     * Adds a file that has been processed.
+     * @param bytes the compressed size of the file
+     */
+    public void addProcessedBytes(long bytes) {
+        processedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Publishes the stats immediately and then at the interval.
+     */
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Publishes the stats; errors are logged, so that the next publication is attempted nonetheless.
+     */
+    @Override
+    public void run() {
+        try {
+            publish();
+        }
+        catch (IOException ex) {
+            log.warning(String.format("Stats couldn't be published: %s", ex.getMessage()));
+        }
+    }
+
+    /**
+     * Writes the pattern and emotion stats and the progress of the run.
+     * @throws IOException if a file couldn't be written
+     */
+    public synchronized void publish() throws IOException {
+        long[] counts = PatternRegistry.snapshot(matchCounts);
+        long sentences = sentenceCount.get();
+        long matches = matchCount.get();
+        long processed = processedBytes.get();
+        long elapsed = System.currentTimeMillis() - startTime;
+
+        Stats.writeStats(registry, counts, sentences, outDir);
+
+        double seconds = elapsed / 1000.0;
+        double sentencesPerSec = seconds == 0 ? 0 : (sentences - restoredSentences.get()) / seconds;
+        double matchesPerSec = seconds == 0 ? 0 : (matches - restoredMatches.get()) / seconds;
+        double processedPercent = totalBytes == 0 ? 100 : (double)processed / totalBytes * 100;
+        // the remaining bytes are assumed to take as long as the processed ones; unknown until a file is processed
+        String eta = processed == 0 ? "-" : String.format(Locale.US, "%.0f", seconds * (totalBytes - processed) / processed);
+
+        File progressFile = new File(outDir + "progress_stats.txt");
+        File progressTemp = new File(progressFile.getPath() + ".tmp");
+        PrintWriter progressWriter = new PrintWriter(new BufferedWriter(new FileWriter(progressTemp)));
+        progressWriter.printf("elapsed(s)\t#sentences\tsentences/s\t#matches\tmatches/s\tprocessed(MB)\ttotal(MB)\t%%processed\tETA(s)\n");
+        progressWriter.printf(Locale.US, "%.0f\t%d\t%.2f\t%d\t%.2f\t%.2f\t%.2f\t%.2f\t%s\n", seconds, sentences,
+                sentencesPerSec, matches, matchesPerSec, processed / 1e6, totalBytes / 1e6, processedPercent, eta);
+        progressWriter.close();
+        if (progressWriter.checkError()) {
+            throw new IOException(String.format("%s couldn't be written.", progressTemp));
+        }
+        Utils.replaceFile(progressTemp, progressFile);
+
+        log.info(String.format(Locale.US, "%d sentences (%.2f/s), %d matches (%.2f/s), %.2f%% processed, ETA %ss",
+                sentences, sentencesPerSec, matches, matchesPerSec, processedPercent, eta));
+    }
+
+    /**
+     * Stops publishing at the interval and publishes the final stats.
+     * @throws IOException if the final stats couldn't be written
+     */
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        publish();
+    }
+}
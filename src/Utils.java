@@ -1,11 +1,9 @@
 import com.sun.javaws.exceptions.InvalidArgumentException;
 import edu.jhu.agiga.*;
-import edu.stanford.nlp.trees.Tree;
 
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.StringWriter;
 import java.util.*;
 
 /**
@@ -21,71 +19,33 @@ public class Utils {
     // possessive pronouns
     private static List<String> possessivePronouns = Arrays.asList("my", "your", "his", "her", "its", "our", "their");
 
-    // named entity tags
-    private static List<String> NEtags = Arrays.asList("NUMBER", "PERSON", "LOCATION", "ORGANIZATION");
-
-    /**
-     * Method to create a map mapping sentence indexes to a list of mentions and their representatives.
-     * @param corefs a list of AgigaCoref
-     * @return the mention map
-     */
-    public static Map<Integer, List<Map.Entry<AgigaMention, AgigaMention>>> createMentionMap(List<AgigaCoref> corefs) {
-
-        Map<Integer, List<Map.Entry<AgigaMention, AgigaMention>>> mentionMap = new HashMap<Integer, List<Map.Entry<AgigaMention, AgigaMention>>>();
-
-        for (AgigaCoref coref : corefs) {
-            List<AgigaMention> mentions = coref.getMentions();
-            AgigaMention rep = null;
-
-            for (AgigaMention mention : mentions) {
-                if (mention.isRepresentative()) {
-                    rep = mention;
-                    break;
-                }
-            }
-
-            for (AgigaMention mention : mentions) {
-                int sentIdx = mention.getSentenceIdx();
-                if (!mentionMap.containsKey(sentIdx)) {
-                    mentionMap.put(sentIdx, new ArrayList<Map.Entry<AgigaMention, AgigaMention>>());
-                }
-
-                mentionMap.get(sentIdx).add(new AbstractMap.SimpleEntry<AgigaMention, AgigaMention>(mention, rep));
-            }
-        }
-
-        return mentionMap;
-    }
-
     /**
      * Get the bag-of-words of the NP or S(BAR) that encompasses the cause, tagged with parts-of-speech.
-     * @param root the root of the tree
-     * @param leaf the leaf node (cause)
+     * @param tree the constituency tree of the sentence
+     * @param leafIdx the index of the leaf node (cause)
      * @param label the label of the cause (either NP or S)
      * @param tokens a list of Agiga tokens of the sentence
      * @return the bag-of-words of the sentence
      */
-    public static String getBagOfWords(Tree root, Tree leaf, String label, List<AgigaToken> tokens) {
+    public static String getBagOfWords(SentenceTree tree, int leafIdx, String label, List<AgigaToken> tokens) {
 
         // at height 1 from leaf node is preterminal, at height 2 is the first ancestor
         for (int height = 2; height <= 6; height++) {
-            try {
-                Tree ancestor_1 = leaf.ancestor(height, root);
-                Tree ancestor_2 = leaf.ancestor(height + 1, root);
-                String ancestor_1_label = ancestor_1.label().toString();
-                String ancestor_2_label = ancestor_2.label().toString();
-
-                if ((ancestor_1_label.equals(label) || ancestor_1_label.equals(label + "BAR")) &&
-                        !(ancestor_2_label.equals(label) || ancestor_2_label.equals(label + "BAR"))) {
-                    int start = ancestor_1.getSpan().getSource();
-                    int end = ancestor_1.getSpan().getTarget();
-
-                    return createStringFromTokens(tokens.subList(start, end + 1), true, true, false, true);
-                }
-            } catch (ArrayIndexOutOfBoundsException exception) {
-                // is thrown when node doesn't have a child
-            } catch (NullPointerException exception) {
-                // is thrown when ancestor is null as tree ends
+            int ancestor_1 = tree.getAncestor(leafIdx, height);
+            int ancestor_2 = tree.getAncestor(leafIdx, height + 1);
+            if (ancestor_1 == -1 || ancestor_2 == -1) {
+                // the tree ends
+                break;
+            }
+
+            String ancestor_1_label = tree.getLabel(ancestor_1);
+            String ancestor_2_label = tree.getLabel(ancestor_2);
+            if ((ancestor_1_label.equals(label) || ancestor_1_label.equals(label + "BAR")) &&
+                    !(ancestor_2_label.equals(label) || ancestor_2_label.equals(label + "BAR"))) {
+                int start = tree.getSpanStart(ancestor_1);
+                int end = tree.getSpanEnd(ancestor_1);
+
+                return createStringFromTokens(tokens.subList(start, end + 1), true, true, false, true);
             }
         }
 
@@ -131,32 +91,31 @@ public class Utils {
      * Transforms a comp to a string made up of its subject, predicate, object, and optionally prepositional objects.
      * The string can optionally be in lemma form and coreferents and named entities can be replaced.
      * @param gov the index of the comp predicate (dependent of the comp, governor of nsubj and dobj relationships in comp)
-     * @param colDeps the list of collapsed AgigaTypedDependencies of the sentence
+     * @param colDeps the index of the collapsed dependencies of the sentence
      * @param tokens the list of tokens of the sentence
-     * @param sentences the list of sentences in the document
-     * @param mentionPairs a list of pairs of mentions and their representative mention
-     * @param NEtokens the tokens of the sentence tagged with named entities
+     * @param corefs the coreference index of the document
+     * @param nerTags the named entity tags of the document
+     * @param sentIdx the index of the sentence
      * @param addPObj if prepositional objects should be added
      * @param replaceCoref if coreferents should be replaced
      * @param asLemma if the string should be returned in lemma form
      * @param addNER if named entities should be replaced with their named entity tags
      * @return the string of the comp
      */
-    public static String compToString(int gov, List<AgigaTypedDependency> colDeps, List<AgigaToken> tokens,
-                                     List<AgigaSentence> sentences, List<Map.Entry<AgigaMention,
-                                     AgigaMention>> mentionPairs, String[] NEtokens,
+    public static String compToString(int gov, DependencyIndex colDeps, List<AgigaToken> tokens,
+                                     CorefIndex corefs, NerView nerTags, int sentIdx,
                                      boolean addPObj, boolean replaceCoref, boolean asLemma, boolean addNER) {
 
         // retrieve subject and direct object
         String nsubj = "";
         String dobj = "";
-        for (AgigaTypedDependency dep : colDeps) {
-            String type = dep.getType();
-            if ((type.equals("nsubj") || type.equals("nsubjpass"))&& dep.getGovIdx() == gov) {
-                nsubj = depToString(dep.getDepIdx(), colDeps, tokens, sentences, mentionPairs, NEtokens, addPObj, replaceCoref, asLemma, addNER);
+        for (int edge = colDeps.childrenStart(gov); edge < colDeps.childrenEnd(gov); edge++) {
+            DependencyIndex.Relation relation = colDeps.getRelation(edge);
+            if (relation == DependencyIndex.Relation.nsubj || relation == DependencyIndex.Relation.nsubjpass) {
+                nsubj = depToString(colDeps.getDep(edge), colDeps, tokens, corefs, nerTags, sentIdx, addPObj, replaceCoref, asLemma, addNER);
             }
-            else if (type.equals("dobj") && dep.getGovIdx() == gov) {
-                dobj = depToString(dep.getDepIdx(), colDeps, tokens, sentences, mentionPairs, NEtokens, addPObj, replaceCoref, asLemma, addNER);
+            else if (relation == DependencyIndex.Relation.dobj) {
+                dobj = depToString(colDeps.getDep(edge), colDeps, tokens, corefs, nerTags, sentIdx, addPObj, replaceCoref, asLemma, addNER);
             }
         }
 
@@ -182,7 +141,7 @@ public class Utils {
                 String prep = (String)pObjs.keySet().toArray()[i];
                 sb.append(prep);
                 sb.append(":");
-                sb.append(buildString(pObjs.get(prep), tokens, sentences, mentionPairs, NEtokens, replaceCoref, asLemma, addNER, "_"));
+                sb.append(buildString(pObjs.get(prep), tokens, corefs, nerTags, sentIdx, replaceCoref, asLemma, addNER, "_"));
                 if (i + 1 == pObjs.keySet().size()) {
                     sb.append("]");
                 }
@@ -196,24 +155,23 @@ public class Utils {
      * Transform a subject or object dependency into a string, adding modifiers, and optionally prepositional objects,
      * in lemma form, replacing corefs and named entities.
      * @param gov the index of the subject / object (dependent of the nsubj / dobj, etc. dependency)
-     * @param colDeps a list of collapsed AgigaTypedDependencies
+     * @param colDeps the index of the collapsed dependencies of the sentence
      * @param tokens the tokens in the sentence
-     * @param sentences the list of sentences in the document
-     * @param mentionPairs a list of pairs of mentions and their representative mention
-     * @param NEtokens the list of tokens and their named entity tags
+     * @param corefs the coreference index of the document
+     * @param nerTags the named entity tags of the document
+     * @param sentIdx the index of the sentence
      * @param addPObj if prepositional objects should be added
      * @param replaceCoref if coreferents should be replaced
      * @param asLemma if the string should be returned in lemma form
      * @param addNER if named entities should be replaced with their named entity tags
      * @return the subject or object in string form
      */
-    public static String depToString(int gov, List<AgigaTypedDependency> colDeps, List<AgigaToken> tokens,
-                                     List<AgigaSentence> sentences, List<Map.Entry<AgigaMention,
-                                     AgigaMention>> mentionPairs, String[] NEtokens,
+    public static String depToString(int gov, DependencyIndex colDeps, List<AgigaToken> tokens,
+                                     CorefIndex corefs, NerView nerTags, int sentIdx,
                                      boolean addPObj, boolean replaceCoref, boolean asLemma, boolean addNER) {
 
         StringBuilder sb = new StringBuilder();
-        sb.append(buildString(addModifiers(gov, colDeps), tokens, sentences, mentionPairs, NEtokens, replaceCoref, asLemma, addNER, " "));
+        sb.append(buildString(addModifiers(gov, colDeps), tokens, corefs, nerTags, sentIdx, replaceCoref, asLemma, addNER, " "));
 
         if (addPObj) {
             Map<String, List<Integer>> pObjs = extractPObjs(gov, colDeps);
@@ -221,7 +179,7 @@ public class Utils {
                 sb.append(" ");
                 sb.append(prep);
                 sb.append(":");
-                sb.append(buildString(pObjs.get(prep), tokens, sentences, mentionPairs, NEtokens, replaceCoref, asLemma, addNER, "_"));
+                sb.append(buildString(pObjs.get(prep), tokens, corefs, nerTags, sentIdx, replaceCoref, asLemma, addNER, "_"));
             }
         }
 
@@ -232,17 +190,17 @@ public class Utils {
      * Build a string from token indexes. Optionally in lemma form, replacing coreferents and named entities.
      * @param idxs the indexes of the tokens that the string should be built from
      * @param tokens the tokens in the sentence
-     * @param sentences the list of sentences in the document
-     * @param mentionPairs a list of pairs of mentions and their representative mention
-     * @param NEtokens the list of tokens and their named entity tags
+     * @param corefs the coreference index of the document
+     * @param nerTags the named entity tags of the document
+     * @param sentIdx the index of the sentence
      * @param replaceCoref if coreferents should be replaced
      * @param asLemma if the string should be returned in lemma form
      * @param addNER if named entities should be replaced with their named entity tags
      * @param sep separator (whitespace for regular strings, underscore for prepositional objects)
      * @return the string built from the specified tokens
      */
-    private static String buildString(List<Integer> idxs, List<AgigaToken> tokens, List<AgigaSentence> sentences,
-                                      List<Map.Entry<AgigaMention, AgigaMention>> mentionPairs, String[] NEtokens,
+    private static String buildString(List<Integer> idxs, List<AgigaToken> tokens, CorefIndex corefs,
+                                      NerView nerTags, int sentIdx,
                                       boolean replaceCoref, boolean asLemma, boolean addNER, String sep) {
 
         StringBuilder sb = new StringBuilder();
@@ -250,19 +208,17 @@ public class Utils {
 
             AgigaToken token = tokens.get(i);
             String str = token.getWord();
-            String NEtoken = NEtokens[i].split("/")[1];
+            NerView.Tag tag = nerTags.getTag(sentIdx, i);
 
             // replace numbers
-            if (addNER && NEtoken.equals("NUMBER")) {
+            if (addNER && tag == NerView.Tag.NUMBER) {
                 str = "NUMBER";
             }
             // if mention is pronoun, replace with representative mention if exists
             else if (replaceCoref && pronouns.contains(token.getWord())) {
-                try {
-                    str = replaceCoref(str, i, sentences, mentionPairs, asLemma, addNER);
-                }
-                catch (IOException ex) {
-                    System.out.println("NE tags couldn't be assigned.");
+                String representative = corefs.getRepresentative(sentIdx, i);
+                if (representative != null) {
+                    str = representative;
                 }
             }
             else if (asLemma && !possessivePronouns.contains(token.getWord())) {
@@ -272,9 +228,9 @@ public class Utils {
             sb.append(sep);
             sb.append(str);
 
-            if (addNER && !NEtoken.equals("NUMBER") && NEtags.contains(NEtoken)) {
+            if (addNER && tag != NerView.Tag.NUMBER && tag != NerView.Tag.other) {
                 sb.append("/");
-                sb.append(NEtokens[i].split("/")[1]);
+                sb.append(tag);
             }
         }
 
@@ -284,16 +240,17 @@ public class Utils {
     /**
      * Return a list containing the index of a noun and its modifiers (compound nouns, adjectives, numbers).
      * @param gov the index of the noun
-     * @param colDeps the list of collapsed AgigaTypedDependencies of the sentence
+     * @param colDeps the index of the collapsed dependencies of the sentence
      * @return a sorted list of indexes
      */
-    private static List<Integer> addModifiers(int gov, List<AgigaTypedDependency> colDeps) {
+    private static List<Integer> addModifiers(int gov, DependencyIndex colDeps) {
         List<Integer> mods = new ArrayList<Integer>();
         mods.add(gov);
-        for (AgigaTypedDependency dep : colDeps) {
-            String type = dep.getType();
-            if ((type.equals("nn") || type.equals("amod") || type.equals("num")) && dep.getGovIdx() == gov) {
-                mods.add(dep.getDepIdx());
+        for (int edge = colDeps.childrenStart(gov); edge < colDeps.childrenEnd(gov); edge++) {
+            DependencyIndex.Relation relation = colDeps.getRelation(edge);
+            if (relation == DependencyIndex.Relation.nn || relation == DependencyIndex.Relation.amod ||
+                    relation == DependencyIndex.Relation.num) {
+                mods.add(colDeps.getDep(edge));
             }
         }
 
@@ -304,54 +261,20 @@ public class Utils {
     /**
      * Return the indexes of the prepositional objects of a noun mapped to their prepositions.
      * @param gov the index of the noun
-     * @param colDeps the list of collapsed AgigaTypedDependencies of the sentence
+     * @param colDeps the index of the collapsed dependencies of the sentence
      * @return a map containing the preposition type and a list of indexes of the prepositional object
      */
-    private static Map<String, List<Integer>> extractPObjs(int gov, List<AgigaTypedDependency> colDeps) {
+    private static Map<String, List<Integer>> extractPObjs(int gov, DependencyIndex colDeps) {
         Map<String, List<Integer>> pObjs = new HashMap<String, List<Integer>>();
-        for (AgigaTypedDependency dep : colDeps) {
-            if (dep.getType().startsWith("prep_") && dep.getGovIdx() == gov) {
-                pObjs.put(dep.getType().substring(5), addModifiers(dep.getDepIdx(), colDeps));
+        for (int edge = colDeps.childrenStart(gov); edge < colDeps.childrenEnd(gov); edge++) {
+            if (colDeps.getRelation(edge) == DependencyIndex.Relation.prep) {
+                pObjs.put(colDeps.getPreposition(edge), addModifiers(colDeps.getDep(edge), colDeps));
             }
         }
 
         return pObjs;
     }
 
-    /**
-     * Replace a mention with its most representative mention if it exists and is not too long.
-     * @param input the mention that should be replaced
-     * @param idx the index of the mention
-     * @param sentences a list of sentences of the document
-     * @param mentionPairs a list of pairs of mentions and their representative mention
-     * @return the most representative mention; if it doesn't exist or is too long, the mention
-     */
-    private static String replaceCoref(String input, int idx, List<AgigaSentence> sentences,
-                                       List<Map.Entry<AgigaMention, AgigaMention>> mentionPairs,
-                                       boolean asLemma, boolean addNER) throws IOException {
-
-        for (Map.Entry<AgigaMention, AgigaMention> pair : mentionPairs) {
-            AgigaMention mention = pair.getKey();
-            AgigaMention rep = pair.getValue();
-
-            if (mention.getStartTokenIdx() == idx) {
-                List<AgigaToken> repSentTokens = sentences.get(rep.getSentenceIdx()).getTokens();
-                AgigaSentence repSent = sentences.get(rep.getSentenceIdx());
-                List<AgigaTypedDependency> colDeps = repSent.getColDeps();
-                // get NE tags
-                StringWriter stringWriter = new StringWriter();
-                repSent.writeNerTags(stringWriter);
-                String[] repNEtokens = stringWriter.toString().split(" ");
-
-                String representative = depToString(rep.getHeadTokenIdx(), colDeps, repSentTokens, sentences, null, repNEtokens,
-                        true, false, asLemma, addNER);
-                return representative;
-            };
-        }
-
-        return input;
-    }
-
     /**
      * Combines a variable number of paths into a single valid path.
      * @param paths a variable number of file path strings
@@ -397,6 +320,18 @@ public class Utils {
         }
     }
 
+    /**
+     * Replaces a file with a temporary file that holds its new content, so that the file is never seen partially written.
+     * @param tempFile the temporary file; has to be in the same directory as the file
+     * @param file the file that should be replaced
+     * @throws IOException if the temporary file couldn't be renamed
+     */
+    public static void replaceFile(File tempFile, File file) throws IOException {
+        if (!tempFile.renameTo(file)) {
+            throw new IOException(String.format("%s couldn't be renamed to %s.", tempFile, file));
+        }
+    }
+
     /**
      * Retrieves the files in a directory that match all of the specified patterns. You can -- of course -- AND your
      * patterns together as well.